@@ -0,0 +1,82 @@
+package com.codecraft.config;
+
+import com.codecraft.service.AiJobService;
+import com.codecraft.service.AiProviderRouter;
+import com.codecraft.service.AiResponseCache;
+import com.codecraft.service.CircuitBreaker;
+import com.codecraft.service.DocumentJobService;
+import com.codecraft.service.SafetySessionService;
+import com.codecraft.service.UpstreamScheduler;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 把各组件已有的运行状态注册为 Micrometer 指标：调度队列、响应缓存、端点熔断状态与各类任务数。
+ * 取值时读取组件当前状态，不额外维护计数；ai.jobs.queued 每次采集查询一次 ai_jobs 表。
+ */
+@Component
+public class AiComponentMetrics implements MeterBinder {
+
+    private final UpstreamScheduler scheduler;
+    private final AiResponseCache responseCache;
+    private final AiProviderRouter router;
+    private final SafetySessionService safetySessions;
+    private final DocumentJobService documentJobs;
+    private final AiJobService aiJobs;
+
+    public AiComponentMetrics(UpstreamScheduler scheduler,
+                              AiResponseCache responseCache,
+                              AiProviderRouter router,
+                              SafetySessionService safetySessions,
+                              DocumentJobService documentJobs,
+                              AiJobService aiJobs) {
+        this.scheduler = scheduler;
+        this.responseCache = responseCache;
+        this.router = router;
+        this.safetySessions = safetySessions;
+        this.documentJobs = documentJobs;
+        this.aiJobs = aiJobs;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("ai.scheduler.in.flight", scheduler, s -> s.stats().getInFlight()).register(registry);
+        Gauge.builder("ai.scheduler.queued", scheduler, s -> s.stats().getQueued()).register(registry);
+        FunctionCounter.builder("ai.scheduler.rejected", scheduler, s -> s.stats().getRejected()).register(registry);
+
+        Gauge.builder("ai.cache.size", responseCache, c -> c.stats().getSize()).register(registry);
+        cacheCounter(registry, "memory_hit", c -> c.stats().getMemoryHits());
+        cacheCounter(registry, "store_hit", c -> c.stats().getStoreHits());
+        cacheCounter(registry, "miss", c -> c.stats().getMisses());
+
+        // 0 关闭、1 半开、2 打开
+        router.stats().forEach(provider -> Gauge.builder("ai.provider.breaker.state", router, r -> r.stats().stream()
+                        .filter(stats -> stats.getName().equals(provider.getName()))
+                        .mapToDouble(stats -> breakerLevel(stats.getBreakerState()))
+                        .findFirst().orElse(Double.NaN))
+                .tag("provider", provider.getName())
+                .register(registry));
+
+        Gauge.builder("ai.safety.sessions.active", safetySessions, SafetySessionService::activeSessions).register(registry);
+        Gauge.builder("ai.document.jobs.active", documentJobs, DocumentJobService::activeJobs).register(registry);
+        Gauge.builder("ai.jobs.running", aiJobs, AiJobService::runningJobs).register(registry);
+        Gauge.builder("ai.jobs.queued", aiJobs, AiJobService::queuedJobs).register(registry);
+    }
+
+    private void cacheCounter(MeterRegistry registry, String result, ToDoubleFunction<AiResponseCache> value) {
+        FunctionCounter.builder("ai.cache.requests", responseCache, value).tag("result", result).register(registry);
+    }
+
+    private static double breakerLevel(String state) {
+        return switch (CircuitBreaker.State.valueOf(state)) {
+            case CLOSED -> 0;
+            case HALF_OPEN -> 1;
+            case OPEN -> 2;
+        };
+    }
+}
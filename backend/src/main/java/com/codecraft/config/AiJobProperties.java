@@ -0,0 +1,30 @@
+package com.codecraft.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 异步 AI 任务：提交后立即返回任务 id，由各实例的工作者从 ai_jobs 表中领取执行，结果保存一段时间供查询。
+ */
+@Component
+@ConfigurationProperties(prefix = "ai.jobs")
+@Data
+public class AiJobProperties {
+
+    // 本实例同时执行的任务数，为 0 时只接收任务不执行
+    private int concurrency = 4;
+    // 领取排队任务的轮询间隔；本实例提交的任务会立即尝试领取
+    private long pollIntervalMs = 1000;
+    // 执行中任务的租约时长，执行它的实例每 maintenance-interval-ms 续约一次
+    private long leaseMs = 60000;
+    private long maintenanceIntervalMs = 20000;
+    // 租约过期（实例退出）后最多重新执行的次数
+    private int maxAttempts = 3;
+    // 结束后结果的保留时长
+    private long resultTtlMs = 86_400_000;
+    // 每个用户排队与执行中的任务数上限
+    private int maxPendingPerUser = 20;
+    // 长轮询单次最长等待秒数
+    private int maxWaitSeconds = 60;
+}
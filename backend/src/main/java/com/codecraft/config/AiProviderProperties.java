@@ -0,0 +1,60 @@
+package com.codecraft.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 大模型端点与路由策略。endpoints 为空时使用 deepseek.api.* 构造唯一的 deepseek 端点。
+ */
+@Component
+@ConfigurationProperties(prefix = "ai.providers")
+@Data
+public class AiProviderProperties {
+
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    // 按请求类型（comment/explain/document/rewrite/test）配置可用端点与选择策略，未配置的类型使用全部端点
+    private Map<String, Policy> policies = new HashMap<>();
+    private Strategy defaultStrategy = Strategy.FASTEST;
+
+    // 延迟与错误率的指数滑动平均系数
+    private double ewmaAlpha = 0.2;
+    // 尚无样本的端点按该延迟参与排序，默认 0 即每个端点至少先被尝试一次
+    private long initialLatencyMs = 0;
+    // 错误率达到阈值（且样本数不少于 minSamples）时视为不健康，排到候选末尾；最近一次失败 recoveryMs 后恢复
+    private double errorRateThreshold = 0.5;
+    private int minSamples = 5;
+    private long recoveryMs = 30_000;
+
+    public enum Strategy {
+        // 按滑动平均延迟选择最快的健康端点
+        FASTEST,
+        // 按配置顺序选择，仅在失败时切换到下一个
+        PRIORITY
+    }
+
+    @Data
+    public static class Endpoint {
+        private String name;
+        // OpenAI 兼容的 chat/completions 完整地址
+        private String url;
+        private String apiKey;
+        private String model;
+        private double temperature = 0.1;
+        private boolean enabled = true;
+        // 单次尝试的整体超时，0 表示使用 ai.upstream.total-timeout-ms
+        private long timeoutMs;
+    }
+
+    @Data
+    public static class Policy {
+        private Strategy strategy = Strategy.FASTEST;
+        private List<String> providers = new ArrayList<>();
+    }
+}
@@ -0,0 +1,19 @@
+package com.codecraft.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 批量处理接口：一次请求提交多个条目，鉴权与配额只做一次，结果按完成顺序以 NDJSON 逐行返回。
+ */
+@Component
+@ConfigurationProperties(prefix = "ai.batch")
+@Data
+public class BatchProperties {
+
+    // 单次请求的条目数上限
+    private int maxItems = 200;
+    // 同一批次同时进行的调用数，实际并发还受 ai.scheduler 的每用户上限约束
+    private int concurrency = 8;
+}
@@ -0,0 +1,29 @@
+package com.codecraft.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 分块文档生成任务：大文件或多文件按类/函数边界切块，并发生成各块的局部文档后合并为一份。
+ */
+@Component
+@ConfigurationProperties(prefix = "ai.document-jobs")
+@Data
+public class DocumentJobProperties {
+
+    // 单个 chunk 的源码 token 上限，超过时在类/函数边界处切分
+    private int chunkTokens = 3000;
+    // 同一任务同时进行的 map 调用数，实际并发还受 ai.scheduler 的每用户上限约束
+    private int mapConcurrency = 4;
+    // 单次合并调用输入的局部文档 token 上限，超过时分组逐层合并
+    private int reduceTokens = 6000;
+    private int maxFiles = 200;
+    // 单个任务所有文件的总字符数上限
+    private int maxChars = 2_000_000;
+    // 每个用户同时运行的任务数上限
+    private int maxActivePerUser = 2;
+    // 已结束的任务保留多久（毫秒），之后查询返回 404
+    private long ttlMs = 3_600_000;
+    private long evictIntervalMs = 60000;
+}
@@ -0,0 +1,37 @@
+package com.codecraft.config;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ai.execution.mode=VIRTUAL 时打开 Spring Boot 的虚拟线程支持（Tomcat、任务执行器、定时任务），
+ * 并让 Reactor 的 boundedElastic 使用虚拟线程。运行时低于 JDK 21 时直接启动失败，避免静默退回平台线程。
+ */
+public class ExecutionModeEnvironmentPostProcessor implements EnvironmentPostProcessor {
+
+    static final String VIRTUAL_THREADS_PROPERTY = "spring.threads.virtual.enabled";
+    static final String REACTOR_VIRTUAL_PROPERTY = "reactor.schedulers.defaultBoundedElasticOnVirtualThreads";
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        String mode = environment.getProperty("ai.execution.mode", ExecutionProperties.Mode.SERVLET.name());
+        if (!ExecutionProperties.Mode.VIRTUAL.name().equalsIgnoreCase(mode.trim())) return;
+        if (Runtime.version().feature() < 21) {
+            throw new IllegalStateException("ai.execution.mode=VIRTUAL 需要 JDK 21 及以上，当前为 " + Runtime.version());
+        }
+        Map<String, Object> defaults = new HashMap<>();
+        if (!environment.containsProperty(VIRTUAL_THREADS_PROPERTY)) {
+            defaults.put(VIRTUAL_THREADS_PROPERTY, "true");
+        }
+        // Reactor 在 Schedulers 类初始化时读取该系统属性，这里早于任何调度器创建
+        if (System.getProperty(REACTOR_VIRTUAL_PROPERTY) == null) {
+            System.setProperty(REACTOR_VIRTUAL_PROPERTY, "true");
+        }
+        environment.getPropertySources().addLast(new MapPropertySource("aiExecutionMode", defaults));
+    }
+}
@@ -0,0 +1,28 @@
+package com.codecraft.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * AI 请求链路中阻塞调用（鉴权查库、日志入队等）的执行方式。
+ */
+@Component
+@ConfigurationProperties(prefix = "ai.execution")
+@Data
+public class ExecutionProperties {
+
+    public enum Mode {
+        // 阻塞调用直接在 Tomcat 请求线程上执行
+        SERVLET,
+        // 阻塞调用切换到专用的有界线程池，Tomcat 线程在控制器返回后立即释放，整条 AI 链路不占用请求线程
+        REACTIVE,
+        // Tomcat 请求线程、@Async/@Scheduled 与 boundedElastic 都运行在虚拟线程上，阻塞调用直接执行；需 JDK 21
+        VIRTUAL
+    }
+
+    private Mode mode = Mode.SERVLET;
+    // REACTIVE 模式下专用线程池的线程上限与排队上限
+    private int blockingThreads = 64;
+    private int blockingQueueCapacity = 100_000;
+}
@@ -0,0 +1,24 @@
+package com.codecraft.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * ai_request_logs 的存储管理：按月分区（仅 MySQL）与过期日志的归档清理。
+ */
+@Component
+@ConfigurationProperties(prefix = "ai.log.storage")
+@Data
+public class LogStorageProperties {
+
+    // 启用后在 MySQL 上把日志表转换为按 created_at 月份的 RANGE 分区表，并提前创建未来月份的分区
+    private boolean partitioned = false;
+    private int partitionsAhead = 3;
+    // 保留最近几个自然月（含当月）的日志，更早的归档后删除；为 0 时不清理
+    private int retentionMonths = 12;
+    private String archiveDir = "logs/archive";
+    // 归档与按批删除时每批的行数
+    private int batchSize = 5000;
+    private String cron = "0 30 3 * * *";
+}
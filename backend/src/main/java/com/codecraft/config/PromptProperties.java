@@ -0,0 +1,35 @@
+package com.codecraft.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prompt 体积预算。估算的 token 数（系统提示 + 用户提示）超出该类型的预算时，按损失从小到大依次压缩上下文。
+ */
+@Component
+@ConfigurationProperties(prefix = "ai.prompt")
+@Data
+public class PromptProperties {
+
+    private boolean enabled = true;
+    // 按请求类型的 token 预算，未配置的类型使用 default-budget
+    private Map<String, Integer> budgets = new HashMap<>(Map.of(
+            "comment", 3000,
+            "explain", 3000,
+            "rewrite", 4000,
+            "document", 8000,
+            "test", 8000));
+    private int defaultBudget = 6000;
+    // 允许压缩 code 本身的类型；comment/rewrite 需要原样返回代码，只能压缩上下文
+    private List<String> reducibleCode = new ArrayList<>(List.of("document", "test"));
+
+    public int budgetFor(String type) {
+        return budgets.getOrDefault(type, defaultBudget);
+    }
+}
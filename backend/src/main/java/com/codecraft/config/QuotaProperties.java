@@ -0,0 +1,32 @@
+package com.codecraft.config;
+
+import com.codecraft.entity.UserRole;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 按角色配置的调用配额，-1 表示不限。
+ * 未配置 USER 时沿用 ai.daily-limit 作为每日上限。
+ */
+@Component
+@ConfigurationProperties(prefix = "ai.quota")
+@Data
+public class QuotaProperties {
+
+    private long reconcileIntervalMs = 300_000;
+
+    private Map<UserRole, Limits> limits = new EnumMap<>(UserRole.class);
+
+    @Data
+    public static class Limits {
+        private long daily = -1;
+        private long hourly = -1;
+        // 突发限制：burstWindowSeconds 滑动窗口内最多 burst 次
+        private long burst = -1;
+        private long burstWindowSeconds = 60;
+    }
+}
@@ -0,0 +1,54 @@
+package com.codecraft.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 上游调用的重试、对冲请求与熔断配置，作用于每个大模型端点。
+ */
+@Component
+@ConfigurationProperties(prefix = "ai.resilience")
+@Data
+public class ResilienceProperties {
+
+    private Retry retry = new Retry();
+    private Hedge hedge = new Hedge();
+    private Breaker breaker = new Breaker();
+
+    @Data
+    public static class Retry {
+        // 首次调用之外的最多重试次数，0 表示不重试
+        private int maxRetries = 2;
+        private long initialBackoffMs = 200;
+        private long maxBackoffMs = 5_000;
+        // 上游要求的 Retry-After 超过该值时不再等待，直接切换端点
+        private long maxRetryAfterSeconds = 10;
+    }
+
+    @Data
+    public static class Hedge {
+        private boolean enabled = false;
+        // 只对耗时短的请求类型发送对冲请求
+        private List<String> types = new ArrayList<>(List.of("explain", "comment"));
+        // 首个请求超过该端点近期延迟的 percentile 分位仍未返回时，发出第二个请求
+        private double percentile = 0.95;
+        private long minDelayMs = 300;
+        // 延迟样本不足时使用 minDelayMs
+        private int minSamples = 20;
+    }
+
+    @Data
+    public static class Breaker {
+        // 最近 slidingWindow 次调用中失败比例达到阈值（且调用数不少于 minimumCalls）时打开
+        private int slidingWindow = 20;
+        private int minimumCalls = 10;
+        private double failureRateThreshold = 0.5;
+        // 打开后等待 openMs 进入半开，放行 halfOpenCalls 次试探，全部成功才关闭
+        private long openMs = 30_000;
+        private int halfOpenCalls = 3;
+    }
+}
@@ -0,0 +1,55 @@
+package com.codecraft.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 安全检查规则配置。rules 非空时直接使用，否则从 rules-location 指向的 JSON 文件加载。
+ */
+@Component
+@ConfigurationProperties(prefix = "ai.safety")
+@Data
+public class SafetyProperties {
+
+    private String rulesLocation = "classpath:safety-rules.json";
+    private List<Rule> rules = new ArrayList<>();
+    // 单次检查返回的命中位置上限，超出后只统计规则不再记录位置
+    private int maxHits = 500;
+    private Sessions sessions = new Sessions();
+
+    @Data
+    public static class Rule {
+        private String id;
+        private String message;
+        // 字面量触发词（不能包含换行），任一出现即成为候选
+        private List<String> triggers = new ArrayList<>();
+        // 可选的确认正则，从触发词起始位置匹配（lookingAt），为空时触发词即命中
+        private String confirm;
+        private boolean ignoreCase;
+        // 适用的语言（java/javascript/python/shell/sql），为空时适用所有语言；无法识别语言的内容总是检查全部规则
+        private List<String> languages = new ArrayList<>();
+        // 是否也检查字符串字面量（如代码中拼接的 SQL、shell 命令）；注释始终跳过
+        private boolean inStrings;
+    }
+
+    /**
+     * 增量检查会话：服务端保存文档副本，客户端只提交编辑差量。
+     */
+    @Data
+    public static class Sessions {
+        // 最后一次访问后保留的时长
+        private long ttlMs = 600000;
+        // 每个用户同时保留的会话数，超出时淘汰最久未访问的会话
+        private int maxPerUser = 20;
+        // 单个文档的字符数上限
+        private int maxChars = 5_000_000;
+        // 所有用户合计的会话数与文档字符数上限，超出时淘汰全局最久未访问的会话，限制会话占用的堆内存
+        private int maxSessions = 2000;
+        private long maxTotalChars = 50_000_000;
+        private long evictIntervalMs = 60000;
+    }
+}
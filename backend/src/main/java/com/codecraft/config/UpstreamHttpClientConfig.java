@@ -0,0 +1,61 @@
+package com.codecraft.config;
+
+import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * 上游大模型调用共用的 WebClient：独立连接池、keep-alive、gzip，TLS 下通过 ALPN 协商 HTTP/2，不支持时回落 HTTP/1.1。
+ */
+@Configuration
+@Slf4j
+public class UpstreamHttpClientConfig {
+
+    @Bean
+    public UpstreamPoolMetrics upstreamPoolMetrics() {
+        return new UpstreamPoolMetrics();
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider upstreamConnectionProvider(UpstreamHttpProperties props, UpstreamPoolMetrics poolMetrics) {
+        return ConnectionProvider.builder("upstream")
+                .maxConnections(props.getMaxConnections())
+                .pendingAcquireMaxCount(props.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(Duration.ofMillis(props.getPendingAcquireTimeoutMs()))
+                .maxIdleTime(Duration.ofMillis(props.getMaxIdleTimeMs()))
+                .maxLifeTime(Duration.ofMillis(props.getMaxLifeTimeMs()))
+                .evictInBackground(Duration.ofMillis(props.getEvictInBackgroundMs()))
+                .metrics(true, () -> poolMetrics)
+                .build();
+    }
+
+    @Bean
+    public WebClient upstreamWebClient(WebClient.Builder builder,
+                                       ConnectionProvider upstreamConnectionProvider,
+                                       UpstreamHttpProperties props) {
+        HttpClient httpClient = HttpClient.create(upstreamConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) props.getConnectTimeoutMs())
+                .option(ChannelOption.SO_KEEPALIVE, props.isKeepAlive())
+                .keepAlive(props.isKeepAlive())
+                .compress(props.isCompress());
+        // 首字节/读取间隔超时按请求设置（见 OpenAiCompatibleProvider），非流式调用在生成完成前不返回任何字节，不能共用流式的间隔
+        if (props.isHttp2()) {
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+        if (props.isWarmup()) {
+            httpClient.warmup().block();
+            log.info("上游 HTTP 客户端预热完成，连接池上限 {}，HTTP/2 {}", props.getMaxConnections(), props.isHttp2() ? "开启" : "关闭");
+        }
+        return builder.clone()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+}
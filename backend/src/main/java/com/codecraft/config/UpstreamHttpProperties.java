@@ -0,0 +1,37 @@
+package com.codecraft.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 调用大模型上游的 HTTP 客户端配置：连接池、协议与三段超时。
+ */
+@Component
+@ConfigurationProperties(prefix = "ai.upstream")
+@Data
+public class UpstreamHttpProperties {
+
+    // 连接池
+    private int maxConnections = 64;
+    private int pendingAcquireMaxCount = 256;
+    private long pendingAcquireTimeoutMs = 5_000;
+    // 空闲连接回收时间，应小于上游服务端的 keep-alive 超时，避免复用已被对端关闭的连接
+    private long maxIdleTimeMs = 30_000;
+    private long maxLifeTimeMs = 300_000;
+    private long evictInBackgroundMs = 30_000;
+
+    // 协议
+    private boolean http2 = true;
+    private boolean compress = true;
+    private boolean keepAlive = true;
+    // 启动时预先初始化事件循环、DNS 解析器与 SSL 上下文，减少首个请求的耗时
+    private boolean warmup = true;
+
+    // 超时：建连、流式调用等待首字节（同时也是两次读取之间的最长间隔）、非流式调用整体（默认沿用 deepseek.api.timeout-ms）
+    private long connectTimeoutMs = 3_000;
+    private long firstByteTimeoutMs = 60_000;
+    private long totalTimeoutMs = 600_000;
+    // 流式调用持续时间较长，单独设置整体上限
+    private long streamTotalTimeoutMs = 600_000;
+}
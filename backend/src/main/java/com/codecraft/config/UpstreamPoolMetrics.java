@@ -0,0 +1,62 @@
+package com.codecraft.config;
+
+import lombok.Data;
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 收集 reactor-netty 连接池指标。每个远端地址对应一个子连接池，注册时保存其实时指标对象，读取时直接取当前值。
+ */
+public class UpstreamPoolMetrics implements ConnectionProvider.MeterRegistrar {
+
+    private final Map<String, RegisteredPool> pools = new ConcurrentHashMap<>();
+
+    @Override
+    public void registerMetrics(String poolName, String id, SocketAddress remoteAddress, ConnectionPoolMetrics metrics) {
+        pools.put(id, new RegisteredPool(poolName, String.valueOf(remoteAddress), metrics));
+    }
+
+    @Override
+    public void deRegisterMetrics(String poolName, String id, SocketAddress remoteAddress) {
+        pools.remove(id);
+    }
+
+    public List<PoolStats> stats() {
+        List<PoolStats> result = new ArrayList<>();
+        pools.values().forEach(pool -> {
+            ConnectionPoolMetrics metrics = pool.metrics();
+            PoolStats stats = new PoolStats();
+            stats.setPoolName(pool.poolName());
+            stats.setRemoteAddress(pool.remoteAddress());
+            stats.setActive(metrics.acquiredSize());
+            stats.setIdle(metrics.idleSize());
+            stats.setAllocated(metrics.allocatedSize());
+            stats.setPending(metrics.pendingAcquireSize());
+            stats.setMaxConnections(metrics.maxAllocatedSize());
+            stats.setMaxPending(metrics.maxPendingAcquireSize());
+            result.add(stats);
+        });
+        return result;
+    }
+
+    private record RegisteredPool(String poolName, String remoteAddress, ConnectionPoolMetrics metrics) {
+    }
+
+    @Data
+    public static class PoolStats {
+        private String poolName;
+        private String remoteAddress;
+        private int active;
+        private int idle;
+        private int allocated;
+        private int pending;
+        private int maxConnections;
+        private int maxPending;
+    }
+}
@@ -1,61 +1,101 @@
 package com.codecraft.controller;
 
+import com.codecraft.config.UpstreamPoolMetrics;
 import com.codecraft.entity.User;
 import com.codecraft.entity.UserRole;
-import com.codecraft.repository.RequestLogRepository;
 import com.codecraft.repository.UserRepository;
+import com.codecraft.security.AuthPrincipal;
+import com.codecraft.security.AuthService;
+import com.codecraft.service.AiProviderRouter;
+import com.codecraft.service.AiResponseCache;
+import com.codecraft.service.RequestLogRetentionJob;
+import com.codecraft.service.UpstreamScheduler;
+import com.codecraft.service.UsageBackfillJob;
+import com.codecraft.service.UserStatsService;
 import lombok.Data;
+import org.springframework.data.domain.Page;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 
 import java.security.Principal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/admin")
-@CrossOrigin(origins = {"http://localhost:5173", "http://127.0.0.1:5173"})
+@CrossOrigin(origins = {"http://localhost:5173", "http://127.0.0.1:5173"}, exposedHeaders = AdminController.TOTAL_COUNT_HEADER)
 public class AdminController {
 
+    static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
     private final UserRepository userRepository;
-    private final RequestLogRepository requestLogRepository;
+    private final UserStatsService userStatsService;
     private final PasswordEncoder passwordEncoder;
+    private final AiResponseCache responseCache;
+    private final UpstreamScheduler upstreamScheduler;
+    private final AuthService authService;
+    private final UsageBackfillJob usageBackfillJob;
+    private final UpstreamPoolMetrics upstreamPoolMetrics;
+    private final AiProviderRouter providerRouter;
+    private final RequestLogRetentionJob logRetentionJob;
 
     public AdminController(UserRepository userRepository,
-                           RequestLogRepository requestLogRepository,
-                           PasswordEncoder passwordEncoder) {
+                           UserStatsService userStatsService,
+                           PasswordEncoder passwordEncoder,
+                           AiResponseCache responseCache,
+                           UpstreamScheduler upstreamScheduler,
+                           AuthService authService,
+                           UsageBackfillJob usageBackfillJob,
+                           UpstreamPoolMetrics upstreamPoolMetrics,
+                           AiProviderRouter providerRouter,
+                           RequestLogRetentionJob logRetentionJob) {
         this.userRepository = userRepository;
-        this.requestLogRepository = requestLogRepository;
+        this.userStatsService = userStatsService;
         this.passwordEncoder = passwordEncoder;
+        this.responseCache = responseCache;
+        this.upstreamScheduler = upstreamScheduler;
+        this.authService = authService;
+        this.usageBackfillJob = usageBackfillJob;
+        this.upstreamPoolMetrics = upstreamPoolMetrics;
+        this.providerRouter = providerRouter;
+        this.logRetentionJob = logRetentionJob;
     }
 
+    /**
+     * 分页返回用户及其用量统计，响应体仍为数组，总数放在 X-Total-Count 响应头。
+     * sort 可取 id、username、role、createdAt、updatedAt、totalRequests。
+     */
     @GetMapping("/users")
-    public ResponseEntity<List<UserWithStats>> listUsers(@RequestHeader(value = "Authorization", required = false) String authHeader) {
-        User current = authUser(authHeader);
-        if (current == null || current.getRole() != UserRole.ADMIN) {
+    public ResponseEntity<List<UserWithStats>> listUsers(@RequestHeader(value = "Authorization", required = false) String authHeader,
+                                                         @RequestParam(defaultValue = "0") int page,
+                                                         @RequestParam(defaultValue = "50") int size,
+                                                         @RequestParam(defaultValue = "id") String sort,
+                                                         @RequestParam(defaultValue = "asc") String direction) {
+        AuthPrincipal current = authService.authenticate(authHeader, UserRole.ADMIN);
+        if (current == null) {
             return ResponseEntity.status(403).build();
         }
-        List<User> users = userRepository.findAll();
-        var startEpoch = java.time.LocalDateTime.of(1970, 1, 1, 0, 0);
-        var endEpoch = java.time.LocalDateTime.of(9999, 12, 31, 23, 59);
-        List<UserWithStats> res = users.stream().map(u -> {
-            long total = requestLogRepository.countByUsernameAndCreatedAtBetween(
-                    u.getUsername(),
-                    startEpoch,
-                    endEpoch
-            );
-            return new UserWithStats(u.getId(), u.getUsername(), u.getRole().name(), u.getCreatedAt(), u.getUpdatedAt(), total);
-        }).collect(Collectors.toList());
-        return ResponseEntity.ok(res);
+        Page<User> users = userStatsService.pageUsers(page, size, sort, !"desc".equalsIgnoreCase(direction));
+        Map<String, UserStatsService.UserStats> stats = userStatsService.statsFor(
+                users.getContent().stream().map(User::getUsername).toList());
+        List<UserWithStats> res = users.getContent().stream()
+                .map(u -> UserWithStats.of(u, stats.get(u.getUsername())))
+                .collect(Collectors.toList());
+        return ResponseEntity.ok()
+                .header(TOTAL_COUNT_HEADER, String.valueOf(users.getTotalElements()))
+                .body(res);
     }
 
     @PostMapping("/users")
     public ResponseEntity<?> createUser(@RequestBody AdminUserRequest req,
                                         @RequestHeader(value = "Authorization", required = false) String authHeader) {
-        User current = authUser(authHeader);
-        if (current == null || current.getRole() != UserRole.ADMIN) {
+        AuthPrincipal current = authService.authenticate(authHeader, UserRole.ADMIN);
+        if (current == null) {
             return ResponseEntity.status(403).build();
         }
         if (userRepository.existsByUsername(req.getUsername())) {
@@ -73,49 +113,105 @@ public class AdminController {
     public ResponseEntity<?> updateUser(@PathVariable Long id,
                                         @RequestBody AdminUserRequest req,
                                         @RequestHeader(value = "Authorization", required = false) String authHeader) {
-        User current = authUser(authHeader);
-        if (current == null || current.getRole() != UserRole.ADMIN) {
+        AuthPrincipal current = authService.authenticate(authHeader, UserRole.ADMIN);
+        if (current == null) {
             return ResponseEntity.status(403).build();
         }
         User user = userRepository.findById(id).orElse(null);
         if (user == null) return ResponseEntity.notFound().build();
-        if (user.getUsername().equals(current.getUsername())) {
+        if (user.getUsername().equals(current.username())) {
             return ResponseEntity.badRequest().body("不能修改自身管理员");
         }
+        String oldUsername = user.getUsername();
         user.setUsername(req.getUsername());
         if (req.getPassword() != null && !req.getPassword().isBlank()) {
             user.setPassword(passwordEncoder.encode(req.getPassword()));
         }
         user.setRole(UserRole.valueOf(req.getRole()));
         userRepository.save(user);
+        // 保存后再失效，旧用户名下缓存的鉴权结果全部清除
+        authService.invalidate(oldUsername);
         return ResponseEntity.ok().build();
     }
 
     @DeleteMapping("/users/{id}")
     public ResponseEntity<?> deleteUser(@PathVariable Long id,
                                         @RequestHeader(value = "Authorization", required = false) String authHeader) {
-        User current = authUser(authHeader);
-        if (current == null || current.getRole() != UserRole.ADMIN) {
+        AuthPrincipal current = authService.authenticate(authHeader, UserRole.ADMIN);
+        if (current == null) {
             return ResponseEntity.status(403).build();
         }
         User user = userRepository.findById(id).orElse(null);
         if (user == null) return ResponseEntity.notFound().build();
-        if (user.getUsername().equals(current.getUsername())) {
+        if (user.getUsername().equals(current.username())) {
             return ResponseEntity.badRequest().body("不能删除自身管理员");
         }
         userRepository.delete(user);
+        authService.invalidate(user.getUsername());
         return ResponseEntity.ok().build();
     }
 
-    private User authUser(String authHeader) {
-        if (authHeader == null || !authHeader.startsWith("Bearer ")) return null;
-        try {
-            String token = authHeader.substring(7);
-            String username = com.codecraft.security.JwtUtilStatic.parseUsername(token);
-            return userRepository.findByUsername(username).orElse(null);
-        } catch (Exception e) {
-            return null;
+    @GetMapping("/cache/stats")
+    public ResponseEntity<AiResponseCache.CacheStats> cacheStats(@RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal current = authService.authenticate(authHeader, UserRole.ADMIN);
+        if (current == null) {
+            return ResponseEntity.status(403).build();
+        }
+        return ResponseEntity.ok(responseCache.stats());
+    }
+
+    @GetMapping("/scheduler/stats")
+    public ResponseEntity<UpstreamScheduler.SchedulerStats> schedulerStats(@RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal current = authService.authenticate(authHeader, UserRole.ADMIN);
+        if (current == null) {
+            return ResponseEntity.status(403).build();
+        }
+        return ResponseEntity.ok(upstreamScheduler.stats());
+    }
+
+    @GetMapping("/upstream/pool/stats")
+    public ResponseEntity<List<UpstreamPoolMetrics.PoolStats>> upstreamPoolStats(@RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal current = authService.authenticate(authHeader, UserRole.ADMIN);
+        if (current == null) {
+            return ResponseEntity.status(403).build();
+        }
+        return ResponseEntity.ok(upstreamPoolMetrics.stats());
+    }
+
+    @GetMapping("/providers/stats")
+    public ResponseEntity<List<AiProviderRouter.ProviderStats>> providerStats(@RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal current = authService.authenticate(authHeader, UserRole.ADMIN);
+        if (current == null) {
+            return ResponseEntity.status(403).build();
+        }
+        return ResponseEntity.ok(providerRouter.stats());
+    }
+
+    /**
+     * 从原始日志重建 [from, to] 的每日用量汇总，日期格式 yyyy-MM-dd，缺省为全部历史到今天。
+     */
+    @PostMapping("/usage/backfill")
+    public ResponseEntity<UsageBackfillJob.BackfillResult> backfillUsage(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                                         @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal current = authService.authenticate(authHeader, UserRole.ADMIN);
+        if (current == null) {
+            return ResponseEntity.status(403).build();
+        }
+        return ResponseEntity.ok(usageBackfillJob.backfill(from, to));
+    }
+
+    /**
+     * 立即执行一次日志归档清理：保留期之前的日志写入归档文件后删除（或删除分区）。
+     */
+    @PostMapping("/logs/archive")
+    public ResponseEntity<RequestLogRetentionJob.RetentionResult> archiveLogs(@RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal current = authService.authenticate(authHeader, UserRole.ADMIN);
+        if (current == null) {
+            return ResponseEntity.status(403).build();
         }
+        logRetentionJob.preparePartitions();
+        return ResponseEntity.ok(logRetentionJob.archiveExpired());
     }
 
     @Data
@@ -133,5 +229,15 @@ public class AdminController {
         private final java.time.LocalDateTime createdAt;
         private final java.time.LocalDateTime updatedAt;
         private final long totalRequests;
+        private final long todayRequests;
+        private final long last7DaysRequests;
+        private final Map<String, Long> requestsByType;
+
+        static UserWithStats of(User user, UserStatsService.UserStats stats) {
+            return new UserWithStats(user.getId(), user.getUsername(), user.getRole().name(),
+                    user.getCreatedAt(), user.getUpdatedAt(),
+                    stats.getTotalRequests(), stats.getTodayRequests(), stats.getLast7DaysRequests(),
+                    stats.getRequestsByType());
+        }
     }
 }
@@ -1,114 +1,462 @@
 package com.codecraft.controller;
 
-import com.codecraft.entity.User;
-import com.codecraft.entity.UserRole;
-import com.codecraft.repository.RequestLogRepository;
-import com.codecraft.repository.UserRepository;
+import com.codecraft.config.BatchProperties;
+import com.codecraft.entity.AiJob;
+import com.codecraft.security.AuthPrincipal;
+import com.codecraft.security.AuthService;
+import com.codecraft.service.AiCallRequest;
+import com.codecraft.service.AiJobService;
+import com.codecraft.service.AiMetrics;
+import com.codecraft.service.BlockingCalls;
 import com.codecraft.service.DeepSeekService;
+import com.codecraft.service.DocumentJobService;
+import com.codecraft.service.QuotaService;
+import com.codecraft.service.SafetyDocument;
+import com.codecraft.service.SafetyScanner;
 import com.codecraft.service.SafetyService;
+import com.codecraft.service.SafetySessionService;
+import com.codecraft.service.UsageRollupService;
+import io.micrometer.core.instrument.Timer;
 import lombok.Data;
-import org.springframework.beans.factory.annotation.Value;
+import lombok.EqualsAndHashCode;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 @RestController
 @RequestMapping("/api/ai")
 // 允许前端开发端口跨域
 @CrossOrigin(origins = {"http://localhost:5173", "http://127.0.0.1:5173"})
 public class AiController {
 
+    private static final String TOO_MANY_JOBS = "排队中的任务过多，请等待已有任务完成";
+
     private final DeepSeekService deepSeekService;
-    private final UserRepository userRepository;
-    private final RequestLogRepository requestLogRepository;
+    private final AuthService authService;
+    private final UsageRollupService usageRollup;
     private final SafetyService safetyService;
-    private final long dailyLimit;
+    private final QuotaService quotaService;
+    private final BlockingCalls blockingCalls;
+    private final SafetySessionService safetySessions;
+    private final DocumentJobService documentJobs;
+    private final BatchProperties batchProperties;
+    private final AiJobService aiJobs;
+    private final AiMetrics metrics;
 
     public AiController(DeepSeekService deepSeekService,
-                        UserRepository userRepository,
-                        RequestLogRepository requestLogRepository,
+                        AuthService authService,
+                        UsageRollupService usageRollup,
                         SafetyService safetyService,
-                        @Value("${ai.daily-limit:100}") long dailyLimit) {
+                        QuotaService quotaService,
+                        BlockingCalls blockingCalls,
+                        SafetySessionService safetySessions,
+                        DocumentJobService documentJobs,
+                        BatchProperties batchProperties,
+                        AiJobService aiJobs,
+                        AiMetrics metrics) {
         this.deepSeekService = deepSeekService;
-        this.userRepository = userRepository;
-        this.requestLogRepository = requestLogRepository;
+        this.authService = authService;
+        this.usageRollup = usageRollup;
         this.safetyService = safetyService;
-        this.dailyLimit = dailyLimit;
+        this.quotaService = quotaService;
+        this.blockingCalls = blockingCalls;
+        this.safetySessions = safetySessions;
+        this.documentJobs = documentJobs;
+        this.batchProperties = batchProperties;
+        this.aiJobs = aiJobs;
+        this.metrics = metrics;
     }
 
+    /**
+     * 鉴权查库经 {@link BlockingCalls} 执行，之后的配额判断、日志入队与上游调用都在同一条响应式链路上完成；
+     * REACTIVE 模式下 Tomcat 线程在方法返回后即释放。
+     */
     @PostMapping("/process")
-    public ResponseEntity<Mono<String>> processCode(@RequestBody AiRequest request,
-                                                    @RequestHeader(value = "Authorization", required = false) String authHeader) {
-        User user = authUser(authHeader);
-        if (user == null) {
-            return ResponseEntity.status(401).body(Mono.just("未登录"));
-        }
-        if (user.getRole() == UserRole.USER) {
-            var start = java.time.LocalDate.now().atStartOfDay();
-            var end = start.plusDays(1);
-            long count = requestLogRepository.countByUsernameAndCreatedAtBetween(user.getUsername(), start, end);
-            if (count >= dailyLimit) {
-                return ResponseEntity.status(429).body(Mono.just("今日调用次数已达上限"));
-            }
-        }
+    public Mono<ResponseEntity<String>> processCode(@RequestBody AiRequest request,
+                                                    @RequestHeader(value = "Authorization", required = false) String authHeader,
+                                                    @RequestHeader(value = "Cache-Control", required = false) String cacheControl) {
+        return blockingCalls.call(() -> authService.authenticate(authHeader))
+                .flatMap(user -> {
+                    QuotaService.QuotaDecision quota = quotaService.tryAcquire(user.username(), user.role(), 1);
+                    if (!quota.allowed()) {
+                        return Mono.just(quotaRejected(quota).body(quota.message()));
+                    }
+                    return deepSeekService.callAi(toCallRequest(request, user, cacheControl))
+                            .defaultIfEmpty("")
+                            .map(ResponseEntity::ok);
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> ResponseEntity.status(401).body("未登录")));
+    }
+
+    @PostMapping(value = "/process/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Mono<ResponseEntity<Flux<ServerSentEvent<String>>>> processCodeStream(@RequestBody AiRequest request,
+                                                                                @RequestHeader(value = "Authorization", required = false) String authHeader,
+                                                                                @RequestHeader(value = "Cache-Control", required = false) String cacheControl) {
+        return blockingCalls.call(() -> authService.authenticate(authHeader))
+                .map(user -> {
+                    QuotaService.QuotaDecision quota = quotaService.tryAcquire(user.username(), user.role(), 1);
+                    if (!quota.allowed()) {
+                        return quotaRejected(quota).body(Flux.just(errorEvent(quota.message())));
+                    }
+                    // 每个增量文本作为一个 delta 事件下发，结束时补发 done 事件
+                    Flux<ServerSentEvent<String>> events = deepSeekService.streamAi(toCallRequest(request, user, cacheControl))
+                            .map(delta -> ServerSentEvent.builder(delta).event("delta").build())
+                            .concatWithValues(ServerSentEvent.builder("").event("done").build())
+                            .onErrorResume(ex -> Flux.just(errorEvent(deepSeekService.describeError(ex))));
+                    return ResponseEntity.ok(events);
+                })
+                .defaultIfEmpty(ResponseEntity.status(401).body(Flux.just(errorEvent("未登录"))));
+    }
 
-        return ResponseEntity.ok(deepSeekService.callAi(
-                request.getType(),
-                request.getCode(),
-                request.getFileName(),
-                request.getContext(),
-                request.getLanguage(),
-                user.getUsername(),
-                request.getFilePath(),
-                request.getFramework(),
-                request.getEditorLanguage()
-        ));
+    /**
+     * 批量处理：鉴权与配额检查只做一次（按条目数扣减），各条目以有限并发调用，
+     * 结果按完成顺序以 NDJSON 逐行返回（每行 {id, result, error}），顺序与提交顺序无关。
+     */
+    @PostMapping(value = "/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<Flux<DeepSeekService.BatchResult>>> processBatch(@RequestBody BatchRequest request,
+                                                                               @RequestHeader(value = "Authorization", required = false) String authHeader,
+                                                                               @RequestHeader(value = "Cache-Control", required = false) String cacheControl) {
+        return blockingCalls.call(() -> authService.authenticate(authHeader))
+                .map(user -> {
+                    List<BatchItem> items = request.getItems() == null ? List.of() : request.getItems();
+                    if (items.isEmpty() || items.size() > batchProperties.getMaxItems()) {
+                        return ResponseEntity.badRequest().body(Flux.just(batchError(
+                                "条目数应在 1 到 " + batchProperties.getMaxItems() + " 之间")));
+                    }
+                    QuotaService.QuotaDecision quota = quotaService.tryAcquire(user.username(), user.role(), items.size());
+                    if (!quota.allowed()) {
+                        return quotaRejected(quota).body(Flux.just(batchError(quota.message())));
+                    }
+                    List<DeepSeekService.BatchItem> calls = new ArrayList<>(items.size());
+                    for (int i = 0; i < items.size(); i++) {
+                        BatchItem item = items.get(i);
+                        // 未指定 id 的条目以其下标作为 id
+                        String itemId = item.getId() != null ? item.getId() : String.valueOf(i);
+                        calls.add(new DeepSeekService.BatchItem(itemId, toCallRequest(item, user, cacheControl)));
+                    }
+                    return ResponseEntity.ok(deepSeekService.callBatch(calls, batchProperties.getConcurrency()));
+                })
+                .defaultIfEmpty(ResponseEntity.status(401).body(Flux.just(batchError("未登录"))));
     }
 
     @GetMapping("/usage")
     public ResponseEntity<UsageResponse> usage(@RequestHeader(value = "Authorization", required = false) String authHeader) {
-        User user = authUser(authHeader);
+        AuthPrincipal user = authService.authenticate(authHeader);
         if (user == null) {
             return ResponseEntity.status(401).build();
         }
-        var start = java.time.LocalDate.now().atStartOfDay();
-        var end = start.plusDays(1);
-        long today = requestLogRepository.countByUsernameAndCreatedAtBetween(user.getUsername(), start, end);
-        var startEpoch = java.time.LocalDateTime.of(1970, 1, 1, 0, 0);
-        var endEpoch = java.time.LocalDateTime.of(9999, 12, 31, 23, 59);
-        long total = requestLogRepository.countByUsernameAndCreatedAtBetween(user.getUsername(), startEpoch, endEpoch);
+        long today = quotaService.usedToday(user.username());
+        long total = usageRollup.totalFor(user.username());
         UsageResponse res = new UsageResponse();
-        res.setUsername(user.getUsername());
-        res.setRole(user.getRole().name());
-        res.setDailyLimit(user.getRole() == UserRole.USER ? dailyLimit : -1);
+        res.setUsername(user.username());
+        res.setRole(user.role().name());
+        res.setDailyLimit(quotaService.dailyLimit(user.role()));
         res.setTodayUsed(today);
         res.setTotalUsed(total);
         return ResponseEntity.ok(res);
     }
 
-    @PostMapping("/safety-check")
+    @PostMapping(value = "/safety-check", consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<SafetyResponse> safety(@RequestBody SafetyRequest request,
                                                  @RequestHeader(value = "Authorization", required = false) String authHeader) {
-        User user = authUser(authHeader);
+        AuthPrincipal user = authService.authenticate(authHeader);
         if (user == null) {
             return ResponseEntity.status(401).build();
         }
-        SafetyResponse res = new SafetyResponse();
-        res.setWarnings(safetyService.checkDangerousPatterns(request.getContent()));
-        return ResponseEntity.ok(res);
+        return ResponseEntity.ok(SafetyResponse.of(metrics.time("ai.safety.scan",
+                () -> safetyService.scan(request.getContent(), request.getFileName(), request.getEditorLanguage()),
+                "mode", "full")));
     }
 
-    private User authUser(String authHeader) {
-        if (authHeader == null || !authHeader.startsWith("Bearer ")) return null;
+    /**
+     * 以 text/plain 提交原始内容，边读请求体边扫描，适合整文件检查；语言通过查询参数传入。
+     */
+    @PostMapping(value = "/safety-check", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<SafetyResponse> safetyStream(Reader body,
+                                                       @RequestParam(value = "fileName", required = false) String fileName,
+                                                       @RequestParam(value = "editorLanguage", required = false) String editorLanguage,
+                                                       @RequestHeader(value = "Authorization", required = false) String authHeader) throws IOException {
+        AuthPrincipal user = authService.authenticate(authHeader);
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+        Timer.Sample sample = metrics.start();
         try {
-            String token = authHeader.substring(7);
-            String username = com.codecraft.security.JwtUtilStatic.parseUsername(token);
-            return userRepository.findByUsername(username).orElse(null);
-        } catch (Exception e) {
-            return null;
+            return ResponseEntity.ok(SafetyResponse.of(safetyService.scan(body, fileName, editorLanguage)));
+        } finally {
+            metrics.stop(sample, "ai.safety.scan", "mode", "stream");
+        }
+    }
+
+    /**
+     * 打开增量检查会话并返回初始内容的完整检查结果，之后只需提交编辑差量。
+     */
+    @PostMapping("/safety-sessions")
+    public ResponseEntity<?> openSafetySession(@RequestBody SafetyRequest request,
+                                               @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal user = authService.authenticate(authHeader);
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+        SafetySessionService.Session session;
+        try {
+            session = metrics.time("ai.safety.scan", () -> safetySessions.open(user.username(), request.getContent(),
+                    request.getFileName(), request.getEditorLanguage()), "mode", "session_open");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(413).body(Map.of("message", e.getMessage()));
+        }
+        synchronized (session) {
+            SafetySessionResponse res = new SafetySessionResponse();
+            res.setSessionId(session.id());
+            res.setVersion(session.document().version());
+            SafetyScanner.ScanResult result = session.document().snapshot();
+            res.setWarnings(result.warnings());
+            res.setHits(result.hits());
+            res.setTruncated(result.truncated());
+            return ResponseEntity.ok(res);
+        }
+    }
+
+    /**
+     * 提交编辑差量，只重扫受影响的行。会话不存在返回 404，版本不一致返回 409，编辑越界返回 400（会话随之关闭），
+     * 三种情况客户端都应重新打开会话。
+     */
+    @PatchMapping("/safety-sessions/{id}")
+    public ResponseEntity<?> editSafetySession(@PathVariable String id,
+                                               @RequestBody SafetyEditRequest request,
+                                               @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal user = authService.authenticate(authHeader);
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+        SafetySessionService.Session session = safetySessions.get(user.username(), id);
+        if (session == null) {
+            return ResponseEntity.status(404).body(Map.of("message", "会话不存在或已过期"));
+        }
+        List<SafetyDocument.Edit> edits = request.getEdits() == null ? List.of() : request.getEdits();
+        try {
+            SafetySessionService.Update update = metrics.time("ai.safety.scan",
+                    () -> safetySessions.apply(session, request.getVersion(), edits), "mode", "session_edit");
+            if (update == null) {
+                return ResponseEntity.status(409).body(Map.of("message", "文档版本不一致"));
+            }
+            return ResponseEntity.ok(update);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
         }
     }
 
+    @DeleteMapping("/safety-sessions/{id}")
+    public ResponseEntity<Void> closeSafetySession(@PathVariable String id,
+                                                   @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal user = authService.authenticate(authHeader);
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+        return safetySessions.close(user.username(), id)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * 提交异步任务（请求体同 /process），立即返回 202 与任务 id；任务持久化在 ai_jobs 表中，断开连接不影响执行。
+     */
+    @PostMapping("/jobs")
+    public ResponseEntity<?> submitJob(@RequestBody AiRequest request,
+                                       @RequestHeader(value = "Authorization", required = false) String authHeader,
+                                       @RequestHeader(value = "Cache-Control", required = false) String cacheControl) {
+        AuthPrincipal user = authService.authenticate(authHeader);
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+        if (!aiJobs.canSubmit(user.username())) {
+            return ResponseEntity.status(429).body(Map.of("message", TOO_MANY_JOBS));
+        }
+        QuotaService.QuotaDecision quota = quotaService.tryAcquire(user.username(), user.role(), 1);
+        if (!quota.allowed()) {
+            return quotaRejected(quota).body(Map.of("message", quota.message()));
+        }
+        // 预检与提交之间可能有并发提交占满名额，未受理时归还配额
+        AiJob job;
+        try {
+            job = aiJobs.submit(toCallRequest(request, user, cacheControl));
+        } catch (RuntimeException e) {
+            quotaService.release(user.username(), 1);
+            throw e;
+        }
+        if (job == null) {
+            quotaService.release(user.username(), 1);
+            return ResponseEntity.status(429).body(Map.of("message", TOO_MANY_JOBS));
+        }
+        return ResponseEntity.accepted().body(JobResponse.of(job));
+    }
+
+    /**
+     * 查询任务；wait 大于 0 时为长轮询，任务结束或等待超时后返回。
+     */
+    @GetMapping("/jobs/{id}")
+    public Mono<ResponseEntity<?>> job(@PathVariable String id,
+                                       @RequestParam(value = "wait", defaultValue = "0") int waitSeconds,
+                                       @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        return blockingCalls.call(() -> authService.authenticate(authHeader))
+                .flatMap(user -> aiJobs.await(user.username(), id, waitSeconds)
+                        .<ResponseEntity<?>>map(job -> ResponseEntity.ok(JobResponse.of(job)))
+                        .defaultIfEmpty(ResponseEntity.status(404).body(Map.of("message", "任务不存在或已过期"))))
+                .defaultIfEmpty(ResponseEntity.status(401).build());
+    }
+
+    /**
+     * 以 SSE 推送任务状态：状态变化时发送 status 事件，结束时发送 done 事件（含结果或错误）后关闭。
+     */
+    @GetMapping(value = "/jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Mono<ResponseEntity<Flux<ServerSentEvent<JobResponse>>>> jobEvents(@PathVariable String id,
+                                                                              @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        return blockingCalls.call(() -> authService.authenticate(authHeader))
+                .map(user -> ResponseEntity.ok(aiJobs.watch(user.username(), id)
+                        .map(job -> ServerSentEvent.builder(JobResponse.of(job))
+                                .event(job.getStatus().finished() ? "done" : "status")
+                                .build())))
+                .defaultIfEmpty(ResponseEntity.status(401).build());
+    }
+
+    @DeleteMapping("/jobs/{id}")
+    public ResponseEntity<Void> cancelJob(@PathVariable String id,
+                                          @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal user = authService.authenticate(authHeader);
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+        return aiJobs.cancel(user.username(), id)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * 提交分块文档任务（单个大文件或整个项目），立即返回 202 与任务进度；每个 chunk 计 1 次配额。
+     */
+    @PostMapping("/document-jobs")
+    public ResponseEntity<?> submitDocumentJob(@RequestBody DocumentJobRequest request,
+                                               @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal user = authService.authenticate(authHeader);
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+        DocumentJobService.Plan plan;
+        try {
+            plan = documentJobs.plan(request.getFiles());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(503).body(Map.of("message", e.getMessage()));
+        }
+        if (!documentJobs.canStart(user.username())) {
+            return ResponseEntity.status(429).body(Map.of("message", "进行中的文档任务过多，请等待已有任务完成"));
+        }
+        // 按分块数计费，分块数超过角色上限时返回 400 而非可重试的 429
+        QuotaService.QuotaDecision quota = quotaService.tryAcquire(user.username(), user.role(), plan.chunkCount());
+        if (!quota.allowed()) {
+            return quotaRejected(quota).body(Map.of("message", quota.message()));
+        }
+        DocumentJobService.Job job = documentJobs.start(user.username(), user.role(), plan,
+                request.getLanguage(), request.getFramework());
+        return ResponseEntity.accepted().body(job.progress());
+    }
+
+    @GetMapping("/document-jobs/{id}")
+    public ResponseEntity<?> documentJob(@PathVariable String id,
+                                         @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal user = authService.authenticate(authHeader);
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+        DocumentJobService.Job job = documentJobs.get(user.username(), id);
+        if (job == null) {
+            return ResponseEntity.status(404).body(Map.of("message", "任务不存在或已过期"));
+        }
+        return ResponseEntity.ok(job.progress());
+    }
+
+    /**
+     * 以 SSE 推送任务进度：运行中为 progress 事件，结束时发送一次 done 事件（含结果或错误）后关闭。
+     */
+    @GetMapping(value = "/document-jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Mono<ResponseEntity<Flux<ServerSentEvent<DocumentJobService.Progress>>>> documentJobEvents(
+            @PathVariable String id,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        return blockingCalls.call(() -> authService.authenticate(authHeader))
+                .map(user -> {
+                    DocumentJobService.Job job = documentJobs.get(user.username(), id);
+                    if (job == null) {
+                        return ResponseEntity.status(404).<Flux<ServerSentEvent<DocumentJobService.Progress>>>build();
+                    }
+                    Flux<ServerSentEvent<DocumentJobService.Progress>> events = job.events()
+                            .map(progress -> ServerSentEvent.builder(progress)
+                                    .event(progress.status() == DocumentJobService.Status.RUNNING ? "progress" : "done")
+                                    .build());
+                    return ResponseEntity.ok(events);
+                })
+                .defaultIfEmpty(ResponseEntity.status(401).build());
+    }
+
+    @DeleteMapping("/document-jobs/{id}")
+    public ResponseEntity<Void> cancelDocumentJob(@PathVariable String id,
+                                                  @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        AuthPrincipal user = authService.authenticate(authHeader);
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+        return documentJobs.cancel(user.username(), id)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    private static AiCallRequest toCallRequest(AiRequest request, AuthPrincipal user, String cacheControl) {
+        AiCallRequest call = new AiCallRequest();
+        call.setType(request.getType());
+        call.setCode(request.getCode());
+        call.setFileName(request.getFileName());
+        call.setContext(request.getContext());
+        call.setLanguage(request.getLanguage());
+        call.setFilePath(request.getFilePath());
+        call.setFramework(request.getFramework());
+        call.setEditorLanguage(request.getEditorLanguage());
+        call.setUsername(user.username());
+        call.setRole(user.role());
+        call.setBypassCache(isNoCache(cacheControl));
+        return call;
+    }
+
+    private static boolean isNoCache(String cacheControl) {
+        return cacheControl != null && cacheControl.toLowerCase().contains("no-cache");
+    }
+
+    private static DeepSeekService.BatchResult batchError(String message) {
+        return new DeepSeekService.BatchResult(null, null, message);
+    }
+
+    // 配额拒绝：稍后可重试时返回 429 + Retry-After；单次请求本身超过上限时返回 400，重试无效
+    private static ResponseEntity.BodyBuilder quotaRejected(QuotaService.QuotaDecision quota) {
+        if (!quota.retryable()) {
+            return ResponseEntity.badRequest();
+        }
+        return ResponseEntity.status(429).header(HttpHeaders.RETRY_AFTER, String.valueOf(quota.retryAfterSeconds()));
+    }
+
+    private static ServerSentEvent<String> errorEvent(String message) {
+        return ServerSentEvent.builder(message).event("error").build();
+    }
+
     @Data
     static class AiRequest {
         private String type; // comment, explain, document
@@ -121,6 +469,55 @@ public class AiController {
         private String editorLanguage;
     }
 
+    @Data
+    static class JobResponse {
+        private String jobId;
+        private String type;
+        private String fileName;
+        private String status;
+        private String result;
+        private String error;
+        private int attempts;
+        private LocalDateTime createdAt;
+        private LocalDateTime finishedAt;
+        // 结果保留到该时间
+        private LocalDateTime expiresAt;
+
+        static JobResponse of(AiJob job) {
+            JobResponse res = new JobResponse();
+            res.setJobId(job.getId());
+            res.setType(job.getRequestType());
+            res.setFileName(job.getFileName());
+            res.setStatus(job.getStatus().name());
+            res.setResult(job.getResult());
+            res.setError(job.getError());
+            res.setAttempts(job.getAttempts());
+            res.setCreatedAt(job.getCreatedAt());
+            res.setFinishedAt(job.getFinishedAt());
+            res.setExpiresAt(job.getExpiresAt());
+            return res;
+        }
+    }
+
+    @Data
+    static class BatchRequest {
+        private List<BatchItem> items;
+    }
+
+    @Data
+    @EqualsAndHashCode(callSuper = true)
+    static class BatchItem extends AiRequest {
+        private String id;
+    }
+
+    @Data
+    static class DocumentJobRequest {
+        // 单文件文档也可以只传一个元素
+        private List<DocumentJobService.SourceFile> files;
+        private String language; // zh or en
+        private String framework;
+    }
+
     @Data
     static class UsageResponse {
         private String username;
@@ -133,10 +530,39 @@ public class AiController {
     @Data
     static class SafetyRequest {
         private String content;
+        // 用于识别语言，都为空时按纯文本检查
+        private String fileName;
+        private String editorLanguage;
+    }
+
+    @Data
+    static class SafetyEditRequest {
+        // 客户端认为的当前版本，为空时不校验
+        private Integer version;
+        private List<SafetyDocument.Edit> edits;
+    }
+
+    @Data
+    static class SafetySessionResponse {
+        private String sessionId;
+        private int version;
+        private List<String> warnings;
+        private List<SafetyScanner.Hit> hits;
+        private boolean truncated;
     }
 
     @Data
     static class SafetyResponse {
-        private java.util.List<String> warnings;
+        private List<String> warnings;
+        private List<SafetyScanner.Hit> hits;
+        private boolean truncated;
+
+        static SafetyResponse of(SafetyScanner.ScanResult result) {
+            SafetyResponse res = new SafetyResponse();
+            res.setWarnings(result.warnings());
+            res.setHits(result.hits());
+            res.setTruncated(result.truncated());
+            return res;
+        }
     }
 }
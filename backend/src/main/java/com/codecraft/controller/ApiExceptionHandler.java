@@ -0,0 +1,72 @@
+package com.codecraft.controller;
+
+import com.codecraft.service.CircuitOpenException;
+import com.codecraft.service.DeepSeekService;
+import com.codecraft.service.NoProviderException;
+import com.codecraft.service.UpstreamBusyException;
+import com.codecraft.service.UpstreamHttpException;
+import com.codecraft.service.UpstreamResponseException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+@RestControllerAdvice
+public class ApiExceptionHandler {
+
+    private final DeepSeekService deepSeekService;
+
+    public ApiExceptionHandler(DeepSeekService deepSeekService) {
+        this.deepSeekService = deepSeekService;
+    }
+
+    // 上游调度队列已满
+    @ExceptionHandler(UpstreamBusyException.class)
+    public ResponseEntity<Map<String, String>> handleBusy(UpstreamBusyException ex) {
+        return ResponseEntity.status(429)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(Map.of("message", ex.getMessage()));
+    }
+
+    // 没有配置任何大模型端点
+    @ExceptionHandler(NoProviderException.class)
+    public ResponseEntity<Map<String, String>> handleNoProvider(NoProviderException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("message", ex.getMessage()));
+    }
+
+    // 所有候选端点都处于熔断状态
+    @ExceptionHandler(CircuitOpenException.class)
+    public ResponseEntity<Map<String, String>> handleCircuitOpen(CircuitOpenException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(Map.of("message", deepSeekService.describeError(ex)));
+    }
+
+    // 重试耗尽后上游仍返回错误：429 原样透传，其余归为 502
+    @ExceptionHandler(UpstreamHttpException.class)
+    public ResponseEntity<Map<String, String>> handleUpstreamStatus(UpstreamHttpException ex) {
+        if (ex.getStatusCode() == 429) {
+            ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS);
+            if (ex.getRetryAfterSeconds() >= 0) {
+                builder.header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()));
+            }
+            return builder.body(Map.of("message", deepSeekService.describeError(ex)));
+        }
+        return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(Map.of("message", deepSeekService.describeError(ex)));
+    }
+
+    @ExceptionHandler({UpstreamResponseException.class, WebClientRequestException.class})
+    public ResponseEntity<Map<String, String>> handleBadGateway(Exception ex) {
+        return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(Map.of("message", deepSeekService.describeError(ex)));
+    }
+
+    @ExceptionHandler(TimeoutException.class)
+    public ResponseEntity<Map<String, String>> handleTimeout(TimeoutException ex) {
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(Map.of("message", deepSeekService.describeError(ex)));
+    }
+}
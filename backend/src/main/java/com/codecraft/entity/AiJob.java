@@ -0,0 +1,65 @@
+package com.codecraft.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 异步 AI 任务。调用参数以 JSON 保存在 payload 中，实例重启后可据此重新执行；
+ * 执行中的任务持有租约，执行它的实例定期续约，租约过期说明实例已退出，任务重新排队。
+ */
+@Entity
+@Table(name = "ai_jobs", indexes = {
+        @Index(name = "idx_ai_jobs_status_created", columnList = "status, created_at"),
+        @Index(name = "idx_ai_jobs_username_status", columnList = "username, status"),
+        @Index(name = "idx_ai_jobs_expires", columnList = "expires_at")})
+@Data
+public class AiJob {
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        public boolean finished() {
+            return this != QUEUED && this != RUNNING;
+        }
+    }
+
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    @Column(length = 100)
+    private String username;
+
+    @Column(length = 50)
+    private String requestType;
+
+    private String fileName;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private Status status;
+
+    // AiCallRequest 的 JSON
+    @Lob
+    @Column(columnDefinition = "LONGTEXT")
+    private String payload;
+
+    @Lob
+    @Column(columnDefinition = "LONGTEXT")
+    private String result;
+
+    @Column(length = 1000)
+    private String error;
+
+    // 被领取执行的次数，租约过期重新排队时保留
+    private int attempts;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private LocalDateTime leaseUntil;
+    // 结束后结果保留到该时间，之后被清理
+    private LocalDateTime expiresAt;
+}
@@ -0,0 +1,30 @@
+package com.codecraft.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "ai_response_cache", indexes = {
+        @Index(name = "idx_ai_response_cache_expires", columnList = "expires_at")})
+@Data
+public class AiResponseCacheEntry {
+
+    // SHA-256 十六进制摘要
+    @Id
+    @Column(length = 64)
+    private String cacheKey;
+
+    @Lob
+    @Column(columnDefinition = "LONGTEXT")
+    private String response;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime expiresAt;
+
+    @PrePersist
+    public void prePersist() {
+        this.createdAt = LocalDateTime.now();
+    }
+}
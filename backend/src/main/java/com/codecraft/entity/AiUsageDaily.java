@@ -0,0 +1,44 @@
+package com.codecraft.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * 按天、用户、请求类型汇总的调用次数，由 RequestLogWriter 写日志时增量维护。
+ */
+@Entity
+@Table(name = "ai_usage_daily")
+@IdClass(AiUsageDaily.Key.class)
+@Data
+public class AiUsageDaily {
+
+    @Id
+    @Column(length = 100)
+    private String username;
+
+    @Id
+    private LocalDate usageDate;
+
+    // 日志中没有类型时记为 unknown
+    @Id
+    @Column(length = 50)
+    private String requestType;
+
+    private long requestCount;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String username;
+        private LocalDate usageDate;
+        private String requestType;
+    }
+}
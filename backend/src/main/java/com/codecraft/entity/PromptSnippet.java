@@ -0,0 +1,33 @@
+package com.codecraft.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 请求日志中的代码片段，按内容的 SHA-256 去重并以 deflate 压缩保存，ai_request_logs 只记录 hash。
+ * 由 PromptSnippetStore 通过 JDBC 维护。
+ */
+@Entity
+@Table(name = "ai_prompt_snippets", indexes = {
+        @Index(name = "idx_ai_prompt_snippets_last_seen", columnList = "last_seen_at")})
+@Data
+public class PromptSnippet {
+
+    // SHA-256 十六进制摘要
+    @Id
+    @Column(length = 64)
+    private String hash;
+
+    @Lob
+    @Column(columnDefinition = "LONGBLOB")
+    private byte[] content;
+
+    // 解压后的字符数
+    private int charCount;
+
+    private LocalDateTime createdAt;
+    // 最近一条引用它的日志时间，日志归档清理后据此删除不再被引用的片段
+    private LocalDateTime lastSeenAt;
+}
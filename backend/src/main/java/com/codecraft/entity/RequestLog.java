@@ -6,7 +6,10 @@ import lombok.Data;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "ai_request_logs")
+// 按用户查询最近日志与按时间范围统计分别走两个复合索引
+@Table(name = "ai_request_logs", indexes = {
+        @Index(name = "idx_ai_request_logs_username_created", columnList = "username, created_at"),
+        @Index(name = "idx_ai_request_logs_created_username", columnList = "created_at, username")})
 @Data
 public class RequestLog {
     @Id
@@ -17,12 +20,27 @@ public class RequestLog {
     private String fileName;
     private String username;
 
-    // TEXT 类型，防止代码片段过长
-    @Column(columnDefinition = "TEXT")
+    // 代码片段原文只在写入前携带（落盘文件中也保留），入库时去重压缩到 ai_prompt_snippets，表中只存 hash
+    @Transient
     private String promptSnippet;
 
+    @Column(length = 64)
+    private String snippetHash;
+
+    // 估算的 prompt token 数：压缩前 / 实际发送
+    private Integer promptTokensRaw;
+    private Integer promptTokens;
+
+    // 计入配额与用量统计的次数：普通请求为 1，分块文档任务按 chunk 数扣减配额，只写一行日志
+    @Column(nullable = false, columnDefinition = "INT DEFAULT 1")
+    private int units = 1;
+
     private LocalDateTime createdAt;
 
+    // 从落盘文件回放的次数，只随落盘文件保存，超过上限后转入死信文件
+    @Transient
+    private int spillAttempts;
+
     @PrePersist
     public void prePersist() {
         this.createdAt = LocalDateTime.now();
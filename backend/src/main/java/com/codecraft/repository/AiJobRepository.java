@@ -0,0 +1,85 @@
+package com.codecraft.repository;
+
+import com.codecraft.entity.AiJob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 状态变更都是带前置状态条件的单条 UPDATE，多个实例并发领取或完成同一任务时只有一个生效。
+ */
+@Repository
+public interface AiJobRepository extends JpaRepository<AiJob, String> {
+
+    long countByUsernameAndStatusIn(String username, Collection<AiJob.Status> statuses);
+
+    long countByStatus(AiJob.Status status);
+
+    @Query("select j.id from AiJob j where j.status = :status order by j.createdAt")
+    List<String> findIdsByStatus(@Param("status") AiJob.Status status, Pageable pageable);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update AiJob j set j.status = :running, j.startedAt = :now, j.leaseUntil = :leaseUntil, " +
+            "j.attempts = j.attempts + 1 where j.id = :id and j.status = :queued")
+    int claim(@Param("id") String id,
+              @Param("queued") AiJob.Status queued,
+              @Param("running") AiJob.Status running,
+              @Param("now") LocalDateTime now,
+              @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update AiJob j set j.leaseUntil = :leaseUntil where j.id in :ids and j.status = :running")
+    int renewLeases(@Param("ids") Collection<String> ids,
+                    @Param("running") AiJob.Status running,
+                    @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    /**
+     * 只有仍处于 from 状态的任务会被更新，已被取消或由其它实例完成的任务不受影响。
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update AiJob j set j.status = :to, j.result = :result, j.error = :error, j.finishedAt = :now, " +
+            "j.leaseUntil = null, j.expiresAt = :expiresAt where j.id = :id and j.status in :from")
+    int finish(@Param("id") String id,
+               @Param("from") Collection<AiJob.Status> from,
+               @Param("to") AiJob.Status to,
+               @Param("result") String result,
+               @Param("error") String error,
+               @Param("now") LocalDateTime now,
+               @Param("expiresAt") LocalDateTime expiresAt);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update AiJob j set j.status = :queued, j.leaseUntil = null " +
+            "where j.status = :running and j.leaseUntil < :now and j.attempts < :maxAttempts")
+    int requeueExpiredLeases(@Param("queued") AiJob.Status queued,
+                             @Param("running") AiJob.Status running,
+                             @Param("now") LocalDateTime now,
+                             @Param("maxAttempts") int maxAttempts);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update AiJob j set j.status = :failed, j.error = :error, j.finishedAt = :now, j.leaseUntil = null, " +
+            "j.expiresAt = :expiresAt where j.status = :running and j.leaseUntil < :now and j.attempts >= :maxAttempts")
+    int failExpiredLeases(@Param("failed") AiJob.Status failed,
+                          @Param("running") AiJob.Status running,
+                          @Param("error") String error,
+                          @Param("now") LocalDateTime now,
+                          @Param("expiresAt") LocalDateTime expiresAt,
+                          @Param("maxAttempts") int maxAttempts);
+
+    @Transactional
+    @Modifying
+    @Query("delete from AiJob j where j.expiresAt < :now")
+    int deleteExpired(@Param("now") LocalDateTime now);
+}
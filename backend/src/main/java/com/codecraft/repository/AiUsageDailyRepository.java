@@ -0,0 +1,27 @@
+package com.codecraft.repository;
+
+import com.codecraft.entity.AiUsageDaily;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface AiUsageDailyRepository extends JpaRepository<AiUsageDaily, AiUsageDaily.Key> {
+
+    @Query("select coalesce(sum(d.requestCount), 0) from AiUsageDaily d where d.username = :username")
+    long sumByUsername(@Param("username") String username);
+
+    // 每行为 [username, requestType, total, sinceToday, sinceWeekStart]
+    @Query("select d.username, d.requestType, sum(d.requestCount), " +
+            "sum(case when d.usageDate >= :today then d.requestCount else 0 end), " +
+            "sum(case when d.usageDate >= :weekStart then d.requestCount else 0 end) " +
+            "from AiUsageDaily d where d.username in :usernames group by d.username, d.requestType")
+    List<Object[]> aggregateByUsernames(@Param("usernames") Collection<String> usernames,
+                                        @Param("today") LocalDate today,
+                                        @Param("weekStart") LocalDate weekStart);
+}
@@ -2,11 +2,18 @@ package com.codecraft.repository;
 
 import com.codecraft.entity.RequestLog;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Repository
 public interface RequestLogRepository extends JpaRepository<RequestLog, Long> {
     long countByUsernameAndCreatedAtBetween(String username, LocalDateTime start, LocalDateTime end);
+
+    // 每行为 [username, 计入配额的次数]
+    @Query("select l.username, sum(l.units) from RequestLog l where l.createdAt >= :since and l.username is not null group by l.username")
+    List<Object[]> sumUnitsByUsernameSince(@Param("since") LocalDateTime since);
 }
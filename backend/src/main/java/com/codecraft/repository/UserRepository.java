@@ -1,7 +1,10 @@
 package com.codecraft.repository;
 
 import com.codecraft.entity.User;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -10,4 +13,9 @@ import java.util.Optional;
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
     boolean existsByUsername(String username);
+
+    // 按请求总数排序时使用，排序方向由 Pageable 中的 JpaSort.unsafe("coalesce(sum(d.requestCount), 0)") 指定
+    @Query(value = "select u from User u left join AiUsageDaily d on d.username = u.username group by u",
+            countQuery = "select count(u) from User u")
+    Page<User> findAllWithRequestCount(Pageable pageable);
 }
@@ -0,0 +1,9 @@
+package com.codecraft.security;
+
+import com.codecraft.entity.UserRole;
+
+/**
+ * 已鉴权的调用者，只保留业务需要的字段，可安全地在线程间共享与缓存。
+ */
+public record AuthPrincipal(Long id, String username, UserRole role) {
+}
@@ -0,0 +1,135 @@
+package com.codecraft.security;
+
+import com.codecraft.entity.UserRole;
+import com.codecraft.repository.UserRepository;
+import com.codecraft.service.AiMetrics;
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 请求鉴权：解析 Bearer Token 并加载用户，结果按 token 缓存 ttl 秒（不超过 token 自身过期时间）。
+ * 缓存命中时既不校验签名也不查询 users 表；用户被修改或删除时需调用 {@link #invalidate(String)}。
+ */
+@Service
+@Slf4j
+public class AuthService {
+
+    private final UserRepository userRepository;
+    private final JwtUtil jwtUtil;
+    private final AiMetrics metrics;
+    private final long ttlMs;
+    private final int maxEntries;
+
+    private final Map<String, CachedPrincipal> cache = new ConcurrentHashMap<>();
+    // 每次失效递增；加载期间或写入缓存前后发生过失效时不保留该条缓存，避免把旧数据放回去
+    private final AtomicLong generation = new AtomicLong();
+
+    public AuthService(UserRepository userRepository,
+                       JwtUtil jwtUtil,
+                       AiMetrics metrics,
+                       @Value("${ai.auth.cache-ttl-seconds:60}") long ttlSeconds,
+                       @Value("${ai.auth.cache-max-entries:10000}") int maxEntries) {
+        this.userRepository = userRepository;
+        this.jwtUtil = jwtUtil;
+        this.metrics = metrics;
+        this.ttlMs = ttlSeconds * 1000;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * 返回已鉴权用户，token 缺失、无效或用户不存在时返回 null。
+     */
+    public AuthPrincipal authenticate(String authHeader) {
+        return authenticate(authHeader, null);
+    }
+
+    /**
+     * requiredRole 非空时以数据库中的角色为准，不看 token 内的 role 声明，升级或降级在 invalidate 后立即生效。
+     */
+    public AuthPrincipal authenticate(String authHeader, UserRole requiredRole) {
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) return null;
+        String token = authHeader.substring(7);
+        long now = System.currentTimeMillis();
+
+        // 按是否命中缓存分别计时，未命中时包含验签与查询 users 表
+        Timer.Sample sample = metrics.start();
+        CachedPrincipal cached = cache.get(token);
+        if (cached != null && cached.expiresAt() > now) {
+            AuthPrincipal principal = matches(cached.principal(), requiredRole) ? cached.principal() : null;
+            metrics.stop(sample, "ai.auth", "cache", "hit", "outcome", outcome(principal));
+            return principal;
+        }
+        AuthPrincipal principal = load(token, requiredRole, now);
+        metrics.stop(sample, "ai.auth", "cache", "miss", "outcome", outcome(principal));
+        return principal;
+    }
+
+    /**
+     * 用户信息变化后清除其全部缓存的 token。
+     */
+    public void invalidate(String username) {
+        if (username == null) return;
+        generation.incrementAndGet();
+        cache.values().removeIf(entry -> username.equals(entry.principal().username()));
+    }
+
+    private AuthPrincipal load(String token, UserRole requiredRole, long now) {
+        Claims claims;
+        try {
+            claims = jwtUtil.parseToken(token);
+        } catch (Exception e) {
+            return null;
+        }
+        long loadGeneration = generation.get();
+        AuthPrincipal principal = userRepository.findByUsername(claims.getSubject())
+                .map(user -> new AuthPrincipal(user.getId(), user.getUsername(), user.getRole()))
+                .orElse(null);
+        if (principal == null) return null;
+
+        Date expiration = claims.getExpiration();
+        long expiresAt = now + ttlMs;
+        if (expiration != null) {
+            expiresAt = Math.min(expiresAt, expiration.getTime());
+        }
+        if (cache.size() >= maxEntries) {
+            evictExpired(now);
+        }
+        if (generation.get() == loadGeneration) {
+            CachedPrincipal entry = new CachedPrincipal(principal, expiresAt);
+            cache.put(token, entry);
+            // 检查与写入之间可能有 invalidate 执行完毕，写入后再确认一次，否则已删除或降级的用户会被缓存到过期
+            if (generation.get() != loadGeneration) {
+                cache.remove(token, entry);
+            }
+        }
+        return matches(principal, requiredRole) ? principal : null;
+    }
+
+    private void evictExpired(long now) {
+        cache.values().removeIf(entry -> entry.expiresAt() <= now);
+        if (cache.size() >= maxEntries) {
+            // 仍然过多时整体清空，下次访问重新加载
+            log.info("鉴权缓存达到上限 {}，清空重建", maxEntries);
+            cache.clear();
+        }
+    }
+
+    private static String outcome(AuthPrincipal principal) {
+        return principal != null ? "success" : "rejected";
+    }
+
+    private static boolean matches(AuthPrincipal principal, UserRole requiredRole) {
+        return requiredRole == null || principal.role() == requiredRole;
+    }
+
+    private record CachedPrincipal(AuthPrincipal principal, long expiresAt) {
+    }
+}
@@ -1,6 +1,8 @@
 package com.codecraft.security;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
@@ -10,20 +12,31 @@ import org.springframework.stereotype.Component;
 import java.security.Key;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Token 签发与校验。JwtParser 构建一次后复用（线程安全）；
+ * 校验通过的 token 按原文缓存其 Claims，重复出现时跳过 HMAC 校验与 JSON 解析，只检查过期时间。
+ */
 @Component
 public class JwtUtil {
 
     private final Key key;
     private final long expirationMs;
+    private final JwtParser parser;
+    private final int verifiedCacheMaxEntries;
+
+    private final Map<String, Claims> verified = new ConcurrentHashMap<>();
 
     public JwtUtil(
             @Value("${jwt.secret:change-me-please-change-me-please}") String secret,
-            @Value("${jwt.expiration-ms:86400000}") long expirationMs
+            @Value("${jwt.expiration-ms:86400000}") long expirationMs,
+            @Value("${jwt.verified-cache-max-entries:10000}") int verifiedCacheMaxEntries
     ) {
         this.key = Keys.hmacShaKeyFor(secret.getBytes());
         this.expirationMs = expirationMs;
-        JwtUtilStatic.init(secret, expirationMs);
+        this.parser = Jwts.parserBuilder().setSigningKey(key).build();
+        this.verifiedCacheMaxEntries = verifiedCacheMaxEntries;
     }
 
     public String generateToken(String username, Map<String, Object> claims) {
@@ -36,11 +49,32 @@ public class JwtUtil {
                 .compact();
     }
 
+    /**
+     * 校验并解析 token，签名无效或已过期时抛出 JwtException。返回的 Claims 可能被共享，调用方不应修改。
+     */
     public Claims parseToken(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        Claims cached = verified.get(token);
+        if (cached != null) {
+            Date expiration = cached.getExpiration();
+            if (expiration == null || expiration.getTime() > System.currentTimeMillis()) {
+                return cached;
+            }
+            verified.remove(token);
+            throw new ExpiredJwtException(null, cached, "JWT expired at " + expiration);
+        }
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        if (verified.size() >= verifiedCacheMaxEntries) {
+            long now = System.currentTimeMillis();
+            verified.values().removeIf(c -> c.getExpiration() != null && c.getExpiration().getTime() <= now);
+            if (verified.size() >= verifiedCacheMaxEntries) {
+                verified.clear();
+            }
+        }
+        verified.put(token, claims);
+        return claims;
+    }
+
+    public String parseUsername(String token) {
+        return parseToken(token).getSubject();
     }
 }
@@ -0,0 +1,24 @@
+package com.codecraft.service;
+
+import com.codecraft.entity.UserRole;
+import lombok.Data;
+
+/**
+ * 一次 AI 调用的全部输入：前端传入的代码与上下文，加上鉴权后得到的调用者信息。
+ */
+@Data
+public class AiCallRequest {
+    private String type; // comment, explain, document, rewrite, test
+    private String code;
+    private String fileName;
+    private String context;
+    private String language; // zh or en
+    private String filePath;
+    private String framework;
+    private String editorLanguage;
+
+    private String username;
+    private UserRole role;
+    // 请求头 Cache-Control: no-cache 时为 true
+    private boolean bypassCache;
+}
@@ -0,0 +1,261 @@
+package com.codecraft.service;
+
+import com.codecraft.config.AiJobProperties;
+import com.codecraft.entity.AiJob;
+import com.codecraft.repository.AiJobRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 异步 AI 任务队列：提交时只写入 ai_jobs 表并立即返回，各实例按 ai.jobs.concurrency 领取排队任务，
+ * 经 {@link DeepSeekService#callAi} 执行（照常走缓存、合并与调度），结果写回表中保留 ai.jobs.result-ttl-ms。
+ * 领取与完成都是带状态条件的 UPDATE，多实例共享同一张表时不会重复执行；实例退出后租约过期，任务重新排队。
+ */
+@Service
+@Slf4j
+public class AiJobService {
+
+    private static final List<AiJob.Status> PENDING = List.of(AiJob.Status.QUEUED, AiJob.Status.RUNNING);
+    private static final int MAX_ERROR_LENGTH = 1000;
+    // 与 ai_jobs 列宽一致，超长的客户端输入在保存前截断（原值仍保留在 payload 中）
+    private static final int MAX_REQUEST_TYPE_LENGTH = 50;
+    private static final int MAX_FILE_NAME_LENGTH = 255;
+
+    private final AiJobRepository repository;
+    private final DeepSeekService deepSeekService;
+    private final ObjectMapper objectMapper;
+    private final AiJobProperties config;
+    private final Clock clock;
+    // 本实例正在执行的任务，取消时据此中止上游调用，续约时据此确定任务范围
+    private final Map<String, Disposable> running = new ConcurrentHashMap<>();
+    // 本实例内任务结束的通知，等待中的长轮询据此提前返回；其它实例完成的任务靠定期查询发现
+    private final Sinks.Many<String> finished = Sinks.many().multicast().directBestEffort();
+
+    @Autowired
+    public AiJobService(AiJobRepository repository,
+                        DeepSeekService deepSeekService,
+                        ObjectMapper objectMapper,
+                        AiJobProperties config) {
+        this(repository, deepSeekService, objectMapper, config, Clock.systemDefaultZone());
+    }
+
+    AiJobService(AiJobRepository repository,
+                 DeepSeekService deepSeekService,
+                 ObjectMapper objectMapper,
+                 AiJobProperties config,
+                 Clock clock) {
+        this.repository = repository;
+        this.deepSeekService = deepSeekService;
+        this.objectMapper = objectMapper;
+        this.config = config;
+        this.clock = clock;
+    }
+
+    /**
+     * 该用户排队与执行中的任务是否未达上限，供扣减配额前预先判断。
+     */
+    public boolean canSubmit(String username) {
+        return repository.countByUsernameAndStatusIn(username, PENDING) < config.getMaxPendingPerUser();
+    }
+
+    /**
+     * 写入排队任务并返回；该用户排队与执行中的任务达到上限时返回 null。
+     */
+    public AiJob submit(AiCallRequest request) {
+        if (!canSubmit(request.getUsername())) {
+            return null;
+        }
+        AiJob job = new AiJob();
+        job.setId(UUID.randomUUID().toString());
+        job.setUsername(request.getUsername());
+        job.setRequestType(truncate(request.getType(), MAX_REQUEST_TYPE_LENGTH));
+        job.setFileName(truncate(request.getFileName(), MAX_FILE_NAME_LENGTH));
+        job.setStatus(AiJob.Status.QUEUED);
+        job.setCreatedAt(LocalDateTime.now(clock));
+        try {
+            job.setPayload(objectMapper.writeValueAsString(request));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("请求参数无法序列化", e);
+        }
+        repository.save(job);
+        // 不占用提交请求的线程
+        if (config.getConcurrency() > 0) {
+            Schedulers.boundedElastic().schedule(this::dispatch);
+        }
+        return job;
+    }
+
+    /**
+     * 任务不存在、已清理或不属于该用户时返回 null。
+     */
+    public AiJob get(String username, String id) {
+        return repository.findById(id).filter(job -> job.getUsername().equals(username)).orElse(null);
+    }
+
+    /**
+     * 任务状态的变化序列：先发出当前状态，之后每次状态变化发出一次，任务结束后完成；任务不存在时为空。
+     */
+    public Flux<AiJob> watch(String username, String id) {
+        Flux<Object> ticks = Flux.merge(
+                Flux.just(id),
+                finished.asFlux().filter(id::equals),
+                Flux.interval(Duration.ofMillis(config.getPollIntervalMs())));
+        return ticks.concatMap(tick -> load(username, id).map(Optional::of).defaultIfEmpty(Optional.empty()))
+                .takeWhile(Optional::isPresent)
+                .map(Optional::get)
+                .distinctUntilChanged(AiJob::getStatus)
+                .takeUntil(job -> job.getStatus().finished());
+    }
+
+    /**
+     * 长轮询：等待任务结束，最多 waitSeconds 秒（不超过 ai.jobs.max-wait-seconds），超时返回当前状态。
+     */
+    public Mono<AiJob> await(String username, String id, int waitSeconds) {
+        Duration wait = Duration.ofSeconds(Math.max(0, Math.min(waitSeconds, config.getMaxWaitSeconds())));
+        return watch(username, id)
+                .filter(job -> job.getStatus().finished())
+                .next()
+                .timeout(wait, Mono.defer(() -> load(username, id)));
+    }
+
+    /**
+     * 取消排队或执行中的任务；由本实例执行时立即中止上游调用，其它实例执行时其结果不再写入。任务不存在时返回 false。
+     */
+    public boolean cancel(String username, String id) {
+        if (get(username, id) == null) return false;
+        LocalDateTime now = LocalDateTime.now(clock);
+        if (repository.finish(id, PENDING, AiJob.Status.CANCELLED, null, "任务已取消", now, expiresAt(now)) == 1) {
+            Disposable call = running.remove(id);
+            if (call != null) {
+                call.dispose();
+                dispatch();
+            }
+            notifyFinished(id);
+        }
+        return true;
+    }
+
+    public long queuedJobs() {
+        return repository.countByStatus(AiJob.Status.QUEUED);
+    }
+
+    public int runningJobs() {
+        return running.size();
+    }
+
+    /**
+     * 按空闲槽位领取最早排队的任务。
+     */
+    @Scheduled(fixedDelayString = "${ai.jobs.poll-interval-ms:1000}",
+            initialDelayString = "${ai.jobs.poll-interval-ms:1000}")
+    public synchronized void dispatch() {
+        int free = config.getConcurrency() - running.size();
+        if (free <= 0) return;
+        LocalDateTime now = LocalDateTime.now(clock);
+        LocalDateTime leaseUntil = now.plus(Duration.ofMillis(config.getLeaseMs()));
+        for (String id : repository.findIdsByStatus(AiJob.Status.QUEUED, PageRequest.of(0, free))) {
+            if (repository.claim(id, AiJob.Status.QUEUED, AiJob.Status.RUNNING, now, leaseUntil) == 1) {
+                execute(id);
+            }
+        }
+    }
+
+    /**
+     * 为本实例执行中的任务续约，把租约已过期的任务重新排队（超过重试次数的置为失败），并删除过期结果。
+     */
+    @Scheduled(fixedDelayString = "${ai.jobs.maintenance-interval-ms:20000}",
+            initialDelayString = "${ai.jobs.maintenance-interval-ms:20000}")
+    public void maintain() {
+        LocalDateTime now = LocalDateTime.now(clock);
+        if (!running.isEmpty()) {
+            repository.renewLeases(new ArrayList<>(running.keySet()), AiJob.Status.RUNNING,
+                    now.plus(Duration.ofMillis(config.getLeaseMs())));
+        }
+        int requeued = repository.requeueExpiredLeases(AiJob.Status.QUEUED, AiJob.Status.RUNNING, now, config.getMaxAttempts());
+        int failed = repository.failExpiredLeases(AiJob.Status.FAILED, AiJob.Status.RUNNING,
+                "执行任务的实例多次中断", now, expiresAt(now), config.getMaxAttempts());
+        int deleted = repository.deleteExpired(now);
+        if (requeued + failed + deleted > 0) {
+            log.info("异步任务维护：重新排队 {}，失败 {}，清理 {}", requeued, failed, deleted);
+        }
+        if (requeued > 0 && config.getConcurrency() > 0) {
+            dispatch();
+        }
+    }
+
+    private void execute(String id) {
+        AiJob job = repository.findById(id).orElse(null);
+        if (job == null) return;
+        AiCallRequest request;
+        try {
+            request = objectMapper.readValue(job.getPayload(), AiCallRequest.class);
+        } catch (JsonProcessingException e) {
+            complete(id, AiJob.Status.FAILED, null, "任务参数无法解析");
+            return;
+        }
+        // 先登记再订阅，回调早于登记完成时 remove 也能生效
+        Disposable.Swap call = Disposables.swap();
+        running.put(id, call);
+        call.update(deepSeekService.callAi(request)
+                .defaultIfEmpty("")
+                // 写库是阻塞调用，不在上游响应线程上执行
+                .publishOn(Schedulers.boundedElastic())
+                .subscribe(
+                        result -> complete(id, AiJob.Status.SUCCEEDED, result, null),
+                        ex -> complete(id, AiJob.Status.FAILED, null, deepSeekService.describeError(ex))));
+    }
+
+    private void complete(String id, AiJob.Status status, String result, String error) {
+        LocalDateTime now = LocalDateTime.now(clock);
+        try {
+            repository.finish(id, List.of(AiJob.Status.RUNNING), status, result, truncate(error, MAX_ERROR_LENGTH),
+                    now, expiresAt(now));
+        } catch (Exception e) {
+            // 未写入的任务在租约过期后重新排队
+            log.warn("异步任务结果写入失败，jobId={}: {}", id, e.getMessage());
+        } finally {
+            running.remove(id);
+            notifyFinished(id);
+        }
+        dispatch();
+    }
+
+    private Mono<AiJob> load(String username, String id) {
+        return Mono.fromCallable(() -> get(username, id)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private LocalDateTime expiresAt(LocalDateTime now) {
+        return now.plus(Duration.ofMillis(config.getResultTtlMs()));
+    }
+
+    private static String truncate(String value, int maxLength) {
+        return value != null && value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
+
+    private void notifyFinished(String id) {
+        synchronized (finished) {
+            finished.tryEmitNext(id);
+        }
+    }
+}
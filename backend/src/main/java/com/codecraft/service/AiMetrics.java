@@ -0,0 +1,176 @@
+package com.codecraft.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * AI 调用链路的 Micrometer 指标，统一以 ai. 开头，经 /actuator/prometheus 暴露。
+ * 鉴权、配额、日志写入等本地环节与上游首字节、总耗时分开计时，据此区分慢在数据库还是模型；
+ * 百分位直方图由 management.metrics.distribution.percentiles-histogram.ai 开启。
+ */
+@Component
+public class AiMetrics {
+
+    // 请求类型来自客户端，只有已知类型作为标签值，其余归为 other，避免标签取值无限增长
+    private static final Set<String> KNOWN_TYPES = Set.of("comment", "explain", "document", "rewrite", "test");
+
+    private final MeterRegistry registry;
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+    private final AtomicInteger inFlightUpstream = new AtomicInteger();
+
+    public AiMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("ai.requests.in.flight", inFlightRequests, AtomicInteger::get)
+                .description("正在处理的 AI 请求数（含命中缓存与排队中的请求）")
+                .register(registry);
+        Gauge.builder("ai.upstream.in.flight", inFlightUpstream, AtomicInteger::get)
+                .description("正在进行的上游模型调用数")
+                .register(registry);
+    }
+
+    /**
+     * 不接入监控系统时使用，供测试与基准代码构造服务。
+     */
+    public static AiMetrics noop() {
+        return new AiMetrics(new SimpleMeterRegistry());
+    }
+
+    public MeterRegistry registry() {
+        return registry;
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    /**
+     * 结束计时，tags 为成对的键值。
+     */
+    public void stop(Timer.Sample sample, String name, String... tags) {
+        sample.stop(registry.timer(name, tags));
+    }
+
+    public <T> T time(String name, Supplier<T> action, String... tags) {
+        return registry.timer(name, tags).record(action);
+    }
+
+    public void size(String name, String baseUnit, double amount, String... tags) {
+        DistributionSummary.builder(name).baseUnit(baseUnit).tags(tags).register(registry).record(amount);
+    }
+
+    /**
+     * 统计一次完整的非流式请求：总耗时（含缓存、排队）、响应长度与失败类别，订阅期间计入在途请求数。
+     */
+    public Mono<String> trackRequest(String type, Mono<String> call) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = start();
+            inFlightRequests.incrementAndGet();
+            return call.doOnNext(content -> size("ai.response.size", "chars", content.length(), "type", tag(type)))
+                    .doOnError(ex -> upstreamError(type, ex))
+                    .doFinally(signal -> {
+                        inFlightRequests.decrementAndGet();
+                        stop(sample, "ai.request.latency", "type", tag(type), "mode", "complete", "outcome", outcome(signal));
+                    });
+        });
+    }
+
+    public Flux<String> trackRequest(String type, Flux<String> call) {
+        return Flux.defer(() -> {
+            Timer.Sample sample = start();
+            inFlightRequests.incrementAndGet();
+            long[] chars = new long[1];
+            return call.doOnNext(chunk -> chars[0] += chunk.length())
+                    .doOnError(ex -> upstreamError(type, ex))
+                    .doFinally(signal -> {
+                        inFlightRequests.decrementAndGet();
+                        stop(sample, "ai.request.latency", "type", tag(type), "mode", "stream", "outcome", outcome(signal));
+                        if (signal == SignalType.ON_COMPLETE) {
+                            size("ai.response.size", "chars", chars[0], "type", tag(type));
+                        }
+                    });
+        });
+    }
+
+    /**
+     * 统计一次非流式上游调用的总耗时（含端点切换与重试）；非流式响应一次返回，首字节时间即总耗时，不单独记录。
+     */
+    public Mono<String> trackUpstream(String type, Mono<String> call) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = start();
+            inFlightUpstream.incrementAndGet();
+            return call.doFinally(signal -> {
+                        inFlightUpstream.decrementAndGet();
+                        stop(sample, "ai.upstream.latency", "type", tag(type), "mode", "complete", "outcome", outcome(signal));
+                    });
+        });
+    }
+
+    /**
+     * 统计一次流式上游调用：首个增量到达的时间与总耗时。
+     */
+    public Flux<String> trackUpstream(String type, Flux<String> call) {
+        return Flux.defer(() -> {
+            Timer.Sample sample = start();
+            Timer.Sample firstByte = start();
+            AtomicBoolean first = new AtomicBoolean(true);
+            inFlightUpstream.incrementAndGet();
+            return call.doOnNext(chunk -> {
+                        if (first.compareAndSet(true, false)) {
+                            stop(firstByte, "ai.upstream.ttfb", "type", tag(type));
+                        }
+                    })
+                    .doFinally(signal -> {
+                        inFlightUpstream.decrementAndGet();
+                        stop(sample, "ai.upstream.latency", "type", tag(type), "mode", "stream", "outcome", outcome(signal));
+                    });
+        });
+    }
+
+    /**
+     * 请求失败按类别计数（排队已满、熔断等在调用上游之前的拒绝也计入）：rate_limited、http_4xx、http_5xx、circuit_open、busy、timeout、connect、bad_response、other。
+     */
+    public void upstreamError(String type, Throwable ex) {
+        Counter.builder("ai.upstream.errors").tag("type", tag(type)).tag("class", errorClass(ex)).register(registry).increment();
+    }
+
+    static String errorClass(Throwable ex) {
+        if (ex instanceof UpstreamHttpException uex) {
+            if (uex.getStatusCode() == 429) return "rate_limited";
+            return uex.getStatusCode() >= 500 ? "http_5xx" : "http_4xx";
+        }
+        if (ex instanceof CircuitOpenException) return "circuit_open";
+        if (ex instanceof UpstreamBusyException) return "busy";
+        if (ex instanceof TimeoutException) return "timeout";
+        if (ex instanceof WebClientRequestException) return "connect";
+        if (ex instanceof UpstreamResponseException) return "bad_response";
+        return "other";
+    }
+
+    static String tag(String type) {
+        if (type == null || type.isBlank()) return "unknown";
+        return KNOWN_TYPES.contains(type) ? type : "other";
+    }
+
+    private static String outcome(SignalType signal) {
+        return switch (signal) {
+            case ON_COMPLETE -> "success";
+            case ON_ERROR -> "error";
+            default -> "cancelled";
+        };
+    }
+}
@@ -0,0 +1,18 @@
+package com.codecraft.service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 一个大模型端点：负责构造请求体、解析响应与流式增量。实现需保证失败时以错误信号结束，而不是返回提示文案。
+ */
+public interface AiProvider {
+
+    String name();
+
+    String model();
+
+    Mono<String> complete(String systemPrompt, String userPrompt);
+
+    Flux<String> stream(String systemPrompt, String userPrompt);
+}
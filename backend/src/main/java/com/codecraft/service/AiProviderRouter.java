@@ -0,0 +1,332 @@
+package com.codecraft.service;
+
+import com.codecraft.config.AiProviderProperties;
+import com.codecraft.config.UpstreamHttpProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 在多个大模型端点之间路由：按请求类型的策略确定候选顺序（最快优先或固定优先级），
+ * 依次尝试，失败或超时后自动切换到下一个。每个端点维护延迟与错误率的滑动平均，不健康的端点排到末尾。
+ * 每个端点有独立的熔断器，单端点内对暂时性错误做退避重试；对延迟敏感的请求类型可在主请求迟迟未返回时发出对冲请求。
+ * 流式调用只在尚未输出任何内容时重试或切换端点。
+ */
+@Component
+@Slf4j
+public class AiProviderRouter {
+
+    private static final int LATENCY_WINDOW = 100;
+
+    private final AiProviderProperties properties;
+    private final UpstreamResilience resilience;
+    private final Map<String, AiProvider> providers = new LinkedHashMap<>();
+    private final Map<String, ProviderHealth> health = new LinkedHashMap<>();
+    private final LongAdder hedgedRequests = new LongAdder();
+
+    @Autowired
+    public AiProviderRouter(AiProviderProperties properties,
+                            UpstreamResilience resilience,
+                            WebClient upstreamWebClient,
+                            ObjectMapper objectMapper,
+                            UpstreamHttpProperties httpProperties,
+                            @Value("${deepseek.api.key:}") String deepSeekKey,
+                            @Value("${deepseek.api.url:https://api.deepseek.com/v1/chat/completions}") String deepSeekUrl,
+                            @Value("${deepseek.api.model:deepseek-chat}") String deepSeekModel) {
+        this(properties, resilience, buildProviders(properties, upstreamWebClient, objectMapper, httpProperties,
+                deepSeekKey, deepSeekUrl, deepSeekModel));
+    }
+
+    AiProviderRouter(AiProviderProperties properties, UpstreamResilience resilience, List<AiProvider> providers) {
+        this.properties = properties;
+        this.resilience = resilience;
+        for (AiProvider provider : providers) {
+            this.providers.put(provider.name(), provider);
+            this.health.put(provider.name(), new ProviderHealth(resilience.newBreaker(provider.name())));
+        }
+        log.info("已加载大模型端点: {}", providers.stream()
+                .map(p -> p.name() + "(" + p.model() + ")").collect(Collectors.joining(", ")));
+    }
+
+    private static List<AiProvider> buildProviders(AiProviderProperties properties,
+                                                   WebClient webClient,
+                                                   ObjectMapper objectMapper,
+                                                   UpstreamHttpProperties httpProperties,
+                                                   String deepSeekKey, String deepSeekUrl, String deepSeekModel) {
+        List<AiProviderProperties.Endpoint> endpoints = properties.getEndpoints();
+        if (endpoints.isEmpty()) {
+            // 未配置 endpoints 时沿用 deepseek.api.*，未配置密钥则视为没有可用端点
+            if (deepSeekKey == null || deepSeekKey.isBlank()) return List.of();
+            AiProviderProperties.Endpoint deepSeek = new AiProviderProperties.Endpoint();
+            deepSeek.setName("deepseek");
+            deepSeek.setUrl(deepSeekUrl);
+            deepSeek.setApiKey(deepSeekKey);
+            deepSeek.setModel(deepSeekModel);
+            endpoints = List.of(deepSeek);
+        }
+        List<AiProvider> result = new ArrayList<>();
+        for (AiProviderProperties.Endpoint endpoint : endpoints) {
+            if (endpoint.isEnabled()) {
+                result.add(new OpenAiCompatibleProvider(endpoint, webClient, objectMapper, httpProperties));
+            }
+        }
+        return result;
+    }
+
+    public boolean hasProviders() {
+        return !providers.isEmpty();
+    }
+
+    /**
+     * 用于缓存键：同一请求类型可能路由到的端点及模型，策略变化后缓存自然失效。
+     */
+    public String routeKey(String type) {
+        return eligible(type).stream()
+                .map(p -> p.name() + "/" + p.model())
+                .sorted()
+                .collect(Collectors.joining(","));
+    }
+
+    public Mono<String> complete(String type, String systemPrompt, String userPrompt) {
+        return Mono.defer(() -> {
+            List<AiProvider> candidates = candidates(type);
+            if (candidates.isEmpty()) return Mono.error(new IllegalStateException("没有可用的大模型端点"));
+            return attempt(candidates, 0, type, systemPrompt, userPrompt);
+        });
+    }
+
+    public Flux<String> stream(String type, String systemPrompt, String userPrompt) {
+        return Flux.defer(() -> {
+            List<AiProvider> candidates = candidates(type);
+            if (candidates.isEmpty()) return Flux.error(new IllegalStateException("没有可用的大模型端点"));
+            return attemptStream(candidates, 0, systemPrompt, userPrompt);
+        });
+    }
+
+    public List<ProviderStats> stats() {
+        List<ProviderStats> result = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        providers.forEach((name, provider) -> {
+            ProviderHealth h = health.get(name);
+            ProviderStats stats = new ProviderStats();
+            stats.setName(name);
+            stats.setModel(provider.model());
+            synchronized (h) {
+                stats.setEwmaLatencyMs(h.latencySamples == 0 ? -1 : Math.round(h.latencyMs));
+                stats.setErrorRate(h.errorRate);
+                stats.setSamples(h.samples);
+            }
+            stats.setRequests(h.requests.sum());
+            stats.setFailures(h.failures.sum());
+            stats.setP95LatencyMs(h.latencies.percentile(0.95));
+            stats.setHealthy(isHealthy(h, now));
+            stats.setBreakerState(h.breaker.state().name());
+            stats.setBreakerFailureRate(h.breaker.failureRate());
+            result.add(stats);
+        });
+        return result;
+    }
+
+    public long hedgedRequests() {
+        return hedgedRequests.sum();
+    }
+
+    /**
+     * 按策略排好序的候选端点，不健康或熔断中的端点排在末尾（仍可作为最后的兜底）。
+     */
+    List<AiProvider> candidates(String type) {
+        List<AiProvider> eligible = eligible(type);
+        AiProviderProperties.Policy policy = type == null ? null : properties.getPolicies().get(type);
+        AiProviderProperties.Strategy strategy = policy != null ? policy.getStrategy() : properties.getDefaultStrategy();
+        long now = System.currentTimeMillis();
+        Comparator<AiProvider> order = Comparator.comparing(p -> !isHealthy(health.get(p.name()), now));
+        if (strategy == AiProviderProperties.Strategy.FASTEST) {
+            order = order.thenComparingDouble(p -> score(health.get(p.name())));
+        }
+        // List.sort 是稳定排序，同分时保持配置顺序
+        List<AiProvider> sorted = new ArrayList<>(eligible);
+        sorted.sort(order);
+        return sorted;
+    }
+
+    private List<AiProvider> eligible(String type) {
+        AiProviderProperties.Policy policy = type == null ? null : properties.getPolicies().get(type);
+        if (policy == null || policy.getProviders().isEmpty()) {
+            return new ArrayList<>(providers.values());
+        }
+        List<AiProvider> result = new ArrayList<>();
+        for (String name : policy.getProviders()) {
+            AiProvider provider = providers.get(name);
+            if (provider != null) result.add(provider);
+        }
+        // 策略里的端点都不可用时退回全部端点
+        return result.isEmpty() ? new ArrayList<>(providers.values()) : result;
+    }
+
+    private Mono<String> attempt(List<AiProvider> candidates, int index, String type,
+                                 String systemPrompt, String userPrompt) {
+        AiProvider provider = candidates.get(index);
+        if (!resilience.shouldHedge(type)) {
+            return callWithRetry(provider, systemPrompt, userPrompt)
+                    .onErrorResume(ex -> failover(candidates, provider, index + 1, type, systemPrompt, userPrompt, ex));
+        }
+        // 主请求超过该端点近期的 p95 延迟仍未返回时，向下一个候选（没有则同一端点）再发一次，取先成功的结果
+        AiProvider hedgeTarget = index + 1 < candidates.size() ? candidates.get(index + 1) : provider;
+        Duration delay = resilience.hedgeDelay(health.get(provider.name()).latencies);
+        return Mono.defer(() -> {
+            AtomicBoolean hedged = new AtomicBoolean();
+            AtomicReference<Throwable> primaryError = new AtomicReference<>();
+            Mono<String> primary = callWithRetry(provider, systemPrompt, userPrompt).onErrorResume(ex -> {
+                primaryError.set(ex);
+                // 对冲已发出且错误可能与端点有关时等待对冲结果；否则（含 4xx 等不可重试错误）立即失败，尚未发出的对冲随之取消
+                return hedged.get() && UpstreamResilience.isRetryable(ex) ? Mono.empty() : Mono.error(ex);
+            });
+            Mono<String> hedge = Mono.delay(delay).flatMap(tick -> {
+                hedged.set(true);
+                hedgedRequests.increment();
+                log.debug("端点 {} 超过 {} ms 未返回，向 {} 发出对冲请求", provider.name(), delay.toMillis(), hedgeTarget.name());
+                return callWithRetry(hedgeTarget, systemPrompt, userPrompt)
+                        // 主请求仍在进行时，对冲失败不影响结果
+                        .onErrorResume(ex -> primaryError.get() != null ? Mono.error(ex) : Mono.empty());
+            });
+            return Flux.merge(primary, hedge).next()
+                    // 对冲先失败、主请求随后以可重试错误失败时两边都没有结果，以主请求的错误结束
+                    .switchIfEmpty(Mono.defer(() -> Mono.error(primaryError.get())))
+                    .onErrorResume(ex -> {
+                        // 对冲已用掉下一个候选时跳过它
+                        int next = hedged.get() && hedgeTarget != provider ? index + 2 : index + 1;
+                        return failover(candidates, provider, next, type, systemPrompt, userPrompt, ex);
+                    });
+        });
+    }
+
+    private Mono<String> failover(List<AiProvider> candidates, AiProvider failed, int next, String type,
+                                  String systemPrompt, String userPrompt, Throwable ex) {
+        if (next >= candidates.size()) return Mono.error(ex);
+        log.warn("端点 {} 调用失败，切换到 {}: {}", failed.name(), candidates.get(next).name(), ex.toString());
+        return attempt(candidates, next, type, systemPrompt, userPrompt);
+    }
+
+    private Mono<String> callWithRetry(AiProvider provider, String systemPrompt, String userPrompt) {
+        ProviderHealth h = health.get(provider.name());
+        return resilience.guard(h.breaker, provider.name(), () -> {
+                    long startedAt = System.nanoTime();
+                    h.requests.increment();
+                    return provider.complete(systemPrompt, userPrompt)
+                            .doOnSuccess(result -> recordSuccess(h, startedAt))
+                            .doOnError(ex -> recordFailure(h));
+                })
+                .retryWhen(resilience.retrySpec(() -> true));
+    }
+
+    private Flux<String> attemptStream(List<AiProvider> candidates, int index, String systemPrompt, String userPrompt) {
+        AiProvider provider = candidates.get(index);
+        ProviderHealth h = health.get(provider.name());
+        return Flux.defer(() -> {
+            AtomicBoolean emitted = new AtomicBoolean();
+            return resilience.guardMany(h.breaker, provider.name(), () -> {
+                        long startedAt = System.nanoTime();
+                        h.requests.increment();
+                        return provider.stream(systemPrompt, userPrompt)
+                                // 流式调用以首个增量的耗时作为延迟样本
+                                .doOnNext(delta -> {
+                                    if (emitted.compareAndSet(false, true)) recordSuccess(h, startedAt);
+                                })
+                                .doOnError(ex -> recordFailure(h));
+                    })
+                    .retryWhen(resilience.retrySpec(() -> !emitted.get()))
+                    .onErrorResume(ex -> {
+                        if (emitted.get() || index + 1 >= candidates.size()) return Flux.error(ex);
+                        log.warn("端点 {} 流式调用失败，切换到 {}: {}", provider.name(), candidates.get(index + 1).name(), ex.toString());
+                        return attemptStream(candidates, index + 1, systemPrompt, userPrompt);
+                    });
+        });
+    }
+
+    private void recordSuccess(ProviderHealth h, long startedAt) {
+        double latencyMs = (System.nanoTime() - startedAt) / 1_000_000.0;
+        double alpha = properties.getEwmaAlpha();
+        h.latencies.record(Math.round(latencyMs));
+        synchronized (h) {
+            h.latencyMs = h.latencySamples == 0 ? latencyMs : h.latencyMs * (1 - alpha) + latencyMs * alpha;
+            h.latencySamples++;
+            h.errorRate = h.errorRate * (1 - alpha);
+            h.samples++;
+        }
+    }
+
+    private void recordFailure(ProviderHealth h) {
+        double alpha = properties.getEwmaAlpha();
+        h.failures.increment();
+        synchronized (h) {
+            h.errorRate = h.errorRate * (1 - alpha) + alpha;
+            h.samples++;
+            h.lastFailureAt = System.currentTimeMillis();
+        }
+    }
+
+    private boolean isHealthy(ProviderHealth h, long now) {
+        if (h.breaker.state() == CircuitBreaker.State.OPEN) return false;
+        synchronized (h) {
+            return h.samples < properties.getMinSamples()
+                    || h.errorRate < properties.getErrorRateThreshold()
+                    || now - h.lastFailureAt >= properties.getRecoveryMs();
+        }
+    }
+
+    // 延迟按错误率放大，错误率越高越靠后
+    private double score(ProviderHealth h) {
+        synchronized (h) {
+            double latency = h.latencySamples == 0 ? properties.getInitialLatencyMs() : h.latencyMs;
+            return latency / Math.max(0.01, 1 - h.errorRate);
+        }
+    }
+
+    private static final class ProviderHealth {
+        private final CircuitBreaker breaker;
+        private final LatencyWindow latencies = new LatencyWindow(LATENCY_WINDOW);
+        private double latencyMs;
+        private long latencySamples;
+        private double errorRate;
+        private long samples;
+        private long lastFailureAt;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        private ProviderHealth(CircuitBreaker breaker) {
+            this.breaker = breaker;
+        }
+    }
+
+    @Data
+    public static class ProviderStats {
+        private String name;
+        private String model;
+        private long ewmaLatencyMs;
+        private long p95LatencyMs;
+        private double errorRate;
+        private long samples;
+        private long requests;
+        private long failures;
+        private boolean healthy;
+        private String breakerState;
+        private double breakerFailureRate;
+    }
+}
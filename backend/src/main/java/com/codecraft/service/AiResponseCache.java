@@ -0,0 +1,169 @@
+package com.codecraft.service;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AI 响应缓存：按请求内容哈希寻址。
+ * 内存层为 LRU + TTL，容量满时淘汰最久未访问的条目；持久层可选，通过 {@link AiResponseCacheStore} 接入。
+ */
+@Service
+@Slf4j
+public class AiResponseCache {
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlMs;
+    private final AiResponseCacheStore store;
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder storeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final Map<String, CachedResponse> entries;
+
+    public AiResponseCache(@Value("${ai.cache.enabled:true}") boolean enabled,
+                           @Value("${ai.cache.max-entries:1000}") int maxEntries,
+                           @Value("${ai.cache.ttl-seconds:3600}") long ttlSeconds,
+                           ObjectProvider<AiResponseCacheStore> storeProvider) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlSeconds * 1000;
+        this.store = storeProvider.getIfAvailable();
+        // accessOrder=true 即 LRU 顺序
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                if (size() > AiResponseCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 计算缓存键：type、language、system prompt、完整 user prompt 与模型共同决定一次调用的结果。
+     */
+    public String key(String type, String language, String systemPrompt, String userPrompt, String model) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{type, language, systemPrompt, userPrompt, model}) {
+                byte[] bytes = (part == null ? "" : part).getBytes(StandardCharsets.UTF_8);
+                // 写入长度前缀，避免字段拼接产生歧义
+                digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) ':');
+                digest.update(bytes);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    /**
+     * 先查内存层，再查持久层（在 boundedElastic 上执行）；均未命中时返回空 Mono。
+     */
+    public Mono<String> get(String key) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        String cached = getFromMemory(key);
+        if (cached != null) {
+            memoryHits.increment();
+            return Mono.just(cached);
+        }
+        if (store == null) {
+            misses.increment();
+            return Mono.empty();
+        }
+        return Mono.fromCallable(() -> store.load(key).orElse(null))
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(ex -> {
+                    log.warn("持久化缓存读取失败: {}", ex.getMessage());
+                    return Mono.empty();
+                })
+                .doOnNext(value -> {
+                    storeHits.increment();
+                    putInMemory(key, value);
+                })
+                .switchIfEmpty(Mono.fromRunnable(misses::increment));
+    }
+
+    public void put(String key, String response) {
+        if (!enabled || response == null) {
+            return;
+        }
+        putInMemory(key, response);
+        if (store != null) {
+            LocalDateTime expiresAt = LocalDateTime.now().plus(Duration.ofMillis(ttlMs));
+            Schedulers.boundedElastic().schedule(() -> store.save(key, response, expiresAt));
+        }
+    }
+
+    public CacheStats stats() {
+        CacheStats stats = new CacheStats();
+        stats.setEnabled(enabled);
+        stats.setPersistent(store != null);
+        synchronized (entries) {
+            stats.setSize(entries.size());
+        }
+        stats.setMaxEntries(maxEntries);
+        stats.setMemoryHits(memoryHits.sum());
+        stats.setStoreHits(storeHits.sum());
+        stats.setMisses(misses.sum());
+        stats.setEvictions(evictions.sum());
+        return stats;
+    }
+
+    private String getFromMemory(String key) {
+        synchronized (entries) {
+            CachedResponse cached = entries.get(key);
+            if (cached == null) return null;
+            if (cached.expiresAt() <= System.currentTimeMillis()) {
+                entries.remove(key);
+                evictions.increment();
+                return null;
+            }
+            return cached.value();
+        }
+    }
+
+    private void putInMemory(String key, String value) {
+        synchronized (entries) {
+            entries.put(key, new CachedResponse(value, System.currentTimeMillis() + ttlMs));
+        }
+    }
+
+    private record CachedResponse(String value, long expiresAt) {
+    }
+
+    @Data
+    public static class CacheStats {
+        private boolean enabled;
+        private boolean persistent;
+        private int size;
+        private int maxEntries;
+        private long memoryHits;
+        private long storeHits;
+        private long misses;
+        private long evictions;
+    }
+}
@@ -0,0 +1,15 @@
+package com.codecraft.service;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * AI 响应缓存的持久化层，内存层未命中时才会访问。
+ * 实现可能是阻塞的（数据库/磁盘），调用方负责调度到合适的线程。
+ */
+public interface AiResponseCacheStore {
+
+    Optional<String> load(String key);
+
+    void save(String key, String response, LocalDateTime expiresAt);
+}
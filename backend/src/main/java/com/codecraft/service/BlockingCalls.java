@@ -0,0 +1,48 @@
+package com.codecraft.service;
+
+import com.codecraft.config.ExecutionProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 把响应式链路中的阻塞调用（JPA 查询、可能阻塞的日志入队）包装为 Mono。
+ * SERVLET 模式下在订阅线程上直接执行；REACTIVE 模式下切换到专用的有界调度器，不占用请求线程和 Netty 事件循环；
+ * VIRTUAL 模式下请求线程本身是虚拟线程，阻塞时不占用平台线程，因此同样直接执行。
+ */
+@Component
+@Slf4j
+public class BlockingCalls {
+
+    private final ExecutionProperties properties;
+    private final Scheduler scheduler;
+
+    public BlockingCalls(ExecutionProperties properties) {
+        this.properties = properties;
+        this.scheduler = properties.getMode() == ExecutionProperties.Mode.REACTIVE
+                ? Schedulers.newBoundedElastic(properties.getBlockingThreads(), properties.getBlockingQueueCapacity(), "ai-blocking")
+                : Schedulers.immediate();
+        log.info("AI 请求执行模式: {}", properties.getMode());
+    }
+
+    /**
+     * callable 返回 null 时得到空 Mono。
+     */
+    public <T> Mono<T> call(Callable<T> callable) {
+        return Mono.fromCallable(callable).subscribeOn(scheduler);
+    }
+
+    public ExecutionProperties.Mode mode() {
+        return properties.getMode();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != Schedulers.immediate()) scheduler.dispose();
+    }
+}
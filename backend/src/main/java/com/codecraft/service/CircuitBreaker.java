@@ -0,0 +1,145 @@
+package com.codecraft.service;
+
+import com.codecraft.config.ResilienceProperties;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 基于最近 N 次调用结果的熔断器。CLOSED 时按失败比例判断是否打开；OPEN 期间直接拒绝；
+ * 到期后进入 HALF_OPEN，只放行有限次试探，全部成功则关闭，任一失败重新打开。
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final ResilienceProperties.Breaker config;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    // 环形窗口记录最近的调用结果，true 为失败
+    private final boolean[] window;
+    private int windowSize;
+    private int windowIndex;
+    private int failuresInWindow;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    public CircuitBreaker(String name, ResilienceProperties.Breaker config) {
+        this(name, config, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(String name, ResilienceProperties.Breaker config, LongSupplier clock) {
+        this.name = name;
+        this.config = config;
+        this.clock = clock;
+        this.window = new boolean[Math.max(1, config.getSlidingWindow())];
+    }
+
+    /**
+     * 是否放行本次调用；放行后必须以 onSuccess、onFailure 或 onIgnored 之一结束。
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openedAt < config.getOpenMs()) return false;
+            state = State.HALF_OPEN;
+            halfOpenPermits = config.getHalfOpenCalls();
+            halfOpenSuccesses = 0;
+            log.info("熔断器 {} 进入半开状态", name);
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermits <= 0) return false;
+            halfOpenPermits--;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            if (++halfOpenSuccesses >= config.getHalfOpenCalls()) {
+                state = State.CLOSED;
+                resetWindow();
+                log.info("熔断器 {} 已关闭", name);
+            }
+            return;
+        }
+        record(false);
+        openIfThresholdReached();
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true);
+        openIfThresholdReached();
+    }
+
+    /**
+     * 调用被取消或结果与端点健康无关（如请求参数错误），归还半开状态下的试探名额。
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            halfOpenPermits++;
+        }
+    }
+
+    public synchronized State state() {
+        // OPEN 到期但尚无请求触发状态转换时，对外仍按半开报告
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= config.getOpenMs()) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized double failureRate() {
+        return windowSize == 0 ? 0 : (double) failuresInWindow / windowSize;
+    }
+
+    /**
+     * 距离允许试探还需等待的秒数，用于 Retry-After。
+     */
+    public synchronized long retryAfterSeconds() {
+        if (state != State.OPEN) return 1;
+        long remainingMs = config.getOpenMs() - (clock.getAsLong() - openedAt);
+        return Math.max(1, (remainingMs + 999) / 1000);
+    }
+
+    private void openIfThresholdReached() {
+        if (state == State.CLOSED && windowSize >= config.getMinimumCalls()
+                && (double) failuresInWindow / windowSize >= config.getFailureRateThreshold()) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        log.warn("熔断器 {} 已打开，{} ms 后尝试恢复", name, config.getOpenMs());
+    }
+
+    private void record(boolean failed) {
+        if (windowSize == window.length) {
+            if (window[windowIndex]) failuresInWindow--;
+        } else {
+            windowSize++;
+        }
+        window[windowIndex] = failed;
+        if (failed) failuresInWindow++;
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    private void resetWindow() {
+        windowSize = 0;
+        windowIndex = 0;
+        failuresInWindow = 0;
+    }
+}
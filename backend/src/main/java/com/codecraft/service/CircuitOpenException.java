@@ -0,0 +1,19 @@
+package com.codecraft.service;
+
+import lombok.Getter;
+
+/**
+ * 端点熔断中，调用被直接拒绝（对应 HTTP 503）。
+ */
+@Getter
+public class CircuitOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public CircuitOpenException(String provider, long retryAfterSeconds) {
+        super("大模型服务 " + provider + " 暂时不可用，请稍后重试");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,177 @@
+package com.codecraft.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 把源文件切成适合单次调用的 chunk：先在类/函数边界处分段，超长的段再逐行拆开，然后把相邻的段合并到 token 上限以内。
+ * 合并时除了上限，还会在内容哈希满足条件的段之后切开（由内容决定切分点），
+ * 因此一次局部编辑只改变所在及其后少数几个 chunk，其余 chunk 的内容不变，可以命中缓存。
+ */
+final class DocumentChunker {
+
+    /**
+     * startLine / endLine 为从 1 开始的闭区间，只用于展示，不参与缓存键。
+     */
+    record Chunk(String path, int startLine, int endLine, String text) {
+    }
+
+    // 平均约每 4 段出现一个内容切分点
+    private static final int CUT_MODULUS = 4;
+    // chunk 至少积累到上限的 1/8 才按内容切开，避免产生过碎的调用
+    private static final int MIN_FRACTION = 8;
+
+    private DocumentChunker() {
+    }
+
+    static List<Chunk> split(String path, String text, SourceLanguage language, int maxTokens) {
+        String[] lines = text.split("\n", -1);
+        List<int[]> segments = segments(lines, boundaries(lines, language), maxTokens);
+        List<Chunk> chunks = new ArrayList<>();
+        int chunkStart = 0;
+        int chunkTokens = 0;
+        for (int[] segment : segments) {
+            int tokens = tokens(lines, segment[0], segment[1]);
+            if (chunkTokens > 0 && chunkTokens + tokens > maxTokens) {
+                emit(chunks, path, lines, chunkStart, segment[0]);
+                chunkStart = segment[0];
+                chunkTokens = 0;
+            }
+            chunkTokens += tokens;
+            if (chunkTokens >= maxTokens / MIN_FRACTION && isContentCut(lines, segment[0], segment[1])) {
+                emit(chunks, path, lines, chunkStart, segment[1]);
+                chunkStart = segment[1];
+                chunkTokens = 0;
+            }
+        }
+        emit(chunks, path, lines, chunkStart, lines.length);
+        return chunks;
+    }
+
+    // 段为 [start, end) 行区间；超过上限的段拆成单行
+    private static List<int[]> segments(String[] lines, boolean[] boundaries, int maxTokens) {
+        List<int[]> segments = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= lines.length; i++) {
+            if (i < lines.length && !boundaries[i]) continue;
+            if (tokens(lines, start, i) > maxTokens) {
+                for (int line = start; line < i; line++) segments.add(new int[]{line, line + 1});
+            } else {
+                segments.add(new int[]{start, i});
+            }
+            start = i;
+        }
+        return segments;
+    }
+
+    private static boolean[] boundaries(String[] lines, SourceLanguage language) {
+        if (language == SourceLanguage.JAVA || language == SourceLanguage.JAVASCRIPT) {
+            return braceBoundaries(lines, language);
+        }
+        if (language == SourceLanguage.PYTHON) {
+            return pythonBoundaries(lines);
+        }
+        boolean[] boundaries = new boolean[lines.length];
+        for (int i = 1; i < lines.length; i++) {
+            boundaries[i] = lines[i - 1].isBlank() && !lines[i].isBlank();
+        }
+        return boundaries;
+    }
+
+    // 花括号语言：行首处于顶层或类体内（深度 ≤ 1），且上一行为空行或以 } / ; 结束了一个成员；
+    // 只有注释或注解的行不算结束，因此 Javadoc 与注解跟随其后的声明
+    private static boolean[] braceBoundaries(String[] lines, SourceLanguage language) {
+        boolean[] boundaries = new boolean[lines.length];
+        LineCode code = new LineCode();
+        int state = SourceLanguage.CODE;
+        int depth = 0;
+        char previousLast = 0;
+        boolean previousBlank = true;
+        for (int i = 0; i < lines.length; i++) {
+            boundaries[i] = i > 0 && state == SourceLanguage.CODE && depth <= 1
+                    && (previousBlank || previousLast == '}' || previousLast == ';');
+            code.reset(lines[i]);
+            state = language.lexLine(lines[i], 0, lines[i].length(), state, code);
+            depth = Math.max(0, depth + code.depthDelta);
+            previousBlank = lines[i].isBlank();
+            previousLast = depth <= 1 ? code.last : 0;
+        }
+        return boundaries;
+    }
+
+    // Python：缩进不超过一级的 def/class，或顶层语句；紧邻其上的装饰器与注释随之归入同一段
+    private static boolean[] pythonBoundaries(String[] lines) {
+        boolean[] boundaries = new boolean[lines.length];
+        int state = SourceLanguage.CODE;
+        for (int i = 0; i < lines.length; i++) {
+            int startState = state;
+            state = SourceLanguage.PYTHON.lexLine(lines[i], 0, lines[i].length(), state, (kind, from, to) -> {
+            });
+            if (i == 0 || startState != SourceLanguage.CODE || !isPythonDeclaration(lines[i])) continue;
+            int at = i;
+            while (at > 0 && isDecoratorOrComment(lines[at - 1])) at--;
+            boundaries[at] = true;
+        }
+        return boundaries;
+    }
+
+    private static boolean isPythonDeclaration(String line) {
+        String code = line.strip();
+        int indent = line.indexOf(code.isEmpty() ? " " : code);
+        if (code.isEmpty() || code.startsWith("#") || indent > 4) return false;
+        if (code.startsWith("def ") || code.startsWith("async def ") || code.startsWith("class ")) return true;
+        return indent == 0 && !code.startsWith("@") && ")]}".indexOf(code.charAt(0)) < 0;
+    }
+
+    private static boolean isDecoratorOrComment(String line) {
+        String code = line.strip();
+        return (code.startsWith("@") || code.startsWith("#")) && line.indexOf(code) <= 4;
+    }
+
+    private static boolean isContentCut(String[] lines, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31 * hash + lines[i].strip().hashCode();
+        return Math.floorMod(hash, CUT_MODULUS) == 0;
+    }
+
+    private static int tokens(String[] lines, int start, int end) {
+        int tokens = 0;
+        for (int i = start; i < end; i++) tokens += TokenEstimator.estimate(lines[i]) + 1;
+        return tokens;
+    }
+
+    private static void emit(List<Chunk> chunks, String path, String[] lines, int start, int end) {
+        while (end > start && lines[end - 1].isBlank()) end--;
+        while (start < end && lines[start].isBlank()) start++;
+        if (start >= end) return;
+        chunks.add(new Chunk(path, start + 1, end, String.join("\n", Arrays.asList(lines).subList(start, end))));
+    }
+
+    // 统计一行代码段中花括号的净深度变化与最后一个非空白字符，字符串与注释不计
+    private static final class LineCode implements SourceLanguage.SegmentSink {
+        private String line;
+        private int depthDelta;
+        private char last;
+
+        void reset(String line) {
+            this.line = line;
+            this.depthDelta = 0;
+            this.last = 0;
+        }
+
+        @Override
+        public void segment(int kind, int start, int end) {
+            if (kind != SourceLanguage.CODE) {
+                last = '"';
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                char c = line.charAt(i);
+                if (c == '{') depthDelta++;
+                else if (c == '}') depthDelta--;
+                if (!Character.isWhitespace(c)) last = c;
+            }
+        }
+    }
+}
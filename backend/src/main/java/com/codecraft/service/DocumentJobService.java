@@ -0,0 +1,376 @@
+package com.codecraft.service;
+
+import com.codecraft.config.DocumentJobProperties;
+import com.codecraft.entity.RequestLog;
+import com.codecraft.entity.UserRole;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 分块文档生成任务：大文件或多个文件先按类/函数边界切块（{@link DocumentChunker}），
+ * 各块以有限并发生成局部文档（map），再合并为一份文档（reduce），局部文档过多时分组逐层合并。
+ * 每次调用的结果按提示内容哈希写入 {@link AiResponseCache}，小范围修改后重跑只会重新生成变化的块。
+ * 任务只保存在当前实例内存中，结束后保留 ai.document-jobs.ttl-ms 供查询。
+ */
+@Service
+@Slf4j
+public class DocumentJobService {
+
+    private static final String ROUTE_TYPE = "document";
+
+    public enum Status {
+        RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    /**
+     * 一个待生成文档的源文件；editorLanguage 可为空，此时按扩展名识别语言。
+     */
+    public record SourceFile(String path, String content, String editorLanguage) {
+    }
+
+    /**
+     * 任务进度快照，轮询与 SSE 推送共用；result 只在 SUCCEEDED 时有值。
+     */
+    public record Progress(String jobId, Status status, int files, int totalChunks, int completedChunks,
+                           int cachedChunks, int reduceCalls, String result, String error) {
+    }
+
+    /**
+     * 切块结果，提交任务前用于计算配额。
+     */
+    public static final class Plan {
+        private final List<DocumentChunker.Chunk> chunks;
+        private final int files;
+        private final int sourceTokens;
+
+        Plan(List<DocumentChunker.Chunk> chunks, int files, int sourceTokens) {
+            this.chunks = chunks;
+            this.files = files;
+            this.sourceTokens = sourceTokens;
+        }
+
+        public int chunkCount() {
+            return chunks.size();
+        }
+
+        public int files() {
+            return files;
+        }
+    }
+
+    public static final class Job {
+        private final String id;
+        private final String username;
+        private final int files;
+        private final int totalChunks;
+        private final AtomicInteger completedChunks = new AtomicInteger();
+        private final AtomicInteger cachedChunks = new AtomicInteger();
+        private final AtomicInteger reduceCalls = new AtomicInteger();
+        // 只保留最新一条进度，晚订阅的客户端先收到当前状态
+        private final Sinks.Many<Progress> events = Sinks.many().replay().latest();
+        private volatile Status status = Status.RUNNING;
+        private volatile String result;
+        private volatile String error;
+        private volatile long finishedAt;
+        private volatile Disposable pipeline;
+
+        Job(String id, String username, int files, int totalChunks) {
+            this.id = id;
+            this.username = username;
+            this.files = files;
+            this.totalChunks = totalChunks;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public Status status() {
+            return status;
+        }
+
+        public Progress progress() {
+            return new Progress(id, status, files, totalChunks, completedChunks.get(), cachedChunks.get(),
+                    reduceCalls.get(), result, error);
+        }
+
+        /**
+         * 先发出当前进度，之后每完成一次调用发出一次，任务结束时发出最终状态后完成。
+         */
+        public Flux<Progress> events() {
+            return events.asFlux();
+        }
+
+        // 多个 map 调用可能在不同线程同时完成，发射需串行
+        private synchronized void publish() {
+            events.tryEmitNext(progress());
+        }
+
+        private synchronized boolean finish(Status status, String result, String error, long now) {
+            if (this.status != Status.RUNNING) return false;
+            this.result = result;
+            this.error = error;
+            this.finishedAt = now;
+            this.status = status;
+            events.tryEmitNext(progress());
+            events.tryEmitComplete();
+            return true;
+        }
+    }
+
+    private final DocumentJobProperties config;
+    private final PromptBuilder promptBuilder;
+    private final AiProviderRouter router;
+    private final AiResponseCache responseCache;
+    private final UpstreamScheduler scheduler;
+    private final RequestLogWriter logWriter;
+    private final AiMetrics metrics;
+    private final Clock clock;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DocumentJobService(DocumentJobProperties config,
+                              PromptBuilder promptBuilder,
+                              AiProviderRouter router,
+                              AiResponseCache responseCache,
+                              UpstreamScheduler scheduler,
+                              RequestLogWriter logWriter,
+                              AiMetrics metrics) {
+        this(config, promptBuilder, router, responseCache, scheduler, logWriter, metrics, Clock.systemDefaultZone());
+    }
+
+    DocumentJobService(DocumentJobProperties config,
+                       PromptBuilder promptBuilder,
+                       AiProviderRouter router,
+                       AiResponseCache responseCache,
+                       UpstreamScheduler scheduler,
+                       RequestLogWriter logWriter,
+                       AiMetrics metrics,
+                       Clock clock) {
+        this.config = config;
+        this.promptBuilder = promptBuilder;
+        this.router = router;
+        this.responseCache = responseCache;
+        this.scheduler = scheduler;
+        this.logWriter = logWriter;
+        this.metrics = metrics;
+        this.clock = clock;
+    }
+
+    /**
+     * 校验输入并切块。没有文件、文件过多或总字符数超限时抛出 IllegalArgumentException，
+     * 没有可用的大模型端点时抛出 NoProviderException。
+     */
+    public Plan plan(List<SourceFile> files) {
+        if (!router.hasProviders()) {
+            throw new NoProviderException();
+        }
+        if (files == null || files.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个文件");
+        }
+        if (files.size() > config.getMaxFiles()) {
+            throw new IllegalArgumentException("文件数超过上限 " + config.getMaxFiles());
+        }
+        long chars = files.stream().mapToLong(file -> file.content() == null ? 0 : file.content().length()).sum();
+        if (chars > config.getMaxChars()) {
+            throw new IllegalArgumentException("内容总长度超过上限 " + config.getMaxChars() + " 字符");
+        }
+        List<DocumentChunker.Chunk> chunks = new ArrayList<>();
+        int tokens = 0;
+        for (SourceFile file : files) {
+            if (file.path() == null || file.path().isBlank() || file.content() == null) {
+                throw new IllegalArgumentException("文件路径与内容不能为空");
+            }
+            SourceLanguage language = SourceLanguage.detect(file.path(), file.editorLanguage());
+            chunks.addAll(DocumentChunker.split(file.path(), file.content(), language, config.getChunkTokens()));
+            tokens += TokenEstimator.estimate(file.content());
+        }
+        if (chunks.isEmpty()) {
+            throw new IllegalArgumentException("文件内容为空");
+        }
+        return new Plan(chunks, files.size(), tokens);
+    }
+
+    public boolean canStart(String username) {
+        return jobs.values().stream()
+                .filter(job -> job.status == Status.RUNNING && job.username.equals(username))
+                .count() < config.getMaxActivePerUser();
+    }
+
+    /**
+     * 启动任务并立即返回；上游调用经 {@link UpstreamScheduler} 排队，与普通请求共享每用户并发上限。
+     */
+    public Job start(String username, UserRole role, Plan plan, String language, String framework) {
+        Job job = new Job(UUID.randomUUID().toString(), username, plan.files, plan.chunks.size());
+        jobs.put(job.id, job);
+        saveLog(username, plan);
+        log.info("分块文档任务开始，jobId={}, files={}, chunks={}, sourceTokens={}", job.id, plan.files,
+                plan.chunks.size(), plan.sourceTokens);
+
+        boolean whole = plan.chunks.size() == 1;
+        List<String> paths = plan.chunks.stream().map(DocumentChunker.Chunk::path).toList();
+        job.pipeline = Flux.fromIterable(plan.chunks)
+                .flatMapSequential(chunk -> map(job, role, chunk, whole, language, framework),
+                        Math.max(1, config.getMapConcurrency()))
+                .collectList()
+                .flatMap(partials -> whole
+                        ? Mono.just(partials.get(0))
+                        : reduce(job, role, paths, partials, plan.files > 1, language))
+                .subscribe(
+                        result -> finish(job, Status.SUCCEEDED, result, null),
+                        ex -> {
+                            log.warn("分块文档任务失败，jobId={}: {}", job.id, ex.toString());
+                            finish(job, Status.FAILED, null, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+                        });
+        return job;
+    }
+
+    /**
+     * 任务不存在、已过期或不属于该用户时返回 null。
+     */
+    public Job get(String username, String id) {
+        Job job = id == null ? null : jobs.get(id);
+        return job != null && job.username.equals(username) ? job : null;
+    }
+
+    /**
+     * 取消运行中的任务：排队中的调用直接出队，进行中的上游请求被取消。任务不存在时返回 false。
+     */
+    public boolean cancel(String username, String id) {
+        Job job = get(username, id);
+        if (job == null) return false;
+        if (job.finish(Status.CANCELLED, null, "任务已取消", clock.millis())) {
+            Disposable pipeline = job.pipeline;
+            if (pipeline != null) pipeline.dispose();
+        }
+        return true;
+    }
+
+    public int activeJobs() {
+        return (int) jobs.values().stream().filter(job -> job.status == Status.RUNNING).count();
+    }
+
+    @Scheduled(fixedDelayString = "${ai.document-jobs.evict-interval-ms:60000}",
+            initialDelayString = "${ai.document-jobs.evict-interval-ms:60000}")
+    public void evictFinished() {
+        long cutoff = clock.millis() - config.getTtlMs();
+        jobs.values().removeIf(job -> job.status != Status.RUNNING && job.finishedAt < cutoff);
+    }
+
+    private Mono<String> map(Job job, UserRole role, DocumentChunker.Chunk chunk, boolean whole,
+                             String language, String framework) {
+        PromptBuilder.Prompt prompt = promptBuilder.chunk(chunk.path(), framework, language, chunk.text(), whole);
+        return call(job, role, "document-chunk", prompt, language)
+                .doOnNext(content -> {
+                    job.completedChunks.incrementAndGet();
+                    job.publish();
+                });
+    }
+
+    // 合并输入未超出上限（或只剩两份）时一次合并完成，否则相邻的局部文档按上限分组（每组至少两份）先各自合并
+    private Mono<String> reduce(Job job, UserRole role, List<String> paths, List<String> partials,
+                                boolean project, String language) {
+        PromptBuilder.Prompt prompt = promptBuilder.reduce(paths, partials, project, true, language);
+        if (partials.size() <= 2 || prompt.tokensAfter() <= config.getReduceTokens()) {
+            return countReduce(job, call(job, role, "document-reduce", prompt, language));
+        }
+        List<List<Integer>> groups = group(partials);
+        List<String> groupPaths = groups.stream()
+                .map(group -> String.join(", ", group.stream().map(paths::get)
+                        .collect(Collectors.toCollection(LinkedHashSet::new))))
+                .toList();
+        return Flux.fromIterable(groups)
+                .flatMapSequential(group -> {
+                    PromptBuilder.Prompt partial = promptBuilder.reduce(
+                            group.stream().map(paths::get).toList(),
+                            group.stream().map(partials::get).toList(), project, false, language);
+                    return countReduce(job, call(job, role, "document-reduce", partial, language));
+                }, Math.max(1, config.getMapConcurrency()))
+                .collectList()
+                .flatMap(merged -> reduce(job, role, groupPaths, merged, project, language));
+    }
+
+    private List<List<Integer>> group(List<String> partials) {
+        List<List<Integer>> groups = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        int tokens = 0;
+        for (int i = 0; i < partials.size(); i++) {
+            int size = TokenEstimator.estimate(partials.get(i));
+            if (current.size() >= 2 && tokens + size > config.getReduceTokens()) {
+                groups.add(current);
+                current = new ArrayList<>();
+                tokens = 0;
+            }
+            current.add(i);
+            tokens += size;
+        }
+        // 最后一组只有一份时并入上一组，保证每层都在收缩
+        if (current.size() == 1 && !groups.isEmpty()) {
+            groups.get(groups.size() - 1).addAll(current);
+        } else {
+            groups.add(current);
+        }
+        return groups;
+    }
+
+    private static Mono<String> countReduce(Job job, Mono<String> call) {
+        return call.doOnNext(content -> {
+            job.reduceCalls.incrementAndGet();
+            job.publish();
+        });
+    }
+
+    // 先查缓存，未命中时经调度器调用上游并回写；空响应按空文本处理，保证结果与输入一一对应
+    private Mono<String> call(Job job, UserRole role, String cacheType, PromptBuilder.Prompt prompt, String language) {
+        String key = responseCache.key(cacheType, language, prompt.system(), prompt.user(), router.routeKey(ROUTE_TYPE));
+        Mono<String> upstream = scheduler.schedule(job.username, role,
+                        () -> metrics.trackUpstream(ROUTE_TYPE, router.complete(ROUTE_TYPE, prompt.system(), prompt.user())))
+                .doOnNext(content -> responseCache.put(key, content));
+        return responseCache.get(key)
+                .doOnNext(hit -> {
+                    if ("document-chunk".equals(cacheType)) job.cachedChunks.incrementAndGet();
+                })
+                .switchIfEmpty(upstream)
+                .defaultIfEmpty("");
+    }
+
+    private void finish(Job job, Status status, String result, String error) {
+        if (job.finish(status, result, error, clock.millis())) {
+            log.info("分块文档任务结束，jobId={}, status={}, chunks={}, cached={}, reduceCalls={}", job.id, status,
+                    job.totalChunks, job.cachedChunks.get(), job.reduceCalls.get());
+        }
+    }
+
+    private void saveLog(String username, Plan plan) {
+        try {
+            DocumentChunker.Chunk first = plan.chunks.get(0);
+            RequestLog log = new RequestLog();
+            log.setRequestType("document");
+            log.setFileName(plan.files == 1 ? first.path() : plan.files + " files");
+            log.setUsername(username);
+            log.setPromptSnippet(logWriter.snippetOf(first.text(), null));
+            log.setPromptTokensRaw(plan.sourceTokens);
+            // 与扣减的配额一致，重启后的配额预热与用量汇总据此按 chunk 数计
+            log.setUnits(plan.chunkCount());
+            logWriter.submit(log);
+        } catch (Exception e) {
+            log.warn("日志记录失败: {}", e.getMessage());
+        }
+    }
+}
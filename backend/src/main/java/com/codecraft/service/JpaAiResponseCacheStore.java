@@ -0,0 +1,59 @@
+package com.codecraft.service;
+
+import com.codecraft.entity.AiResponseCacheEntry;
+import com.codecraft.repository.AiResponseCacheRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Service
+@Slf4j
+@ConditionalOnProperty(prefix = "ai.cache.persistent", name = "enabled", havingValue = "true")
+public class JpaAiResponseCacheStore implements AiResponseCacheStore {
+
+    private final AiResponseCacheRepository repository;
+
+    public JpaAiResponseCacheStore(AiResponseCacheRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public Optional<String> load(String key) {
+        return repository.findById(key)
+                .filter(entry -> entry.getExpiresAt() == null || entry.getExpiresAt().isAfter(LocalDateTime.now()))
+                .map(AiResponseCacheEntry::getResponse);
+    }
+
+    @Override
+    public void save(String key, String response, LocalDateTime expiresAt) {
+        try {
+            AiResponseCacheEntry entry = new AiResponseCacheEntry();
+            entry.setCacheKey(key);
+            entry.setResponse(response);
+            entry.setExpiresAt(expiresAt);
+            repository.save(entry);
+        } catch (Exception e) {
+            log.warn("持久化缓存写入失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 读取时只是跳过过期条目，需定期删除，避免表无限增长。
+     */
+    @Scheduled(fixedDelayString = "${ai.cache.persistent.purge-interval-ms:600000}",
+            initialDelayString = "${ai.cache.persistent.purge-interval-ms:600000}")
+    public void purgeExpired() {
+        try {
+            int deleted = repository.deleteExpired(LocalDateTime.now());
+            if (deleted > 0) {
+                log.info("清理过期的持久化缓存 {} 条", deleted);
+            }
+        } catch (Exception e) {
+            log.warn("清理持久化缓存失败: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.codecraft.service;
+
+import java.util.Arrays;
+
+/**
+ * 最近 N 次调用延迟的环形缓冲，用于计算分位数。
+ */
+class LatencyWindow {
+
+    private final long[] samples;
+    private int size;
+    private int index;
+
+    LatencyWindow(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    synchronized void record(long latencyMs) {
+        samples[index] = latencyMs;
+        index = (index + 1) % samples.length;
+        if (size < samples.length) size++;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 没有样本时返回 -1。
+     */
+    synchronized long percentile(double p) {
+        if (size == 0) return -1;
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, rank))];
+    }
+}
@@ -0,0 +1,13 @@
+package com.codecraft.service;
+
+/**
+ * 没有可用的大模型端点（未配置，或配置的端点全部停用），调用无法执行（对应 HTTP 503）。
+ */
+public class NoProviderException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public NoProviderException() {
+        super("没有可用的大模型端点，请设置 DEEPSEEK_API_KEY，或在 ai.providers.endpoints 中配置并启用至少一个端点。");
+    }
+}
@@ -0,0 +1,176 @@
+package com.codecraft.service;
+
+import com.codecraft.config.AiProviderProperties;
+import com.codecraft.config.UpstreamHttpProperties;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClientRequest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * OpenAI 兼容的 chat/completions 端点（DeepSeek、自建的 vLLM/Ollama 等）。
+ */
+@Slf4j
+public class OpenAiCompatibleProvider implements AiProvider {
+
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE =
+            new ParameterizedTypeReference<>() {};
+    private static final String STREAM_DONE = "[DONE]";
+
+    private final AiProviderProperties.Endpoint endpoint;
+    private final WebClient webClient;
+    private final ObjectMapper objectMapper;
+    private final Duration timeout;
+    private final Duration firstByteTimeout;
+    private final Duration streamTimeout;
+
+    public OpenAiCompatibleProvider(AiProviderProperties.Endpoint endpoint,
+                                    WebClient webClient,
+                                    ObjectMapper objectMapper,
+                                    UpstreamHttpProperties httpProperties) {
+        this.endpoint = endpoint;
+        this.webClient = webClient;
+        this.objectMapper = objectMapper;
+        this.timeout = Duration.ofMillis(endpoint.getTimeoutMs() > 0 ? endpoint.getTimeoutMs() : httpProperties.getTotalTimeoutMs());
+        this.firstByteTimeout = Duration.ofMillis(httpProperties.getFirstByteTimeoutMs());
+        this.streamTimeout = Duration.ofMillis(httpProperties.getStreamTotalTimeoutMs());
+    }
+
+    @Override
+    public String name() {
+        return endpoint.getName();
+    }
+
+    @Override
+    public String model() {
+        return endpoint.getModel();
+    }
+
+    @Override
+    public Mono<String> complete(String systemPrompt, String userPrompt) {
+        // 非流式响应在生成完成后才返回首字节，读取超时放宽到整体超时
+        return request(buildRequestBody(systemPrompt, userPrompt, false), timeout)
+                .retrieve()
+                .onStatus(status -> status.isError(), this::toException)
+                .bodyToMono(Map.class)
+                .timeout(timeout)
+                .map(this::extractContent);
+    }
+
+    /**
+     * 上游以 stream=true 返回 SSE，每个 data 块解析出增量文本后立即下发。
+     */
+    @Override
+    public Flux<String> stream(String systemPrompt, String userPrompt) {
+        return request(buildRequestBody(systemPrompt, userPrompt, true), firstByteTimeout)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .retrieve()
+                .onStatus(status -> status.isError(), this::toException)
+                .bodyToFlux(SSE_TYPE)
+                .transform(flux -> withDeadline(flux, streamTimeout))
+                .mapNotNull(ServerSentEvent::data)
+                .takeWhile(data -> !STREAM_DONE.equals(data.trim()))
+                .map(this::extractDelta)
+                .filter(delta -> !delta.isEmpty());
+    }
+
+    // responseTimeout 为 netty 等待首字节及两次读取之间的最长间隔
+    private WebClient.RequestHeadersSpec<?> request(Map<String, Object> body, Duration responseTimeout) {
+        WebClient.RequestBodySpec spec = webClient.post()
+                .uri(endpoint.getUrl())
+                .contentType(MediaType.APPLICATION_JSON)
+                .httpRequest(request -> {
+                    if (request.getNativeRequest() instanceof HttpClientRequest nativeRequest) {
+                        nativeRequest.responseTimeout(responseTimeout);
+                    }
+                });
+        // 自建端点可能不需要密钥
+        if (endpoint.getApiKey() != null && !endpoint.getApiKey().isBlank()) {
+            spec = spec.header(HttpHeaders.AUTHORIZATION, "Bearer " + endpoint.getApiKey());
+        }
+        return spec.bodyValue(body);
+    }
+
+    private Mono<Throwable> toException(ClientResponse resp) {
+        long retryAfter = parseRetryAfter(resp.headers().asHttpHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        return resp.bodyToMono(String.class)
+                .defaultIfEmpty("")
+                .map(bodyStr -> new UpstreamHttpException(name(), resp.statusCode().value(), retryAfter, bodyStr));
+    }
+
+    // 只支持秒数形式的 Retry-After，HTTP 日期形式按未提供处理
+    static long parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) return -1;
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Map<String, Object> buildRequestBody(String systemPrompt, String userPrompt, boolean stream) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", endpoint.getModel());
+        body.put("temperature", endpoint.getTemperature());
+        body.put("messages", List.of(
+                Map.of("role", "system", "content", systemPrompt),
+                Map.of("role", "user", "content", userPrompt)
+        ));
+        if (stream) {
+            body.put("stream", true);
+        }
+        return body;
+    }
+
+    // 整个流的截止时间：每个元素的超时都设为距离截止时间的剩余时长，超时以 TimeoutException 结束
+    private static <T> Flux<T> withDeadline(Flux<T> flux, Duration total) {
+        return Flux.defer(() -> {
+            long deadline = System.nanoTime() + total.toNanos();
+            Supplier<Mono<Long>> remaining = () -> Mono.delay(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+            return flux.timeout(remaining.get(), item -> remaining.get());
+        });
+    }
+
+    // 解析非流式响应：{"choices":[{"message":{"content":"..."}}]}，失败时抛出异常以免被缓存
+    private String extractContent(Map<?, ?> resp) {
+        Object content;
+        try {
+            List<?> choices = (List<?>) resp.get("choices");
+            if (choices == null || choices.isEmpty()) throw new UpstreamResponseException("AI 无响应");
+            Map<?, ?> first = (Map<?, ?>) choices.get(0);
+            Map<?, ?> message = (Map<?, ?>) first.get("message");
+            content = message.get("content");
+        } catch (UpstreamResponseException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new UpstreamResponseException("解析错误: " + e.getMessage(), e);
+        }
+        if (content == null) throw new UpstreamResponseException("AI 无响应");
+        return (String) content;
+    }
+
+    // 解析单个流式块：{"choices":[{"delta":{"content":"..."}}]}
+    private String extractDelta(String data) {
+        try {
+            JsonNode content = objectMapper.readTree(data).path("choices").path(0).path("delta").path("content");
+            return content.isTextual() ? content.asText() : "";
+        } catch (Exception e) {
+            log.warn("流式块解析失败: {}", e.getMessage());
+            return "";
+        }
+    }
+}
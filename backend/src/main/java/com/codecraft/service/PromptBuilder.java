@@ -0,0 +1,248 @@
+package com.codecraft.service;
+
+import com.codecraft.config.PromptProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 构建发给大模型的系统提示与用户提示。估算的 token 数超过该类型的预算时，依次压缩：
+ * 上下文去注释与空行、允许时代码去注释、上下文只保留签名、允许时代码只保留签名、最后按预算截断。
+ * 与 code 重复的上下文属于无损去重，总是执行。
+ */
+@Component
+@Slf4j
+public class PromptBuilder {
+
+    /**
+     * tokensBefore / tokensAfter 为压缩前后的估算 token 数（系统提示 + 用户提示），reductions 为实际执行的压缩步骤。
+     */
+    public record Prompt(String system, String user, int tokensBefore, int tokensAfter, List<String> reductions) {
+    }
+
+    private static final String DEDUPED_CODE = "[Selected code omitted, see Code Content above]";
+
+    private final PromptProperties properties;
+
+    public PromptBuilder(PromptProperties properties) {
+        this.properties = properties;
+    }
+
+    public Prompt build(AiCallRequest request) {
+        String type = request.getType();
+        String system = getSystemPrompt(type, getLanguageHint(request.getLanguage()));
+        String code = request.getCode();
+        String context = "document".equals(type) || "test".equals(type) ? request.getContext() : null;
+        int systemTokens = TokenEstimator.estimate(system);
+        int before = systemTokens + TokenEstimator.estimate(render(request, code, context));
+        if (!properties.isEnabled()) {
+            return new Prompt(system, render(request, code, context), before, before, List.of());
+        }
+
+        List<String> reductions = new ArrayList<>();
+        String deduped = dedupe(context, code);
+        if (deduped != context) {
+            context = deduped;
+            reductions.add("dedupe");
+        }
+        int budget = properties.budgetFor(type);
+        boolean reduceCode = code != null && properties.getReducibleCode().contains(type);
+        SourceLanguage language = SourceLanguage.detect(request.getFileName(), request.getEditorLanguage());
+
+        if (context != null && over(budget, systemTokens, request, code, context)) {
+            context = SourceCompressor.stripComments(context, language);
+            reductions.add("context-comments");
+        }
+        if (reduceCode && over(budget, systemTokens, request, code, context)) {
+            code = SourceCompressor.stripComments(code, language);
+            reductions.add("code-comments");
+        }
+        if (context != null && over(budget, systemTokens, request, code, context)) {
+            context = SourceCompressor.outline(context, language);
+            reductions.add("context-outline");
+        }
+        if (reduceCode && over(budget, systemTokens, request, code, context)) {
+            code = SourceCompressor.outline(code, language);
+            reductions.add("code-outline");
+        }
+        if (context != null && over(budget, systemTokens, request, code, context)) {
+            int rest = systemTokens + TokenEstimator.estimate(render(request, code, ""));
+            context = SourceCompressor.truncate(context, Math.max(0, budget - rest));
+            reductions.add("context-truncate");
+        }
+        if (reduceCode && over(budget, systemTokens, request, code, context)) {
+            int rest = systemTokens + TokenEstimator.estimate(render(request, "", context));
+            code = SourceCompressor.truncate(code, Math.max(0, budget - rest));
+            reductions.add("code-truncate");
+        }
+
+        String user = render(request, code, context);
+        int after = systemTokens + TokenEstimator.estimate(user);
+        if (after > budget) {
+            log.debug("Prompt 压缩后仍超出预算，type={}, tokens={}, budget={}", type, after, budget);
+        }
+        return new Prompt(system, user, before, after, reductions);
+    }
+
+    /**
+     * 分块文档任务中单个 chunk 的提示。只包含路径与代码，不含行号与序号，未改动的 chunk 重跑时得到相同的缓存键；
+     * whole 为 true 表示整个任务只有这一块，直接生成最终文档。
+     */
+    public Prompt chunk(String path, String framework, String language, String code, boolean whole) {
+        String langHint = getLanguageHint(language);
+        String system = whole ? getSystemPrompt("document", langHint) : """
+                你是技术文档工程师，正在为一个较大的文件或项目分段生成文档，当前只看到其中一段代码。
+                请为这一段输出简洁的 Markdown 要点：
+                - 其中的类、函数或接口及其职责
+                - 关键参数、返回值与调用关系
+                - 值得注意的风险或约束
+                不要写总体概述，不要推测未给出的代码，这些要点稍后会与其它段合并。控制在 200 字以内。
+                """ + langHint;
+        StringBuilder user = new StringBuilder();
+        user.append("File Path: ").append(path).append("\n");
+        if (framework != null && !framework.isBlank()) {
+            user.append("Framework/Stack: ").append(framework).append("\n");
+        }
+        user.append("\nCode Content:\n").append(code);
+        return measured(system, user.toString());
+    }
+
+    /**
+     * 合并若干局部文档。finalStep 为 false 时是分层合并的中间一层，只压缩要点；project 表示输入来自多个文件。
+     */
+    public Prompt reduce(List<String> paths, List<String> partials, boolean project, boolean finalStep, String language) {
+        String langHint = getLanguageHint(language);
+        String system;
+        if (!finalStep) {
+            system = """
+                    你是技术文档工程师。下面是同一批代码各部分的局部文档要点，请合并为一份更精简的要点列表，
+                    保留所有公开接口、关键流程与风险，去掉重复内容，不要写总体概述。
+                    """ + langHint;
+        } else if (project) {
+            system = """
+                    你是技术文档工程师。下面是一个项目中各文件的局部文档要点，请合并为一份项目级 Markdown 文档：
+                    - 项目整体功能与模块划分
+                    - 每个文件/模块的职责与主要公开接口
+                    - 模块之间的调用关系与关键流程
+                    - 潜在风险或使用注意事项
+                    结构化小标题，去掉重复内容，不要推测未提及的内容。
+                    """ + langHint;
+        } else {
+            system = """
+                    你是技术文档工程师。下面是同一个文件按顺序分段生成的局部文档要点，请合并为该文件的一份 Markdown 文档：
+                    - 该文件的功能/职责
+                    - 主要公开接口、函数或类，以及参数/返回值
+                    - 关键业务流程或调用关系（如有）
+                    - 潜在风险或使用注意事项
+                    结构化小标题，去掉重复内容，控制在 400 字以内。
+                    """ + langHint;
+        }
+        StringBuilder user = new StringBuilder("Partial Documents:\n");
+        for (int i = 0; i < partials.size(); i++) {
+            user.append("\n### ").append(paths.get(i)).append("\n").append(partials.get(i)).append("\n");
+        }
+        return measured(system, user.toString());
+    }
+
+    private static Prompt measured(String system, String user) {
+        int tokens = TokenEstimator.estimate(system) + TokenEstimator.estimate(user);
+        return new Prompt(system, user, tokens, tokens, List.of());
+    }
+
+    private static boolean over(int budget, int systemTokens, AiCallRequest request, String code, String context) {
+        return systemTokens + TokenEstimator.estimate(render(request, code, context)) > budget;
+    }
+
+    // 上下文与代码相同时整体去掉，包含代码时把重复的那一段换成说明（片段比说明还短时不替换）；未变化时返回原对象
+    private static String dedupe(String context, String code) {
+        if (context == null || code == null || code.isBlank()) return context;
+        String selected = code.strip();
+        if (context.strip().equals(selected)) return null;
+        if (TokenEstimator.estimate(selected) <= TokenEstimator.estimate(DEDUPED_CODE)) return context;
+        int at = context.indexOf(selected);
+        if (at < 0) return context;
+        return context.substring(0, at) + DEDUPED_CODE + context.substring(at + selected.length());
+    }
+
+    private static String render(AiCallRequest request, String code, String context) {
+        String type = request.getType();
+        String fileName = request.getFileName();
+        String filePath = request.getFilePath();
+        String framework = request.getFramework();
+        String editorLanguage = request.getEditorLanguage();
+        StringBuilder userPrompt = new StringBuilder();
+        userPrompt.append("File Name: ").append(fileName).append("\n");
+        if (filePath != null && !filePath.isBlank()) {
+            userPrompt.append("File Path: ").append(filePath).append("\n");
+        }
+        if (framework != null && !framework.isBlank()) {
+            userPrompt.append("Framework/Stack: ").append(framework).append("\n");
+        }
+        if (editorLanguage != null && !editorLanguage.isBlank()) {
+            userPrompt.append("Editor Language: ").append(editorLanguage).append("\n");
+        }
+        userPrompt.append("\nCode Content:\n").append(code);
+        if ("document".equals(type) && context != null) {
+            userPrompt.append("\n\nProject Context:\n").append(context);
+        }
+        if ("test".equals(type) && context != null) {
+            userPrompt.append("\n\nSource File Context For Tests:\n").append(context);
+        }
+        return userPrompt.toString();
+    }
+
+    private String getSystemPrompt(String type, String langHint) {
+        return switch (type) {
+            case "comment" -> """
+                    你是高级代码审查与注释助手。
+                    仅处理用户选中的代码片段，并在其中添加简洁、精准的行内注释或 JavaDoc。
+                    保持原有代码结构与缩进，只返回修改后的代码片段本身，不要添加 ``` 包裹、不要扩写未选中的代码。
+                    注释语言遵循用户要求，点到即止，避免冗长。
+                    """ + langHint;
+            case "explain" -> """
+                    你是资深工程师，解释用户选中的代码片段。
+                    输出 100-150 字，Markdown 格式，需包含：
+                    - 功能/意图
+                    - 关键逻辑与输入/输出
+                    - 潜在风险或边界
+                    只基于提供的片段，不要推测未给出的上下文。
+                    """ + langHint;
+            case "document" -> """
+                    你是技术文档工程师，需要为“单个文件”生成简洁 Markdown 文档。
+                    基于提供的文件内容，总结：
+                    - 该文件的功能/职责
+                    - 主要公开接口、函数或类，以及参数/返回值
+                    - 关键业务流程或调用关系（如有）
+                    - 潜在风险或使用注意事项
+                    产出限制在 150-250 字，结构化小标题。
+                    """ + langHint;
+            case "rewrite" -> """
+                    你是代码重写与修复助手。
+                    基于用户提供的片段，返回改进后的完整代码片段。
+                    要求：
+                    - 保留原始接口/方法签名与必要的导入。
+                    - 强调可读性与健壮性，修正潜在 bug。
+                    - 输出以 diff 风格呈现，前缀 -/+ 表示删除/新增，未变更行保留原内容前缀空格。
+                    - 不要添加 ``` 包裹。
+                    """ + langHint;
+            case "test" -> """
+                    你是测试生成助手。
+                    根据提供的源文件内容，给出 3-6 个针对性的测试案例草稿，包含：
+                    - 用例名称/描述
+                    - 输入与期望输出/断言
+                    - 覆盖的边界情况
+                    生成 JUnit5 或对应语言常用测试伪代码，避免依赖具体项目工具。
+                    """ + langHint;
+            default -> "你是专业的代码助手。" + langHint;
+        };
+    }
+
+    private String getLanguageHint(String language) {
+        if ("en".equalsIgnoreCase(language)) {
+            return "\nPlease respond in English.";
+        }
+        return "\n请使用中文输出。";
+    }
+}
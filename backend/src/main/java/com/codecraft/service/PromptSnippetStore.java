@@ -0,0 +1,208 @@
+package com.codecraft.service;
+
+import com.codecraft.entity.RequestLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 维护 ai_prompt_snippets：日志中的代码片段按内容 SHA-256 去重、deflate 压缩后只存一份，日志行只保留 hash。
+ * 多个用户处理同一文件时片段大量重复，去重后日志表行更窄，写入与缓存压力都更小。
+ */
+@Service
+@Slf4j
+public class PromptSnippetStore {
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO ai_prompt_snippets (hash, content, char_count, created_at, last_seen_at) VALUES (?, ?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE last_seen_at = GREATEST(last_seen_at, VALUES(last_seen_at))";
+    private static final String DELETE_UNUSED_SQL = "DELETE FROM ai_prompt_snippets WHERE last_seen_at < ?";
+    private static final String LEGACY_COLUMN = "prompt_snippet";
+    private static final int LEGACY_BATCH = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public PromptSnippetStore(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * 为一批日志写入片段并回填 snippetHash。应与日志插入处于同一事务，保证日志引用的片段一定存在。
+     */
+    public void storeBatch(List<RequestLog> batch) {
+        Map<String, Snippet> snippets = new LinkedHashMap<>();
+        for (RequestLog item : batch) {
+            if (item.getPromptSnippet() == null) continue;
+            String hash = hash(item.getPromptSnippet());
+            item.setSnippetHash(hash);
+            snippets.merge(hash, new Snippet(item.getPromptSnippet(), item.getCreatedAt()),
+                    (a, b) -> b.seenAt().isAfter(a.seenAt()) ? b : a);
+        }
+        upsert(snippets);
+    }
+
+    /**
+     * 按 hash 读取并解压片段，不存在的 hash 不出现在结果中。
+     */
+    public Map<String, String> load(Collection<String> hashes) {
+        List<String> keys = hashes.stream().filter(hash -> hash != null).distinct().toList();
+        if (keys.isEmpty()) return Map.of();
+        Map<String, String> result = new HashMap<>();
+        String placeholders = String.join(",", Collections.nCopies(keys.size(), "?"));
+        jdbcTemplate.query("SELECT hash, content FROM ai_prompt_snippets WHERE hash IN (" + placeholders + ")",
+                rs -> {
+                    result.put(rs.getString(1), decompress(rs.getBytes(2)));
+                }, keys.toArray());
+        return result;
+    }
+
+    /**
+     * 删除最近引用时间早于 cutoff 的片段，引用它们的日志都已被清理。
+     */
+    public int deleteUnusedBefore(LocalDateTime cutoff) {
+        return jdbcTemplate.update(DELETE_UNUSED_SQL, Timestamp.valueOf(cutoff));
+    }
+
+    /**
+     * 旧版本把片段直接存在 ai_request_logs.prompt_snippet 中，启动时分批迁移到片段表并清空该列。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateLegacySnippets() {
+        try {
+            if (!hasLegacyColumn()) return;
+            long migrated = 0;
+            while (true) {
+                Integer rows = transactionTemplate.execute(status -> migrateLegacyBatch());
+                if (rows == null || rows == 0) break;
+                migrated += rows;
+            }
+            if (migrated > 0) {
+                log.info("已将 {} 条日志的代码片段迁移到 ai_prompt_snippets", migrated);
+            }
+        } catch (Exception e) {
+            log.warn("日志代码片段迁移失败: {}", e.getMessage());
+        }
+    }
+
+    static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    static byte[] compress(String text) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(text.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static String decompress(byte[] content) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(content);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("代码片段数据不完整");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("代码片段解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void upsert(Map<String, Snippet> snippets) {
+        if (snippets.isEmpty()) return;
+        List<Map.Entry<String, Snippet>> rows = new ArrayList<>(snippets.entrySet());
+        jdbcTemplate.batchUpdate(UPSERT_SQL, rows, rows.size(), (ps, row) -> {
+            Snippet snippet = row.getValue();
+            Timestamp seenAt = Timestamp.valueOf(snippet.seenAt());
+            ps.setString(1, row.getKey());
+            ps.setBytes(2, compress(snippet.text()));
+            ps.setInt(3, snippet.text().length());
+            ps.setTimestamp(4, seenAt);
+            ps.setTimestamp(5, seenAt);
+        });
+    }
+
+    private int migrateLegacyBatch() {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT id, prompt_snippet, created_at FROM ai_request_logs WHERE prompt_snippet IS NOT NULL ORDER BY id LIMIT ?",
+                LEGACY_BATCH);
+        if (rows.isEmpty()) return 0;
+        Map<String, Snippet> snippets = new LinkedHashMap<>();
+        List<Object[]> updates = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            String text = (String) row.get("prompt_snippet");
+            Timestamp createdAt = (Timestamp) row.get("created_at");
+            LocalDateTime seenAt = createdAt != null ? createdAt.toLocalDateTime() : LocalDateTime.now();
+            String hash = hash(text);
+            snippets.merge(hash, new Snippet(text, seenAt), (a, b) -> b.seenAt().isAfter(a.seenAt()) ? b : a);
+            updates.add(new Object[]{hash, row.get("id")});
+        }
+        upsert(snippets);
+        jdbcTemplate.batchUpdate("UPDATE ai_request_logs SET snippet_hash = ?, prompt_snippet = NULL WHERE id = ?", updates);
+        return rows.size();
+    }
+
+    private boolean hasLegacyColumn() {
+        Boolean exists = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            boolean upper = metaData.storesUpperCaseIdentifiers();
+            String table = upper ? "AI_REQUEST_LOGS" : "ai_request_logs";
+            String column = upper ? LEGACY_COLUMN.toUpperCase() : LEGACY_COLUMN;
+            try (ResultSet columns = metaData.getColumns(connection.getCatalog(), null, table, column)) {
+                return columns.next();
+            }
+        });
+        return Boolean.TRUE.equals(exists);
+    }
+
+    private record Snippet(String text, LocalDateTime seenAt) {
+    }
+}
@@ -0,0 +1,260 @@
+package com.codecraft.service;
+
+import com.codecraft.config.QuotaProperties;
+import com.codecraft.entity.UserRole;
+import com.codecraft.repository.RequestLogRepository;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存配额计数：按 用户+日期 / 用户+小时 分桶的原子计数器，准入判断不再查询数据库。
+ * 启动时从 ai_request_logs 预热，之后定期与数据库对账并清理过期分桶。
+ */
+@Service
+@Slf4j
+public class QuotaService {
+
+    private final RequestLogRepository requestLogRepository;
+    private final QuotaProperties properties;
+    private final AiMetrics metrics;
+    private final Clock clock;
+
+    private final Map<String, AtomicLong> dailyCounters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> hourlyCounters = new ConcurrentHashMap<>();
+    private final Map<String, Deque<Long>> burstWindows = new ConcurrentHashMap<>();
+
+    @Autowired
+    public QuotaService(RequestLogRepository requestLogRepository,
+                        QuotaProperties properties,
+                        AiMetrics metrics,
+                        @Value("${ai.daily-limit:100}") long dailyLimit) {
+        this(requestLogRepository, properties, metrics, dailyLimit, Clock.systemDefaultZone());
+    }
+
+    QuotaService(RequestLogRepository requestLogRepository, QuotaProperties properties, AiMetrics metrics,
+                 long dailyLimit, Clock clock) {
+        this.requestLogRepository = requestLogRepository;
+        this.properties = properties;
+        this.metrics = metrics;
+        this.clock = clock;
+        if (!properties.getLimits().containsKey(UserRole.USER)) {
+            QuotaProperties.Limits userLimits = new QuotaProperties.Limits();
+            userLimits.setDaily(dailyLimit);
+            properties.getLimits().put(UserRole.USER, userLimits);
+        }
+    }
+
+    /**
+     * 尝试占用 units 次配额，成功即计数；任一维度超限时回滚已占用的部分并拒绝。
+     * units 本身超过某一维度上限时无论何时重试都不会成功，返回不可重试的拒绝。
+     */
+    public QuotaDecision tryAcquire(String username, UserRole role, int units) {
+        Timer.Sample sample = metrics.start();
+        QuotaDecision decision = acquire(username, role, units);
+        metrics.stop(sample, "ai.quota.check", "outcome", decision.allowed() ? "allowed" : "rejected");
+        return decision;
+    }
+
+    private QuotaDecision acquire(String username, UserRole role, int units) {
+        QuotaProperties.Limits limits = limitsFor(role);
+        QuotaDecision tooLarge = checkSize(limits, units);
+        if (tooLarge != null) return tooLarge;
+        LocalDateTime now = LocalDateTime.now(clock);
+
+        AtomicLong daily = dailyCounters.computeIfAbsent(dayKey(username, now), k -> new AtomicLong());
+        if (!incrementIfWithin(daily, limits.getDaily(), units)) {
+            long retryAfter = ChronoUnit.SECONDS.between(now, now.toLocalDate().plusDays(1).atStartOfDay());
+            return QuotaDecision.rejected("今日调用次数已达上限", retryAfter);
+        }
+        AtomicLong hourly = hourlyCounters.computeIfAbsent(hourKey(username, now), k -> new AtomicLong());
+        if (!incrementIfWithin(hourly, limits.getHourly(), units)) {
+            daily.addAndGet(-units);
+            long retryAfter = ChronoUnit.SECONDS.between(now, now.truncatedTo(ChronoUnit.HOURS).plusHours(1));
+            return QuotaDecision.rejected("本小时调用次数已达上限", retryAfter);
+        }
+        long burstRetryAfter = acquireBurst(username, limits, units);
+        if (burstRetryAfter > 0) {
+            daily.addAndGet(-units);
+            hourly.addAndGet(-units);
+            return QuotaDecision.rejected("调用过于频繁，请稍后再试", burstRetryAfter);
+        }
+        return QuotaDecision.ALLOWED;
+    }
+
+    private static QuotaDecision checkSize(QuotaProperties.Limits limits, int units) {
+        if (exceeds(limits.getDaily(), units)) {
+            return QuotaDecision.exceedsLimit("单次请求计 " + units + " 次调用，超过每日上限 " + limits.getDaily() + " 次");
+        }
+        if (exceeds(limits.getHourly(), units)) {
+            return QuotaDecision.exceedsLimit("单次请求计 " + units + " 次调用，超过每小时上限 " + limits.getHourly() + " 次");
+        }
+        if (exceeds(limits.getBurst(), units)) {
+            return QuotaDecision.exceedsLimit("单次请求计 " + units + " 次调用，超过 " + limits.getBurstWindowSeconds()
+                    + " 秒内最多 " + limits.getBurst() + " 次的限制，请拆分后提交");
+        }
+        return null;
+    }
+
+    private static boolean exceeds(long limit, int units) {
+        return limit >= 0 && units > limit;
+    }
+
+    /**
+     * 归还刚占用的 units 次配额，用于占用成功后请求未能受理（如任务排队已满、保存失败）的情况；计数不会低于 0。
+     */
+    public void release(String username, int units) {
+        LocalDateTime now = LocalDateTime.now(clock);
+        decrement(dailyCounters.get(dayKey(username, now)), units);
+        decrement(hourlyCounters.get(hourKey(username, now)), units);
+        Deque<Long> window = burstWindows.get(username);
+        if (window != null) {
+            synchronized (window) {
+                for (int i = 0; i < units && !window.isEmpty(); i++) {
+                    window.pollLast();
+                }
+            }
+        }
+    }
+
+    public long usedToday(String username) {
+        AtomicLong counter = dailyCounters.get(dayKey(username, LocalDateTime.now(clock)));
+        return counter == null ? 0 : counter.get();
+    }
+
+    public long dailyLimit(UserRole role) {
+        return limitsFor(role).getDaily();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        reconcile();
+        log.info("配额计数器预热完成，今日活跃用户 {} 个", dailyCounters.size());
+    }
+
+    /**
+     * 与数据库对账：日志为异步写入，数据库计数可能滞后，因此只向上校正。
+     */
+    @Scheduled(fixedDelayString = "${ai.quota.reconcile-interval-ms:300000}",
+            initialDelayString = "${ai.quota.reconcile-interval-ms:300000}")
+    public void reconcile() {
+        LocalDateTime now = LocalDateTime.now(clock);
+        try {
+            for (Object[] row : requestLogRepository.sumUnitsByUsernameSince(now.toLocalDate().atStartOfDay())) {
+                raiseTo(dailyCounters, dayKey((String) row[0], now), ((Number) row[1]).longValue());
+            }
+            for (Object[] row : requestLogRepository.sumUnitsByUsernameSince(now.truncatedTo(ChronoUnit.HOURS))) {
+                raiseTo(hourlyCounters, hourKey((String) row[0], now), ((Number) row[1]).longValue());
+            }
+        } catch (Exception e) {
+            log.warn("配额对账失败: {}", e.getMessage());
+        }
+        // 清理非当前日期/小时的分桶
+        String daySuffix = "|" + now.toLocalDate();
+        String hourSuffix = "|" + now.truncatedTo(ChronoUnit.HOURS);
+        dailyCounters.keySet().removeIf(key -> !key.endsWith(daySuffix));
+        hourlyCounters.keySet().removeIf(key -> !key.endsWith(hourSuffix));
+        long windowStart = clock.millis() - maxBurstWindowMs();
+        burstWindows.values().removeIf(window -> {
+            synchronized (window) {
+                return window.isEmpty() || window.peekLast() < windowStart;
+            }
+        });
+    }
+
+    private QuotaProperties.Limits limitsFor(UserRole role) {
+        QuotaProperties.Limits limits = properties.getLimits().get(role);
+        return limits != null ? limits : new QuotaProperties.Limits();
+    }
+
+    private static boolean incrementIfWithin(AtomicLong counter, long limit, int units) {
+        while (true) {
+            long current = counter.get();
+            if (limit >= 0 && current + units > limit) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + units)) {
+                return true;
+            }
+        }
+    }
+
+    private static void decrement(AtomicLong counter, int units) {
+        if (counter != null) {
+            counter.accumulateAndGet(units, (current, delta) -> Math.max(0, current - delta));
+        }
+    }
+
+    // 返回 0 表示放行，否则为建议的重试秒数
+    private long acquireBurst(String username, QuotaProperties.Limits limits, int units) {
+        if (limits.getBurst() < 0) return 0;
+        long windowMs = limits.getBurstWindowSeconds() * 1000;
+        long now = clock.millis();
+        Deque<Long> window = burstWindows.computeIfAbsent(username, k -> new ArrayDeque<>());
+        synchronized (window) {
+            while (!window.isEmpty() && window.peekFirst() <= now - windowMs) {
+                window.pollFirst();
+            }
+            if (window.size() + units > limits.getBurst()) {
+                Long oldest = window.peekFirst();
+                return oldest == null ? 1 : Math.max(1, (oldest + windowMs - now + 999) / 1000);
+            }
+            for (int i = 0; i < units; i++) {
+                window.addLast(now);
+            }
+            return 0;
+        }
+    }
+
+    private long maxBurstWindowMs() {
+        return properties.getLimits().values().stream()
+                .mapToLong(QuotaProperties.Limits::getBurstWindowSeconds)
+                .max().orElse(60) * 1000;
+    }
+
+    private static void raiseTo(Map<String, AtomicLong> counters, String key, long value) {
+        counters.computeIfAbsent(key, k -> new AtomicLong()).accumulateAndGet(value, Math::max);
+    }
+
+    private static String dayKey(String username, LocalDateTime now) {
+        return username + "|" + now.toLocalDate();
+    }
+
+    private static String hourKey(String username, LocalDateTime now) {
+        return username + "|" + now.truncatedTo(ChronoUnit.HOURS);
+    }
+
+    /**
+     * 准入结果；拒绝时 retryAfterSeconds 为 0 表示请求本身超过上限，重试无效。
+     */
+    public record QuotaDecision(boolean allowed, String message, long retryAfterSeconds) {
+
+        static final QuotaDecision ALLOWED = new QuotaDecision(true, null, 0);
+
+        static QuotaDecision rejected(String message, long retryAfterSeconds) {
+            return new QuotaDecision(false, message, Math.max(1, retryAfterSeconds));
+        }
+
+        static QuotaDecision exceedsLimit(String message) {
+            return new QuotaDecision(false, message, 0);
+        }
+
+        public boolean retryable() {
+            return !allowed && retryAfterSeconds > 0;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.codecraft.service;
+
+import com.codecraft.config.LogStorageProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ai_request_logs 的分区维护与过期归档。
+ * 开启分区时（仅 MySQL）启动后把日志表转换为按月的 RANGE COLUMNS(created_at) 分区表，并提前创建未来月份的分区；
+ * 过期月份先归档为 gzip 压缩的 NDJSON 文件，再 DROP PARTITION。未分区时（包括 H2）归档后按批 DELETE。
+ * 归档文件先写临时文件、刷盘后再改名，删除数据时归档必然已完整落盘。归档中写入代码片段原文，
+ * 清理后不再被任何日志引用的片段随之删除。用量统计读 ai_usage_daily，不受清理影响。
+ */
+@Component
+@Slf4j
+public class RequestLogRetentionJob {
+
+    private static final String MAX_PARTITION = "pmax";
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+    private static final DateTimeFormatter BOUNDARY = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // 分区表第一个分区没有下界，归档时从该时间开始
+    private static final LocalDateTime EPOCH = LocalDate.of(1970, 1, 1).atStartOfDay();
+
+    private static final String SELECT_PAGE =
+            "SELECT id, request_type, file_name, username, snippet_hash, prompt_tokens_raw, prompt_tokens, units, created_at "
+                    + "FROM ai_request_logs WHERE created_at >= ? AND created_at < ? AND id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_IDS =
+            "SELECT id FROM ai_request_logs WHERE created_at >= ? AND created_at < ? AND id <= ? ORDER BY id LIMIT ?";
+    private static final String SELECT_PARTITIONS =
+            "SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS "
+                    + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'ai_request_logs' AND PARTITION_NAME IS NOT NULL "
+                    + "ORDER BY PARTITION_ORDINAL_POSITION";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final PromptSnippetStore snippetStore;
+    private final LogStorageProperties config;
+    private final Clock clock;
+    // 启动时的分区准备、定时任务与管理接口可能同时触发
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @Autowired
+    public RequestLogRetentionJob(JdbcTemplate jdbcTemplate,
+                                  ObjectMapper objectMapper,
+                                  PromptSnippetStore snippetStore,
+                                  LogStorageProperties config) {
+        this(jdbcTemplate, objectMapper, snippetStore, config, Clock.systemDefaultZone());
+    }
+
+    RequestLogRetentionJob(JdbcTemplate jdbcTemplate,
+                           ObjectMapper objectMapper,
+                           PromptSnippetStore snippetStore,
+                           LogStorageProperties config,
+                           Clock clock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.snippetStore = snippetStore;
+        this.config = config;
+        this.clock = clock;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void prepareOnStartup() {
+        try {
+            preparePartitions();
+        } catch (Exception e) {
+            log.warn("日志表分区准备失败: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(cron = "${ai.log.storage.cron:0 30 3 * * *}")
+    public void runScheduled() {
+        try {
+            preparePartitions();
+            RetentionResult result = archiveExpired();
+            if (result.getMonths() > 0) {
+                log.info("日志归档完成：{} 个月，{} 行，文件 {}", result.getMonths(), result.getRows(), result.getFiles());
+            }
+        } catch (Exception e) {
+            log.warn("日志归档失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 开启分区且数据库为 MySQL 时：未分区的表先转换（按已有数据的最早月份起建分区），再补齐到未来 partitions-ahead 个月。
+     */
+    public void preparePartitions() {
+        if (!config.isPartitioned() || !isMySql()) return;
+        lock.lock();
+        try {
+            List<Partition> partitions = partitions();
+            if (partitions.isEmpty()) {
+                convertToPartitioned();
+                partitions = partitions();
+            }
+            addFuturePartitions(partitions);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归档并删除保留期之前的日志：保留最近 retention-months 个自然月（含当月）。
+     */
+    public RetentionResult archiveExpired() {
+        if (config.getRetentionMonths() <= 0) return new RetentionResult();
+        return archiveBefore(YearMonth.now(clock).minusMonths(config.getRetentionMonths() - 1L));
+    }
+
+    /**
+     * 归档并删除 cutoff 月份之前的全部日志。
+     */
+    public RetentionResult archiveBefore(YearMonth cutoff) {
+        lock.lock();
+        try {
+            RetentionResult result = new RetentionResult();
+            LocalDateTime cutoffTime = cutoff.atDay(1).atStartOfDay();
+            List<Partition> partitions = isMySql() ? partitions() : List.of();
+            if (!partitions.isEmpty()) {
+                LocalDateTime lower = EPOCH;
+                for (Partition partition : partitions) {
+                    if (partition.upper() == null || partition.upper().isAfter(cutoffTime)) break;
+                    Archive archive = archive(YearMonth.from(partition.upper().minusMonths(1)), lower, partition.upper());
+                    jdbcTemplate.execute("ALTER TABLE ai_request_logs DROP PARTITION " + partition.name());
+                    result.add(archive);
+                    lower = partition.upper();
+                }
+                deleteUnusedSnippets(result, cutoffTime);
+                return result;
+            }
+            Timestamp earliest = jdbcTemplate.queryForObject("SELECT MIN(created_at) FROM ai_request_logs", Timestamp.class);
+            if (earliest == null) return result;
+            for (YearMonth month = YearMonth.from(earliest.toLocalDateTime()); month.isBefore(cutoff); month = month.plusMonths(1)) {
+                LocalDateTime from = month.atDay(1).atStartOfDay();
+                LocalDateTime to = month.plusMonths(1).atDay(1).atStartOfDay();
+                Archive archive = archive(month, from, to);
+                if (archive.rows() > 0) {
+                    deleteArchived(from, to, archive.maxId());
+                    result.add(archive);
+                }
+            }
+            deleteUnusedSnippets(result, cutoffTime);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 把 [from, to) 的日志按 id 分页写入归档文件；没有数据时不产生文件
+    private Archive archive(YearMonth month, LocalDateTime from, LocalDateTime to) {
+        try {
+            Path dir = Path.of(config.getArchiveDir());
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, "ai_request_logs-" + month, ".tmp");
+            long rows = 0;
+            long lastId = 0;
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8))) {
+                while (true) {
+                    List<Map<String, Object>> page = jdbcTemplate.queryForList(SELECT_PAGE,
+                            Timestamp.valueOf(from), Timestamp.valueOf(to), lastId, config.getBatchSize());
+                    Map<String, String> snippets = snippetStore.load(
+                            page.stream().map(row -> (String) row.get("snippet_hash")).toList());
+                    for (Map<String, Object> row : page) {
+                        Map<String, Object> record = toRecord(row);
+                        record.put("prompt_snippet", snippets.get((String) row.get("snippet_hash")));
+                        writer.write(objectMapper.writeValueAsString(record));
+                        writer.newLine();
+                        lastId = ((Number) row.get("id")).longValue();
+                    }
+                    rows += page.size();
+                    if (page.size() < config.getBatchSize()) break;
+                }
+            }
+            if (rows == 0) {
+                Files.delete(tmp);
+                return new Archive(null, 0, 0);
+            }
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Path target = archivePath(dir, month);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            return new Archive(target.toString(), rows, lastId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("日志归档写入失败: " + month, e);
+        }
+    }
+
+    // 同一月份已有归档（上次删除中途失败后重跑）时追加序号，不覆盖
+    private static Path archivePath(Path dir, YearMonth month) {
+        Path path = dir.resolve("ai_request_logs-" + month + ".ndjson.gz");
+        for (int i = 1; Files.exists(path); i++) {
+            path = dir.resolve("ai_request_logs-" + month + "." + i + ".ndjson.gz");
+        }
+        return path;
+    }
+
+    private static Map<String, Object> toRecord(Map<String, Object> row) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> column : row.entrySet()) {
+            Object value = column.getValue();
+            if (value instanceof Timestamp ts) value = ts.toLocalDateTime().toString();
+            record.put(column.getKey().toLowerCase(), value);
+        }
+        return record;
+    }
+
+    private void deleteUnusedSnippets(RetentionResult result, LocalDateTime cutoff) {
+        if (result.getMonths() == 0) return;
+        result.setSnippets(snippetStore.deleteUnusedBefore(cutoff));
+    }
+
+    private void deleteArchived(LocalDateTime from, LocalDateTime to, long maxId) {
+        while (true) {
+            List<Long> ids = jdbcTemplate.queryForList(SELECT_IDS, Long.class,
+                    Timestamp.valueOf(from), Timestamp.valueOf(to), maxId, config.getBatchSize());
+            if (ids.isEmpty()) return;
+            String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+            jdbcTemplate.update("DELETE FROM ai_request_logs WHERE id IN (" + placeholders + ")", ids.toArray());
+        }
+    }
+
+    private void convertToPartitioned() {
+        Timestamp earliest = jdbcTemplate.queryForObject("SELECT MIN(created_at) FROM ai_request_logs", Timestamp.class);
+        YearMonth first = earliest != null ? YearMonth.from(earliest.toLocalDateTime()) : YearMonth.now(clock);
+        List<String> definitions = new ArrayList<>();
+        for (YearMonth month = first; !month.isAfter(lastPartitionMonth()); month = month.plusMonths(1)) {
+            definitions.add(partitionDefinition(month));
+        }
+        definitions.add("PARTITION " + MAX_PARTITION + " VALUES LESS THAN (MAXVALUE)");
+        // 分区列必须包含在主键中且不能为空；没有时间的旧数据视为最早的日志
+        jdbcTemplate.update("UPDATE ai_request_logs SET created_at = ? WHERE created_at IS NULL", Timestamp.valueOf(EPOCH));
+        log.info("转换 ai_request_logs 为按月分区表，共 {} 个分区", definitions.size());
+        jdbcTemplate.execute("ALTER TABLE ai_request_logs MODIFY created_at DATETIME(6) NOT NULL, "
+                + "DROP PRIMARY KEY, ADD PRIMARY KEY (id, created_at) "
+                + "PARTITION BY RANGE COLUMNS(created_at) (" + String.join(", ", definitions) + ")");
+    }
+
+    // pmax 通常为空，REORGANIZE 只是改写分区定义，不搬数据
+    private void addFuturePartitions(List<Partition> partitions) {
+        LocalDateTime last = partitions.stream().map(Partition::upper).filter(upper -> upper != null)
+                .max(LocalDateTime::compareTo).orElse(null);
+        YearMonth next = last != null ? YearMonth.from(last) : YearMonth.now(clock);
+        List<String> definitions = new ArrayList<>();
+        for (YearMonth month = next; !month.isAfter(lastPartitionMonth()); month = month.plusMonths(1)) {
+            definitions.add(partitionDefinition(month));
+        }
+        if (definitions.isEmpty()) return;
+        boolean hasMax = partitions.stream().anyMatch(partition -> partition.upper() == null);
+        if (hasMax) {
+            definitions.add("PARTITION " + MAX_PARTITION + " VALUES LESS THAN (MAXVALUE)");
+            jdbcTemplate.execute("ALTER TABLE ai_request_logs REORGANIZE PARTITION " + MAX_PARTITION
+                    + " INTO (" + String.join(", ", definitions) + ")");
+        } else {
+            jdbcTemplate.execute("ALTER TABLE ai_request_logs ADD PARTITION (" + String.join(", ", definitions) + ")");
+        }
+        log.info("已为 ai_request_logs 新增 {} 个月份分区", hasMax ? definitions.size() - 1 : definitions.size());
+    }
+
+    private YearMonth lastPartitionMonth() {
+        return YearMonth.now(clock).plusMonths(config.getPartitionsAhead());
+    }
+
+    private static String partitionDefinition(YearMonth month) {
+        return "PARTITION " + PARTITION_NAME.format(month.atDay(1)) + " VALUES LESS THAN ('"
+                + BOUNDARY.format(month.plusMonths(1).atDay(1).atStartOfDay()) + "')";
+    }
+
+    private List<Partition> partitions() {
+        return jdbcTemplate.query(SELECT_PARTITIONS, (rs, i) -> {
+            String description = rs.getString(2);
+            LocalDateTime upper = description == null || "MAXVALUE".equalsIgnoreCase(description)
+                    ? null
+                    : Timestamp.valueOf(description.replace("'", "")).toLocalDateTime();
+            return new Partition(rs.getString(1), upper);
+        });
+    }
+
+    private boolean isMySql() {
+        String product = jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                connection.getMetaData().getDatabaseProductName());
+        return product != null && (product.contains("MySQL") || product.contains("MariaDB"));
+    }
+
+    // upper 为分区上界（不含），MAXVALUE 分区为 null
+    private record Partition(String name, LocalDateTime upper) {
+    }
+
+    private record Archive(String file, long rows, long maxId) {
+    }
+
+    @Data
+    public static class RetentionResult {
+        private int months;
+        private long rows;
+        // 随之删除的代码片段数
+        private int snippets;
+        private List<String> files = new ArrayList<>();
+
+        void add(Archive archive) {
+            months++;
+            rows += archive.rows();
+            if (archive.file() != null) files.add(archive.file());
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package com.codecraft.service;
+
+import com.codecraft.entity.RequestLog;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * 异步批量写入 ai_request_logs：请求线程只负责入队，后台线程按批量大小或刷新间隔执行 JDBC 批量插入，
+ * 并在同一事务内写入去重后的代码片段、累加 ai_usage_daily 汇总表。
+ * 队列满时按 overflow-policy 处理：DROP 丢弃，BLOCK 阻塞等待，SPILL 落盘到本地文件并在空闲时回放。
+ * 批量插入失败时逐条重试，因数据本身无法入库的日志写入死信文件，不再回放，避免一条坏数据拖累整批。
+ */
+@Service
+@Slf4j
+public class RequestLogWriter implements SmartLifecycle {
+
+    public enum OverflowPolicy {
+        DROP,
+        BLOCK,
+        SPILL
+    }
+
+    private static final String INSERT_SQL =
+            "INSERT INTO ai_request_logs (request_type, file_name, username, snippet_hash, prompt_tokens_raw, prompt_tokens, units, created_at) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // 与 ai_request_logs 列宽一致，超长的客户端输入在入队前截断
+    static final int MAX_REQUEST_TYPE_LENGTH = 50;
+    static final int MAX_FILE_NAME_LENGTH = 255;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final UsageRollupService usageRollup;
+    private final PromptSnippetStore snippetStore;
+    private final AiMetrics metrics;
+    private final ObjectMapper objectMapper;
+    private final BlockingQueue<RequestLog> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final OverflowPolicy overflowPolicy;
+    private final Path spillFile;
+    private final Path deadLetterFile;
+    private final int maxReplayAttempts;
+    private final long replayBackoffMs;
+    private final int snippetChars;
+    private final boolean snippetFullPrompt;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    // 落盘涉及文件 IO，用 ReentrantLock 而非 synchronized，避免在虚拟线程上阻塞时占住载体线程
+    private final ReentrantLock spillLock = new ReentrantLock();
+    // 后台线程在“取批-写入”周期内持有，flush() 借此等待手上的批次写完；公平锁避免 flush 饿死
+    private final ReentrantLock cycleLock = new ReentrantLock(true);
+
+    // 回放失败（数据库仍不可用）后，下次回放的最早时间
+    private long nextReplayAt;
+    private volatile boolean running;
+    private Thread worker;
+
+    public RequestLogWriter(JdbcTemplate jdbcTemplate,
+                            TransactionTemplate transactionTemplate,
+                            UsageRollupService usageRollup,
+                            PromptSnippetStore snippetStore,
+                            AiMetrics metrics,
+                            ObjectMapper objectMapper,
+                            @Value("${ai.log.queue-capacity:10000}") int queueCapacity,
+                            @Value("${ai.log.batch-size:200}") int batchSize,
+                            @Value("${ai.log.flush-interval-ms:1000}") long flushIntervalMs,
+                            @Value("${ai.log.overflow-policy:SPILL}") OverflowPolicy overflowPolicy,
+                            @Value("${ai.log.spill-file:logs/request-log-spill.jsonl}") String spillFile,
+                            @Value("${ai.log.dead-letter-file:logs/request-log-dead-letter.jsonl}") String deadLetterFile,
+                            @Value("${ai.log.max-replay-attempts:10}") int maxReplayAttempts,
+                            @Value("${ai.log.replay-backoff-ms:60000}") long replayBackoffMs,
+                            @Value("${ai.log.snippet-chars:500}") int snippetChars,
+                            @Value("${ai.log.snippet-full-prompt:false}") boolean snippetFullPrompt) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.usageRollup = usageRollup;
+        this.snippetStore = snippetStore;
+        this.metrics = metrics;
+        this.objectMapper = objectMapper;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.overflowPolicy = overflowPolicy;
+        this.spillFile = Path.of(spillFile);
+        this.deadLetterFile = Path.of(deadLetterFile);
+        this.maxReplayAttempts = maxReplayAttempts;
+        this.replayBackoffMs = replayBackoffMs;
+        this.snippetChars = snippetChars;
+        this.snippetFullPrompt = snippetFullPrompt;
+        MeterRegistry registry = metrics.registry();
+        Gauge.builder("ai.log.queue.size", queue, BlockingQueue::size).register(registry);
+        FunctionCounter.builder("ai.log.written", written, LongAdder::sum).register(registry);
+        FunctionCounter.builder("ai.log.dropped", dropped, LongAdder::sum).register(registry);
+        FunctionCounter.builder("ai.log.spilled", spilled, LongAdder::sum).register(registry);
+        FunctionCounter.builder("ai.log.dead.lettered", deadLettered, LongAdder::sum).register(registry);
+    }
+
+    /**
+     * 按配置截取日志中记录的代码片段：snippet-full-prompt 开启时记录发送给模型的完整 prompt（供审计），
+     * 否则记录代码的前 snippet-chars 个字符；snippet-chars 为 0 时不记录，为负数时不截断。
+     */
+    public String snippetOf(String code, PromptBuilder.Prompt prompt) {
+        if (snippetFullPrompt && prompt != null) {
+            return prompt.system() + "\n\n" + prompt.user();
+        }
+        if (code == null || snippetChars == 0) return null;
+        return snippetChars > 0 && code.length() > snippetChars ? code.substring(0, snippetChars) : code;
+    }
+
+    /**
+     * 提交一条日志，不等待落库。
+     */
+    public void submit(RequestLog requestLog) {
+        if (requestLog.getCreatedAt() == null) {
+            requestLog.setCreatedAt(LocalDateTime.now());
+        }
+        requestLog.setRequestType(truncate(requestLog.getRequestType(), MAX_REQUEST_TYPE_LENGTH));
+        requestLog.setFileName(truncate(requestLog.getFileName(), MAX_FILE_NAME_LENGTH));
+        if (queue.offer(requestLog)) {
+            return;
+        }
+        switch (overflowPolicy) {
+            case DROP -> {
+                dropped.increment();
+                log.warn("日志队列已满，丢弃一条日志 user={}", requestLog.getUsername());
+            }
+            case BLOCK -> {
+                try {
+                    queue.put(requestLog);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.increment();
+                }
+            }
+            case SPILL -> spill(List.of(requestLog));
+        }
+    }
+
+    /**
+     * 同步写出已提交的全部日志，会等待后台线程手上的批次完成。
+     */
+    public void flush() {
+        cycleLock.lock();
+        try {
+            List<RequestLog> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        } finally {
+            cycleLock.unlock();
+        }
+    }
+
+    /**
+     * 先写出已提交的日志，再在后台线程暂停写入的情况下执行 action，用于重建汇总表等需要排他的操作。
+     */
+    public <T> T runExclusive(Supplier<T> action) {
+        cycleLock.lock();
+        try {
+            flush();
+            return action.get();
+        } finally {
+            cycleLock.unlock();
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        worker = new Thread(this::runLoop, "request-log-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            try {
+                worker.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // 停机前把剩余日志写完
+        flush();
+        log.info("日志写入器已停止，累计写入 {} 条，丢弃 {} 条，落盘 {} 条", written.sum(), dropped.sum(), spilled.sum());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long writtenCount() {
+        return written.sum();
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    public long deadLetteredCount() {
+        return deadLettered.sum();
+    }
+
+    public int queueSize() {
+        return queue.size();
+    }
+
+    private static String truncate(String value, int maxLength) {
+        return value != null && value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
+
+    private void runLoop() {
+        List<RequestLog> batch = new ArrayList<>(batchSize);
+        while (running) {
+            cycleLock.lock();
+            try {
+                RequestLog first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    replaySpill();
+                    continue;
+                }
+                batch.add(first);
+                // 攒够一批或等到刷新间隔
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || remaining <= 0) break;
+                    RequestLog next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                writeBatch(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                if (!batch.isEmpty()) {
+                    // 被中断时未写出的部分交回队列，由 stop() 统一刷出
+                    batch.forEach(queue::offer);
+                    batch.clear();
+                }
+                cycleLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 写入一批日志，返回是否有日志因数据库不可用而落盘（或丢弃）等待下次回放。
+     */
+    private boolean writeBatch(List<RequestLog> batch) {
+        if (batch.isEmpty()) return false;
+        // 计时只包含数据库事务，不含落盘
+        Timer.Sample sample = metrics.start();
+        try {
+            insert(batch);
+            metrics.stop(sample, "ai.log.write", "outcome", "success");
+            written.add(batch.size());
+            return false;
+        } catch (Exception e) {
+            metrics.stop(sample, "ai.log.write", "outcome", "error");
+            log.warn("批量写入日志失败({} 条)，改为逐条写入: {}", batch.size(), e.getMessage());
+            return writeEach(batch);
+        }
+    }
+
+    // 整批失败后逐条写入：数据本身有问题的写入死信文件；遇到连接失败等其他错误时不再逐条尝试，剩余的按溢出策略处理
+    private boolean writeEach(List<RequestLog> batch) {
+        List<RequestLog> rejected = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            RequestLog item = batch.get(i);
+            try {
+                insert(List.of(item));
+                written.increment();
+            } catch (DataIntegrityViolationException e) {
+                log.warn("日志无法入库，写入死信文件 user={}: {}", item.getUsername(), e.getMessage());
+                rejected.add(item);
+            } catch (Exception e) {
+                log.warn("日志写入失败，剩余 {} 条待回放: {}", batch.size() - i, e.getMessage());
+                deadLetter(rejected);
+                retryLater(batch.subList(i, batch.size()));
+                return true;
+            }
+        }
+        deadLetter(rejected);
+        return false;
+    }
+
+    private void insert(List<RequestLog> batch) {
+        transactionTemplate.executeWithoutResult(status -> {
+            snippetStore.storeBatch(batch);
+            jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, item) -> {
+                ps.setString(1, item.getRequestType());
+                ps.setString(2, item.getFileName());
+                ps.setString(3, item.getUsername());
+                ps.setString(4, item.getSnippetHash());
+                ps.setObject(5, item.getPromptTokensRaw(), Types.INTEGER);
+                ps.setObject(6, item.getPromptTokens(), Types.INTEGER);
+                ps.setInt(7, item.getUnits());
+                ps.setTimestamp(8, Timestamp.valueOf(item.getCreatedAt()));
+            });
+            usageRollup.applyBatch(batch);
+        });
+    }
+
+    // 数据库暂时不可用：SPILL 策略下落盘等待回放，已回放 max-replay-attempts 次的转入死信文件
+    private void retryLater(List<RequestLog> logs) {
+        if (overflowPolicy != OverflowPolicy.SPILL) {
+            dropped.add(logs.size());
+            return;
+        }
+        List<RequestLog> retry = new ArrayList<>();
+        List<RequestLog> exhausted = new ArrayList<>();
+        for (RequestLog item : logs) {
+            (item.getSpillAttempts() >= maxReplayAttempts ? exhausted : retry).add(item);
+        }
+        if (!retry.isEmpty()) spill(retry);
+        deadLetter(exhausted);
+    }
+
+    private void spill(List<RequestLog> logs) {
+        spillLock.lock();
+        try {
+            append(spillFile, logs);
+            spilled.add(logs.size());
+        } catch (IOException e) {
+            dropped.add(logs.size());
+            log.warn("日志落盘失败，丢弃 {} 条: {}", logs.size(), e.getMessage());
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    // 死信文件只追加不回放，由运维排查后自行处理
+    private void deadLetter(List<RequestLog> logs) {
+        if (logs.isEmpty()) return;
+        spillLock.lock();
+        try {
+            append(deadLetterFile, logs);
+            deadLettered.add(logs.size());
+        } catch (IOException e) {
+            dropped.add(logs.size());
+            log.warn("写入死信文件失败，丢弃 {} 条: {}", logs.size(), e.getMessage());
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    // 无法解析的落盘行（如进程崩溃时写了一半的最后一行）原样写入死信文件
+    private void deadLetterLine(String line) {
+        spillLock.lock();
+        try {
+            appendLines(deadLetterFile, List.of(line));
+            deadLettered.increment();
+        } catch (IOException e) {
+            dropped.increment();
+            log.warn("写入死信文件失败，丢弃 1 条: {}", e.getMessage());
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    private void append(Path file, List<RequestLog> logs) throws IOException {
+        List<String> lines = new ArrayList<>(logs.size());
+        for (RequestLog item : logs) {
+            lines.add(objectMapper.writeValueAsString(item));
+        }
+        appendLines(file, lines);
+    }
+
+    private static void appendLines(Path file, List<String> lines) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * 队列空闲时把落盘文件重新写入数据库。每写完一批就把已处理的行数记入 .replaying.pos，
+     * 回放中途失败或进程崩溃后从该位置继续，已入库的日志不会重复写入；
+     * 回放出错或仍有日志写不进去时，等待 replay-backoff-ms 后再试。
+     */
+    void replaySpill() {
+        if (System.currentTimeMillis() < nextReplayAt) return;
+        Path replaying = spillFile.resolveSibling(spillFile.getFileName() + ".replaying");
+        Path position = spillFile.resolveSibling(spillFile.getFileName() + ".replaying.pos");
+        // 上次回放中断留下的文件优先处理，避免被覆盖
+        if (!Files.exists(replaying)) {
+            spillLock.lock();
+            try {
+                if (!Files.exists(spillFile)) return;
+                Files.deleteIfExists(position);
+                Files.move(spillFile, replaying, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.warn("落盘文件回放失败: {}", e.getMessage());
+                nextReplayAt = System.currentTimeMillis() + replayBackoffMs;
+                return;
+            } finally {
+                spillLock.unlock();
+            }
+        }
+        List<RequestLog> batch = new ArrayList<>(batchSize);
+        boolean deferred = false;
+        try (BufferedReader reader = Files.newBufferedReader(replaying, StandardCharsets.UTF_8)) {
+            long done = readPosition(position);
+            long lineNo = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (++lineNo <= done || line.isBlank()) continue;
+                RequestLog item;
+                try {
+                    item = objectMapper.readValue(line, RequestLog.class);
+                } catch (IOException e) {
+                    log.warn("落盘文件第 {} 行无法解析，写入死信文件: {}", lineNo, e.getMessage());
+                    deadLetterLine(line);
+                    continue;
+                }
+                item.setSpillAttempts(item.getSpillAttempts() + 1);
+                batch.add(item);
+                if (batch.size() >= batchSize) {
+                    deferred |= writeBatch(batch);
+                    batch.clear();
+                    writePosition(position, lineNo);
+                }
+            }
+            deferred |= writeBatch(batch);
+            batch.clear();
+            Files.deleteIfExists(replaying);
+            Files.deleteIfExists(position);
+        } catch (IOException | RuntimeException e) {
+            log.warn("落盘文件回放失败: {}", e.getMessage());
+            deferred = true;
+        }
+        if (deferred) {
+            nextReplayAt = System.currentTimeMillis() + replayBackoffMs;
+        }
+    }
+
+    private static long readPosition(Path position) throws IOException {
+        if (!Files.exists(position)) return 0;
+        String value = Files.readString(position, StandardCharsets.UTF_8).trim();
+        try {
+            return value.isEmpty() ? 0 : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // 先写临时文件再原子替换，崩溃时不会留下写了一半的位置
+    private static void writePosition(Path position, long lineNo) throws IOException {
+        Path tmp = position.resolveSibling(position.getFileName() + ".tmp");
+        Files.writeString(tmp, Long.toString(lineNo), StandardCharsets.UTF_8);
+        Files.move(tmp, position, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
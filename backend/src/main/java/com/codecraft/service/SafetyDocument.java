@@ -0,0 +1,231 @@
+package com.codecraft.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 增量安全检查的文档副本：按行保存文本、行首词法状态和该行的命中位置。
+ * 编辑只替换受影响的行并从改动处重扫，之后逐行比较行首词法状态，一旦与原来一致就停止
+ * （新打开的块注释会一直影响到状态收敛为止）；其余行只随行号平移，不再扫描。
+ * 行列表中只移动引用，不复制文本。非线程安全，由调用方加锁。
+ */
+public final class SafetyDocument {
+
+    /**
+     * 行列均从 1 开始（与 Monaco 一致），[start, end) 的内容替换为 text。
+     */
+    public record Edit(int startLine, int startColumn, int endLine, int endColumn, String text) {
+    }
+
+    /**
+     * 单个编辑的结果：removed 使用编辑前的行号，added 使用编辑后的行号，两边相同的命中已抵消。
+     */
+    public record Change(List<SafetyScanner.Hit> added, List<SafetyScanner.Hit> removed, boolean truncated) {
+    }
+
+    private static final int[] NO_HITS = new int[0];
+
+    // hits 为 (规则下标, 列号) 交替排列
+    private record Line(String text, int startState, int endState, int[] hits) {
+    }
+
+    private final SafetyScanner scanner;
+    private final int maxChars;
+    private final List<Line> lines = new ArrayList<>();
+    private final int[] ruleCounts;
+    private long length;
+    private int version;
+
+    // 扫描单行时复用的命中缓冲区
+    private int[] buffer = new int[16];
+    private int buffered;
+    private final SafetyScanner.HitSink collect = (rule, line, column) -> {
+        if (buffered + 2 > buffer.length) {
+            int[] grown = new int[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, buffered);
+            buffer = grown;
+        }
+        buffer[buffered++] = rule;
+        buffer[buffered++] = column;
+    };
+
+    public SafetyDocument(SafetyScanner scanner, String content, int maxChars) {
+        String text = content == null ? "" : content;
+        if (text.length() > maxChars) {
+            throw new IllegalArgumentException("文档超过 " + maxChars + " 字符上限");
+        }
+        this.scanner = scanner;
+        this.maxChars = maxChars;
+        this.ruleCounts = new int[scanner.ruleCount()];
+        int state = SourceLanguage.CODE;
+        for (String lineText : splitLines(text)) {
+            Line line = scan(lineText, state);
+            lines.add(line);
+            count(line, 1);
+            length += lineText.length();
+            state = line.endState();
+        }
+        length += lines.size() - 1;
+    }
+
+    public SourceLanguage language() {
+        return scanner.language();
+    }
+
+    public int version() {
+        return version;
+    }
+
+    public int lineCount() {
+        return lines.size();
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * 当前全部命中，与整篇扫描的结果一致。
+     */
+    public SafetyScanner.ScanResult snapshot() {
+        List<SafetyScanner.Hit> hits = new ArrayList<>();
+        boolean truncated = false;
+        for (int i = 0; i < lines.size() && !truncated; i++) {
+            truncated = !appendHits(lines.get(i), i + 1, hits);
+        }
+        return new SafetyScanner.ScanResult(warnings(), hits, truncated);
+    }
+
+    public List<String> warnings() {
+        List<String> warnings = new ArrayList<>();
+        for (int r = 0; r < ruleCounts.length; r++) {
+            if (ruleCounts[r] > 0 && !warnings.contains(scanner.message(r))) warnings.add(scanner.message(r));
+        }
+        return warnings;
+    }
+
+    /**
+     * 依次应用一批编辑，每个编辑的坐标都基于前一个编辑之后的文档。任一编辑非法时抛出 IllegalArgumentException，
+     * 此时前面的编辑已生效，调用方应丢弃该文档。
+     */
+    public List<Change> apply(List<Edit> edits) {
+        List<Change> changes = new ArrayList<>(edits.size());
+        for (Edit edit : edits) {
+            changes.add(apply(edit));
+        }
+        version++;
+        return changes;
+    }
+
+    private Change apply(Edit edit) {
+        int first = edit.startLine() - 1;
+        int last = edit.endLine() - 1;
+        if (first < 0 || last < first || last >= lines.size()
+                || edit.startColumn() < 1 || edit.startColumn() > lines.get(first).text().length() + 1
+                || edit.endColumn() < 1 || edit.endColumn() > lines.get(last).text().length() + 1
+                || (first == last && edit.endColumn() < edit.startColumn())) {
+            throw new IllegalArgumentException("编辑范围越界: " + edit.startLine() + ":" + edit.startColumn()
+                    + "-" + edit.endLine() + ":" + edit.endColumn());
+        }
+        String prefix = lines.get(first).text().substring(0, edit.startColumn() - 1);
+        String suffix = lines.get(last).text().substring(edit.endColumn() - 1);
+        List<String> replacement = splitLines(prefix + (edit.text() == null ? "" : edit.text()) + suffix);
+
+        long newLength = length + replacement.size() - (last - first + 1);
+        for (String text : replacement) newLength += text.length();
+        for (int i = first; i <= last; i++) newLength -= lines.get(i).text().length();
+        if (newLength > maxChars) {
+            throw new IllegalArgumentException("文档超过 " + maxChars + " 字符上限");
+        }
+
+        List<SafetyScanner.Hit> removed = new ArrayList<>();
+        List<SafetyScanner.Hit> added = new ArrayList<>();
+        List<Line> stale = lines.subList(first, last + 1);
+        int state = stale.get(0).startState();
+        for (int i = 0; i < stale.size(); i++) {
+            collectHits(stale.get(i), first + i + 1, removed);
+            count(stale.get(i), -1);
+        }
+        List<Line> fresh = new ArrayList<>(replacement.size());
+        for (String text : replacement) {
+            Line line = scan(text, state);
+            collectHits(line, first + fresh.size() + 1, added);
+            count(line, 1);
+            fresh.add(line);
+            state = line.endState();
+        }
+        stale.clear();
+        lines.addAll(first, fresh);
+        length = newLength;
+
+        // 行尾状态变化时继续向后重扫，直到与原来的行首状态一致
+        int shift = fresh.size() - (last - first + 1);
+        for (int i = first + fresh.size(); i < lines.size() && lines.get(i).startState() != state; i++) {
+            Line previous = lines.get(i);
+            collectHits(previous, i - shift + 1, removed);
+            count(previous, -1);
+            Line line = scan(previous.text(), state);
+            collectHits(line, i + 1, added);
+            count(line, 1);
+            lines.set(i, line);
+            state = line.endState();
+        }
+
+        Set<SafetyScanner.Hit> unchanged = new HashSet<>(removed);
+        unchanged.retainAll(added);
+        removed.removeIf(unchanged::contains);
+        added.removeIf(unchanged::contains);
+        boolean truncated = added.size() > scanner.maxHits() || removed.size() > scanner.maxHits();
+        return new Change(cap(added), cap(removed), truncated);
+    }
+
+    private Line scan(String text, int startState) {
+        buffered = 0;
+        int endState = scanner.scanLine(text, 0, text.length(), 0, startState, collect);
+        int[] hits = buffered == 0 ? NO_HITS : Arrays.copyOf(buffer, buffered);
+        return new Line(text, startState, endState, hits);
+    }
+
+    private void count(Line line, int delta) {
+        for (int k = 0; k < line.hits().length; k += 2) {
+            ruleCounts[line.hits()[k]] += delta;
+        }
+    }
+
+    private void collectHits(Line line, int lineNumber, List<SafetyScanner.Hit> target) {
+        for (int k = 0; k < line.hits().length; k += 2) {
+            int rule = line.hits()[k];
+            target.add(new SafetyScanner.Hit(scanner.ruleId(rule), scanner.message(rule), lineNumber, line.hits()[k + 1]));
+        }
+    }
+
+    // 返回 false 表示已达上限
+    private boolean appendHits(Line line, int lineNumber, List<SafetyScanner.Hit> target) {
+        for (int k = 0; k < line.hits().length; k += 2) {
+            if (target.size() >= scanner.maxHits()) return false;
+            int rule = line.hits()[k];
+            target.add(new SafetyScanner.Hit(scanner.ruleId(rule), scanner.message(rule), lineNumber, line.hits()[k + 1]));
+        }
+        return true;
+    }
+
+    private List<SafetyScanner.Hit> cap(List<SafetyScanner.Hit> hits) {
+        return hits.size() > scanner.maxHits() ? new ArrayList<>(hits.subList(0, scanner.maxHits())) : hits;
+    }
+
+    private static List<String> splitLines(String text) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        int newline;
+        while ((newline = text.indexOf('\n', start)) >= 0) {
+            int end = newline > start && text.charAt(newline - 1) == '\r' ? newline - 1 : newline;
+            result.add(text.substring(start, end));
+            start = newline + 1;
+        }
+        result.add(text.substring(start));
+        return result;
+    }
+}
@@ -0,0 +1,368 @@
+package com.codecraft.service;
+
+import com.codecraft.config.SafetyProperties;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 单遍多模式扫描：所有规则的字面量触发词编译进一个 Aho-Corasick 自动机，每个字符只做一次查表；
+ * 只有触发词出现的位置才执行该规则的确认正则（从触发词起点 lookingAt）。
+ * 触发词不跨行，因此按行扫描，流式读取时内存只与最长的一行有关。实例不可变，可并发使用。
+ * 指定语言时先由 {@link SourceLanguage} 切分出代码段与字符串段，注释不进入自动机，
+ * 触发词不跨段匹配；字符串段中只报告 inStrings 的规则。
+ */
+public final class SafetyScanner {
+
+    public record Hit(String ruleId, String message, int line, int column) {
+    }
+
+    /**
+     * warnings 按规则定义顺序去重；hits 超过上限时 truncated 为 true。
+     */
+    public record ScanResult(List<String> warnings, List<Hit> hits, boolean truncated) {
+    }
+
+    @FunctionalInterface
+    public interface HitSink {
+        void accept(int rule, int line, int column);
+    }
+
+    private static final int READ_BUFFER = 8192;
+
+    private final String[] ruleIds;
+    private final String[] messages;
+    private final Pattern[] confirms;
+    private final boolean[] inStrings;
+    private final SourceLanguage language;
+    private final int maxHits;
+
+    private final char[][] triggers;
+    private final int[] triggerRule;
+    private final boolean[] triggerIgnoreCase;
+
+    // 字符 -> 字母表下标，ASCII 走数组，其余走 Map；不在任何触发词中的字符为 -1
+    private final int[] asciiSymbols = new int[128];
+    private final Map<Character, Integer> otherSymbols = new HashMap<>();
+    private final int alphabetSize;
+    // 完全展开的转移表：delta[state * alphabetSize + symbol]
+    private final int[] delta;
+    // 到达该状态时结束的触发词（已合并失配链上的输出）
+    private final int[][] outputs;
+
+    public SafetyScanner(List<SafetyProperties.Rule> rules, int maxHits) {
+        this(rules, null, maxHits);
+    }
+
+    /**
+     * language 为 null 时按纯文本扫描整行。
+     */
+    public SafetyScanner(List<SafetyProperties.Rule> rules, SourceLanguage language, int maxHits) {
+        this.language = language;
+        this.maxHits = maxHits;
+        this.ruleIds = new String[rules.size()];
+        this.messages = new String[rules.size()];
+        this.confirms = new Pattern[rules.size()];
+        this.inStrings = new boolean[rules.size()];
+        List<char[]> triggerList = new ArrayList<>();
+        List<Integer> ruleOfTrigger = new ArrayList<>();
+        List<Boolean> ignoreCaseOfTrigger = new ArrayList<>();
+        for (int r = 0; r < rules.size(); r++) {
+            SafetyProperties.Rule rule = rules.get(r);
+            ruleIds[r] = rule.getId();
+            messages[r] = rule.getMessage();
+            inStrings[r] = rule.isInStrings();
+            if (rule.getConfirm() != null && !rule.getConfirm().isBlank()) {
+                confirms[r] = Pattern.compile(rule.getConfirm(), rule.isIgnoreCase() ? Pattern.CASE_INSENSITIVE : 0);
+            }
+            for (String trigger : rule.getTriggers()) {
+                if (trigger == null || trigger.isEmpty() || trigger.indexOf('\n') >= 0 || trigger.indexOf('\r') >= 0) {
+                    throw new IllegalArgumentException("安全规则 " + rule.getId() + " 的触发词不能为空或包含换行");
+                }
+                triggerList.add(trigger.toCharArray());
+                ruleOfTrigger.add(r);
+                ignoreCaseOfTrigger.add(rule.isIgnoreCase());
+            }
+        }
+        this.triggers = triggerList.toArray(new char[0][]);
+        this.triggerRule = ruleOfTrigger.stream().mapToInt(Integer::intValue).toArray();
+        this.triggerIgnoreCase = new boolean[triggers.length];
+        for (int t = 0; t < triggers.length; t++) {
+            triggerIgnoreCase[t] = ignoreCaseOfTrigger.get(t);
+        }
+
+        // 自动机统一在小写折叠后的字符上运行，区分大小写的触发词命中后再逐字比对
+        Arrays.fill(asciiSymbols, -1);
+        int symbols = 0;
+        for (char[] trigger : triggers) {
+            for (char c : trigger) {
+                char folded = Character.toLowerCase(c);
+                if (symbol(folded) < 0) {
+                    if (folded < 128) asciiSymbols[folded] = symbols++;
+                    else otherSymbols.put(folded, symbols++);
+                }
+            }
+        }
+        this.alphabetSize = Math.max(1, symbols);
+
+        List<int[]> goTo = new ArrayList<>();
+        List<List<Integer>> own = new ArrayList<>();
+        goTo.add(newRow());
+        own.add(new ArrayList<>());
+        for (int t = 0; t < triggers.length; t++) {
+            int state = 0;
+            for (char c : triggers[t]) {
+                int s = symbol(Character.toLowerCase(c));
+                if (goTo.get(state)[s] < 0) {
+                    goTo.get(state)[s] = goTo.size();
+                    goTo.add(newRow());
+                    own.add(new ArrayList<>());
+                }
+                state = goTo.get(state)[s];
+            }
+            own.get(state).add(t);
+        }
+
+        int states = goTo.size();
+        this.delta = new int[states * alphabetSize];
+        this.outputs = new int[states][];
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int s = 0; s < alphabetSize; s++) {
+            int next = goTo.get(0)[s];
+            if (next < 0) {
+                delta[s] = 0;
+            } else {
+                delta[s] = next;
+                fail[next] = 0;
+                queue.add(next);
+            }
+        }
+        // 按深度广度优先，失配目标总是先于当前状态完成
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            List<Integer> merged = new ArrayList<>(own.get(state));
+            if (outputs[fail[state]] != null) {
+                for (int t : outputs[fail[state]]) merged.add(t);
+            }
+            outputs[state] = merged.isEmpty() ? null : merged.stream().mapToInt(Integer::intValue).toArray();
+            for (int s = 0; s < alphabetSize; s++) {
+                int next = goTo.get(state)[s];
+                if (next < 0) {
+                    delta[state * alphabetSize + s] = delta[fail[state] * alphabetSize + s];
+                } else {
+                    delta[state * alphabetSize + s] = next;
+                    fail[next] = delta[fail[state] * alphabetSize + s];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    public int ruleCount() {
+        return ruleIds.length;
+    }
+
+    public String ruleId(int rule) {
+        return ruleIds[rule];
+    }
+
+    public String message(int rule) {
+        return messages[rule];
+    }
+
+    public SourceLanguage language() {
+        return language;
+    }
+
+    public int maxHits() {
+        return maxHits;
+    }
+
+    public ScanResult scan(CharSequence content) {
+        Collector collector = new Collector();
+        if (content == null) return collector.result();
+        LineScan lineScan = new LineScan(collector);
+        int lineStart = 0;
+        int lineNumber = 1;
+        int lexState = SourceLanguage.CODE;
+        int length = content.length();
+        int newline;
+        while ((newline = indexOfNewline(content, lineStart)) >= 0) {
+            int lineEnd = newline > lineStart && content.charAt(newline - 1) == '\r' ? newline - 1 : newline;
+            lexState = lineScan.scan(content, lineStart, lineEnd, lineNumber++, lexState);
+            lineStart = newline + 1;
+        }
+        lineScan.scan(content, lineStart, length, lineNumber, lexState);
+        return collector.result();
+    }
+
+    /**
+     * 从 Reader 流式扫描，不构造完整内容，只缓存当前行。
+     */
+    public ScanResult scan(Reader reader) throws IOException {
+        Collector collector = new Collector();
+        LineScan lineScan = new LineScan(collector);
+        StringBuilder line = new StringBuilder(256);
+        char[] buffer = new char[READ_BUFFER];
+        int lineNumber = 1;
+        int lexState = SourceLanguage.CODE;
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                char c = buffer[i];
+                if (c == '\n') {
+                    lexState = lineScan.scan(line, 0, line.length(), lineNumber++, lexState);
+                    line.setLength(0);
+                } else if (c != '\r') {
+                    line.append(c);
+                }
+            }
+        }
+        lineScan.scan(line, 0, line.length(), lineNumber, lexState);
+        return collector.result();
+    }
+
+    /**
+     * 扫描 text 中 [from, to) 这一行，列号从 1 开始、相对于 from 计算。
+     * lexState 为上一行返回的词法状态（首行为 {@link SourceLanguage#CODE}），返回值供下一行使用；
+     * 保存每行的起始状态即可只重扫改动过的行。
+     */
+    public int scanLine(CharSequence text, int from, int to, int lineNumber, int lexState, HitSink sink) {
+        return new LineScan(sink).scan(text, from, to, lineNumber, lexState);
+    }
+
+    private void scanSegment(CharSequence text, int from, int to, int lineStart, int lineNumber,
+                             boolean stringLiteral, HitSink sink) {
+        int state = 0;
+        // 同一段内同一规则在同一列只报告一次（多个触发词可能从同一位置开始）
+        long[] reported = null;
+        int reportedCount = 0;
+        for (int i = from; i < to; i++) {
+            int s = symbol(Character.toLowerCase(text.charAt(i)));
+            state = s < 0 ? 0 : delta[state * alphabetSize + s];
+            int[] ended = outputs[state];
+            if (ended == null) continue;
+            for (int t : ended) {
+                int start = i - triggers[t].length + 1;
+                if (!triggerIgnoreCase[t] && !matchesExactly(text, start, triggers[t])) continue;
+                int rule = triggerRule[t];
+                if (stringLiteral && !inStrings[rule]) continue;
+                if (confirms[rule] != null && !confirmAt(confirms[rule], text, start, to)) continue;
+                long key = ((long) rule << 32) | start;
+                if (reported == null) {
+                    reported = new long[4];
+                } else if (contains(reported, reportedCount, key)) {
+                    continue;
+                } else if (reportedCount == reported.length) {
+                    reported = Arrays.copyOf(reported, reportedCount * 2);
+                }
+                reported[reportedCount++] = key;
+                sink.accept(rule, lineNumber, start - lineStart + 1);
+            }
+        }
+    }
+
+    // String.indexOf 有内建优化，其它 CharSequence 逐字符查找
+    private static int indexOfNewline(CharSequence text, int from) {
+        if (text instanceof String string) return string.indexOf('\n', from);
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') return i;
+        }
+        return -1;
+    }
+
+    private int symbol(char c) {
+        if (c < 128) return asciiSymbols[c];
+        Integer s = otherSymbols.get(c);
+        return s == null ? -1 : s;
+    }
+
+    private int[] newRow() {
+        int[] row = new int[alphabetSize];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static boolean matchesExactly(CharSequence text, int start, char[] trigger) {
+        for (int k = 0; k < trigger.length; k++) {
+            if (text.charAt(start + k) != trigger[k]) return false;
+        }
+        return true;
+    }
+
+    // 透明边界让 \b 等断言能看到行内起点之前的字符
+    private static boolean confirmAt(Pattern pattern, CharSequence text, int start, int lineEnd) {
+        Matcher matcher = pattern.matcher(text);
+        matcher.region(start, lineEnd);
+        matcher.useTransparentBounds(true);
+        return matcher.lookingAt();
+    }
+
+    private static boolean contains(long[] values, int count, long key) {
+        for (int k = 0; k < count; k++) {
+            if (values[k] == key) return true;
+        }
+        return false;
+    }
+
+    // 整次扫描复用同一个段回调，逐行扫描时不再为每行分配对象
+    private final class LineScan implements SourceLanguage.SegmentSink {
+        private final HitSink sink;
+        private CharSequence text;
+        private int lineStart;
+        private int lineNumber;
+
+        LineScan(HitSink sink) {
+            this.sink = sink;
+        }
+
+        int scan(CharSequence text, int from, int to, int lineNumber, int lexState) {
+            if (language == null) {
+                scanSegment(text, from, to, from, lineNumber, false, sink);
+                return SourceLanguage.CODE;
+            }
+            this.text = text;
+            this.lineStart = from;
+            this.lineNumber = lineNumber;
+            return language.lexLine(text, from, to, lexState, this);
+        }
+
+        @Override
+        public void segment(int kind, int start, int end) {
+            scanSegment(text, start, end, lineStart, lineNumber, kind == SourceLanguage.STRING, sink);
+        }
+    }
+
+    private final class Collector implements HitSink {
+        private final boolean[] seen = new boolean[ruleIds.length];
+        private final List<Hit> hits = new ArrayList<>();
+        private boolean truncated;
+
+        @Override
+        public void accept(int rule, int line, int column) {
+            seen[rule] = true;
+            if (hits.size() < maxHits) {
+                hits.add(new Hit(ruleIds[rule], messages[rule], line, column));
+            } else {
+                truncated = true;
+            }
+        }
+
+        ScanResult result() {
+            List<String> warnings = new ArrayList<>();
+            for (int r = 0; r < seen.length; r++) {
+                if (seen[r] && !warnings.contains(messages[r])) warnings.add(messages[r]);
+            }
+            return new ScanResult(warnings, hits, truncated);
+        }
+    }
+}
@@ -1,36 +1,93 @@
 package com.codecraft.service;
 
+import com.codecraft.config.SafetyProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
 
+/**
+ * 危险代码检查。规则来自配置（ai.safety.rules 或 rules-location 指向的 JSON），启动时编译为 {@link SafetyScanner}：
+ * 每种可识别的语言一个只包含适用规则的扫描器（跳过注释与字符串），无法识别语言时用包含全部规则的纯文本扫描器。
+ */
 @Service
+@Slf4j
 public class SafetyService {
 
-    private static final Map<String, Pattern> PATTERNS = Map.of(
-            "潜在命令注入：Runtime.exec/ProcessBuilder", Pattern.compile("Runtime\\.getRuntime\\(\\)\\.exec|ProcessBuilder"),
-            "Java 反射或类加载风险", Pattern.compile("Class\\.forName|setAccessible\\("),
-            "JS 代码执行：eval/new Function", Pattern.compile("\\beval\\s*\\(|new Function"),
-            "Node.js 子进程执行", Pattern.compile("child_process\\.(exec|spawn)"),
-            "Node.js 删除目录/文件", Pattern.compile("fs\\.(rm|rmdir|unlink)"),
-            "Shell 执行/管道", Pattern.compile("bash -c|/bin/sh"),
-            "Python 系统调用", Pattern.compile("os\\.system|subprocess\\.Popen"),
-            "危险 SQL 语句", Pattern.compile("(?i)(drop table|truncate table|delete from)")
-    );
+    private final SafetyScanner scanner;
+    private final Map<SourceLanguage, SafetyScanner> languageScanners = new EnumMap<>(SourceLanguage.class);
+
+    public SafetyService(SafetyProperties properties, ResourceLoader resourceLoader, ObjectMapper objectMapper) {
+        List<SafetyProperties.Rule> rules = properties.getRules().isEmpty()
+                ? loadRules(resourceLoader.getResource(properties.getRulesLocation()), objectMapper)
+                : properties.getRules();
+        for (SafetyProperties.Rule rule : rules) {
+            for (String id : rule.getLanguages()) {
+                if (SourceLanguage.fromId(id) == null) {
+                    throw new IllegalArgumentException("安全规则 " + rule.getId() + " 的语言无法识别: " + id);
+                }
+            }
+        }
+        this.scanner = new SafetyScanner(rules, properties.getMaxHits());
+        for (SourceLanguage language : SourceLanguage.values()) {
+            List<SafetyProperties.Rule> applicable = rules.stream()
+                    .filter(rule -> rule.getLanguages().isEmpty()
+                            || rule.getLanguages().stream().anyMatch(id -> id.equalsIgnoreCase(language.id())))
+                    .toList();
+            languageScanners.put(language, new SafetyScanner(applicable, language, properties.getMaxHits()));
+        }
+        log.info("已加载安全检查规则 {} 条", rules.size());
+    }
+
+    /**
+     * 按编辑器语言或文件扩展名选择扫描器，都无法识别时返回纯文本扫描器。
+     */
+    public SafetyScanner scannerFor(String fileName, String editorLanguage) {
+        SourceLanguage language = SourceLanguage.detect(fileName, editorLanguage);
+        return language == null ? scanner : languageScanners.get(language);
+    }
 
     public List<String> checkDangerousPatterns(String content) {
-        List<String> warnings = new ArrayList<>();
         if (content == null || content.isBlank()) {
-            return warnings;
+            return new ArrayList<>();
+        }
+        return scanner.scan(content).warnings();
+    }
+
+    public SafetyScanner.ScanResult scan(String content) {
+        return scanner.scan(content);
+    }
+
+    public SafetyScanner.ScanResult scan(String content, String fileName, String editorLanguage) {
+        return scannerFor(fileName, editorLanguage).scan(content);
+    }
+
+    /**
+     * 直接从请求体流式扫描，大文件不必先读成完整字符串。
+     */
+    public SafetyScanner.ScanResult scan(Reader reader) throws IOException {
+        return scanner.scan(reader);
+    }
+
+    public SafetyScanner.ScanResult scan(Reader reader, String fileName, String editorLanguage) throws IOException {
+        return scannerFor(fileName, editorLanguage).scan(reader);
+    }
+
+    private static List<SafetyProperties.Rule> loadRules(Resource resource, ObjectMapper objectMapper) {
+        try (InputStream in = resource.getInputStream()) {
+            return objectMapper.readValue(in, new TypeReference<List<SafetyProperties.Rule>>() {});
+        } catch (IOException e) {
+            throw new IllegalStateException("安全检查规则加载失败: " + resource.getDescription(), e);
         }
-        PATTERNS.forEach((message, pattern) -> {
-            if (pattern.matcher(content).find()) {
-                warnings.add(message);
-            }
-        });
-        return warnings;
     }
 }
@@ -0,0 +1,184 @@
+package com.codecraft.service;
+
+import com.codecraft.config.SafetyProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 增量安全检查会话：每个会话持有一份 {@link SafetyDocument}，归属于打开它的用户。
+ * 会话只保存在当前实例内存中，超时未访问、超出每用户上限或超出全局会话数/字符数上限时淘汰，客户端收到 404 后重新打开即可。
+ */
+@Service
+@Slf4j
+public class SafetySessionService {
+
+    /**
+     * 对 document 的访问需在 synchronized (session) 内进行。
+     */
+    public static final class Session {
+        private final String id;
+        private final String username;
+        private final SafetyDocument document;
+        private volatile long lastAccess;
+
+        Session(String id, String username, SafetyDocument document, long now) {
+            this.id = id;
+            this.username = username;
+            this.document = document;
+            this.lastAccess = now;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public SafetyDocument document() {
+            return document;
+        }
+    }
+
+    /**
+     * 一批编辑的结果；warningsAdded / warningsRemoved 为这批编辑前后整篇文档警告的差异。
+     */
+    public record Update(int version, List<SafetyDocument.Change> changes, List<String> warnings,
+                         List<String> warningsAdded, List<String> warningsRemoved) {
+    }
+
+    private final SafetyService safetyService;
+    private final SafetyProperties.Sessions config;
+    private final Clock clock;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SafetySessionService(SafetyService safetyService, SafetyProperties properties) {
+        this(safetyService, properties, Clock.systemDefaultZone());
+    }
+
+    SafetySessionService(SafetyService safetyService, SafetyProperties properties, Clock clock) {
+        this.safetyService = safetyService;
+        this.config = properties.getSessions();
+        this.clock = clock;
+    }
+
+    /**
+     * 打开会话并完整扫描一次初始内容；文档超过大小上限时抛出 IllegalArgumentException。
+     */
+    public Session open(String username, String content, String fileName, String editorLanguage) {
+        SafetyDocument document = new SafetyDocument(
+                safetyService.scannerFor(fileName, editorLanguage), content, config.getMaxChars());
+        Session session = new Session(UUID.randomUUID().toString(), username, document, clock.millis());
+        sessions.put(session.id, session);
+        evictOverLimit(session);
+        evictOverCapacity(session);
+        return session;
+    }
+
+    /**
+     * 会话不存在、已过期或不属于该用户时返回 null。
+     */
+    public Session get(String username, String id) {
+        Session session = id == null ? null : sessions.get(id);
+        if (session == null || !session.username.equals(username)) return null;
+        long now = clock.millis();
+        if (now - session.lastAccess > config.getTtlMs()) {
+            sessions.remove(id, session);
+            return null;
+        }
+        session.lastAccess = now;
+        return session;
+    }
+
+    /**
+     * 应用一批编辑。baseVersion 不为空且与服务端版本不一致时返回 null（客户端丢失了更新，需重新打开）；
+     * 编辑非法时文档已与客户端不一致，直接关闭会话后抛出 IllegalArgumentException。
+     */
+    public Update apply(Session session, Integer baseVersion, List<SafetyDocument.Edit> edits) {
+        Update update = applyLocked(session, baseVersion, edits);
+        // 编辑可能让文档变大
+        if (update != null) {
+            evictOverCapacity(session);
+        }
+        return update;
+    }
+
+    private Update applyLocked(Session session, Integer baseVersion, List<SafetyDocument.Edit> edits) {
+        synchronized (session) {
+            SafetyDocument document = session.document;
+            if (baseVersion != null && baseVersion != document.version()) return null;
+            List<String> before = document.warnings();
+            List<SafetyDocument.Change> changes;
+            try {
+                changes = document.apply(edits);
+            } catch (IllegalArgumentException e) {
+                sessions.remove(session.id, session);
+                throw e;
+            }
+            List<String> after = document.warnings();
+            return new Update(document.version(), changes, after,
+                    after.stream().filter(w -> !before.contains(w)).toList(),
+                    before.stream().filter(w -> !after.contains(w)).toList());
+        }
+    }
+
+    public boolean close(String username, String id) {
+        Session session = get(username, id);
+        return session != null && sessions.remove(id, session);
+    }
+
+    public int activeSessions() {
+        return sessions.size();
+    }
+
+    @Scheduled(fixedDelayString = "${ai.safety.sessions.evict-interval-ms:60000}",
+            initialDelayString = "${ai.safety.sessions.evict-interval-ms:60000}")
+    public void evictExpired() {
+        long cutoff = clock.millis() - config.getTtlMs();
+        int before = sessions.size();
+        sessions.values().removeIf(session -> session.lastAccess < cutoff);
+        if (sessions.size() < before) {
+            log.debug("已清理过期安全检查会话 {} 个", before - sessions.size());
+        }
+    }
+
+    // 全局上限按最久未访问淘汰，不区分用户；current 为正在打开或编辑的会话，不参与淘汰。
+    // 文档长度不加锁读取，是近似值，足以限制总量
+    private void evictOverCapacity(Session current) {
+        int count = sessions.size();
+        long totalChars = sessions.values().stream().mapToLong(session -> session.document.length()).sum();
+        if (count <= config.getMaxSessions() && totalChars <= config.getMaxTotalChars()) return;
+        List<Session> oldestFirst = sessions.values().stream()
+                .filter(session -> session != current)
+                .sorted(Comparator.comparingLong(session -> session.lastAccess))
+                .toList();
+        int evicted = 0;
+        for (Session session : oldestFirst) {
+            if (count <= config.getMaxSessions() && totalChars <= config.getMaxTotalChars()) break;
+            if (sessions.remove(session.id, session)) {
+                count--;
+                totalChars -= session.document.length();
+                evicted++;
+            }
+        }
+        log.info("安全检查会话超出全局上限，淘汰最久未访问的会话 {} 个", evicted);
+    }
+
+    // 刚打开的会话不参与淘汰
+    private void evictOverLimit(Session created) {
+        List<Session> owned = sessions.values().stream()
+                .filter(session -> session != created && session.username.equals(created.username))
+                .sorted(Comparator.comparingLong(session -> session.lastAccess))
+                .toList();
+        for (int i = 0; i < owned.size() + 1 - config.getMaxPerUser(); i++) {
+            sessions.remove(owned.get(i).id, owned.get(i));
+        }
+    }
+}
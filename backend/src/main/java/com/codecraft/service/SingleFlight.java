@@ -0,0 +1,49 @@
+package com.codecraft.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 合并并发的相同请求：同一 key 在途期间，后到的调用者订阅同一个上游 Mono，
+ * 上游结束（成功或失败）后立即移除，下一次调用重新发起。
+ */
+@Component
+@Slf4j
+public class SingleFlight {
+
+    private final Map<String, Mono<?>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> execute(String key, Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            boolean[] created = {false};
+            Mono<T> shared = (Mono<T>) inFlight.computeIfAbsent(key, k -> {
+                created[0] = true;
+                // cache() 保证上游只订阅一次；doFinally 位于 cache 之前，只随上游结束触发一次
+                return call.get()
+                        .doFinally(signal -> inFlight.remove(k))
+                        .cache();
+            });
+            if (!created[0]) {
+                coalesced.increment();
+                log.debug("合并在途请求 key={}", key);
+            }
+            return shared;
+        });
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    public long coalescedCount() {
+        return coalesced.sum();
+    }
+}
@@ -0,0 +1,214 @@
+package com.codecraft.service;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Prompt 上下文的压缩手段，按信息损失从小到大：去掉注释与空行、只保留签名（省略方法体）、按 token 数截断。
+ * 注释与字符串的识别复用 {@link SourceLanguage} 的词法器，无法识别语言时只做与语言无关的处理。
+ */
+final class SourceCompressor {
+
+    static final String ELIDED = "...";
+    private static final Pattern ONE_LINE_DEF = Pattern.compile(".*\\)\\s*(->[^:]*)?:.+");
+
+    private SourceCompressor() {
+    }
+
+    /**
+     * 去掉注释、行尾空白与空行；language 为 null 时只去空行。
+     */
+    static String stripComments(String text, SourceLanguage language) {
+        StringBuilder out = new StringBuilder(text.length());
+        StringBuilder line = new StringBuilder();
+        int state = SourceLanguage.CODE;
+        int start = 0;
+        while (start <= text.length()) {
+            int newline = text.indexOf('\n', start);
+            int end = newline < 0 ? text.length() : newline;
+            line.setLength(0);
+            if (language == null) {
+                line.append(text, start, end);
+            } else {
+                state = language.lexLine(text, start, end, state, (kind, from, to) -> line.append(text, from, to));
+            }
+            appendNonBlank(out, line);
+            if (newline < 0) break;
+            start = newline + 1;
+        }
+        return out.toString();
+    }
+
+    /**
+     * 只保留结构：花括号语言中函数/方法体替换为 { ... }，Python 中 def 的函数体替换为 ...；其它语言原样返回。
+     */
+    static String outline(String text, SourceLanguage language) {
+        if (language == SourceLanguage.JAVA || language == SourceLanguage.JAVASCRIPT) {
+            return outlineBraces(text, language);
+        }
+        if (language == SourceLanguage.PYTHON) {
+            return outlinePython(text);
+        }
+        return text;
+    }
+
+    /**
+     * 从头保留整行直到估算 token 数达到 maxTokens，其余以一行说明代替。
+     */
+    static String truncate(String text, int maxTokens) {
+        int tokens = 0;
+        int start = 0;
+        while (start < text.length()) {
+            int newline = text.indexOf('\n', start);
+            int end = newline < 0 ? text.length() : newline + 1;
+            int lineTokens = TokenEstimator.estimate(text.subSequence(start, end));
+            if (tokens + lineTokens > maxTokens) {
+                long omitted = text.substring(start).lines().count();
+                return text.substring(0, start) + "... (" + omitted + " lines omitted)";
+            }
+            tokens += lineTokens;
+            start = end;
+        }
+        return text;
+    }
+
+    // 函数体：左花括号之前的代码以 ) 或 => 结尾（允许 throws 子句），花括号单独成行时看上一行
+    private static String outlineBraces(String text, SourceLanguage language) {
+        StringBuilder out = new StringBuilder(text.length() / 2);
+        BraceCollector braces = new BraceCollector();
+        int state = SourceLanguage.CODE;
+        int depth = 0;
+        // 正在省略的函数体所在的外层深度，-1 表示未在省略
+        int elideDepth = -1;
+        String previousCode = "";
+        for (String line : text.split("\n", -1)) {
+            braces.reset(line);
+            state = language.lexLine(line, 0, line.length(), state, braces);
+            boolean eliding = elideDepth >= 0;
+            int cut = -1;
+            int resume = -1;
+            for (int k = 0; k < braces.count; k++) {
+                int position = braces.positions[k];
+                if (line.charAt(position) == '{') {
+                    if (elideDepth < 0 && cut < 0 && opensBody(line.substring(0, position), previousCode)) {
+                        elideDepth = depth;
+                        cut = position;
+                    }
+                    depth++;
+                } else {
+                    depth = Math.max(0, depth - 1);
+                    if (elideDepth >= 0 && depth == elideDepth) {
+                        elideDepth = -1;
+                        resume = position;
+                    }
+                }
+            }
+            if (!eliding && cut < 0) {
+                out.append(line).append('\n');
+            } else if (!eliding) {
+                out.append(line, 0, cut + 1).append(' ').append(ELIDED).append(" }");
+                if (resume >= 0) out.append(line, resume + 1, line.length());
+                out.append('\n');
+            } else if (resume >= 0) {
+                // 函数体在本行结束，把 }); 之类的收尾接到签名行后面
+                String tail = line.substring(resume + 1).strip();
+                if (!tail.isEmpty()) {
+                    out.setLength(out.length() - 1);
+                    out.append(tail).append('\n');
+                }
+            }
+            if (!line.isBlank()) previousCode = line.strip();
+        }
+        if (out.length() > 0) out.setLength(out.length() - 1);
+        return out.toString();
+    }
+
+    private static boolean opensBody(String beforeBrace, String previousCode) {
+        String code = beforeBrace.strip();
+        if (code.isEmpty()) code = previousCode;
+        if (code.endsWith(")") || code.endsWith("=>")) return true;
+        int close = code.lastIndexOf(')');
+        return close >= 0 && code.substring(close + 1).strip().startsWith("throws ");
+    }
+
+    // 记录一行中代码段里花括号的位置，字符串与注释中的花括号不计
+    private static final class BraceCollector implements SourceLanguage.SegmentSink {
+        private String line;
+        private int[] positions = new int[16];
+        private int count;
+
+        void reset(String line) {
+            this.line = line;
+            this.count = 0;
+        }
+
+        @Override
+        public void segment(int kind, int start, int end) {
+            if (kind != SourceLanguage.CODE) return;
+            for (int i = start; i < end; i++) {
+                char c = line.charAt(i);
+                if (c != '{' && c != '}') continue;
+                if (count == positions.length) positions = Arrays.copyOf(positions, count * 2);
+                positions[count++] = i;
+            }
+        }
+    }
+
+    // def 的函数体只保留单行 docstring，其余替换为 ...
+    private static String outlinePython(String text) {
+        StringBuilder out = new StringBuilder(text.length() / 2);
+        // 正在省略的函数体所属 def 的缩进，-1 表示未在省略
+        int defIndent = -1;
+        int signatureIndent = -1;
+        boolean bodyStarted = false;
+        for (String line : text.split("\n", -1)) {
+            int indent = indentOf(line);
+            String code = line.strip();
+            if (defIndent >= 0) {
+                if (code.isEmpty()) continue;
+                if (indent > defIndent) {
+                    if (!bodyStarted) {
+                        if (isOneLineDocstring(code)) out.append(line).append('\n');
+                        out.append(line, 0, indent).append(ELIDED).append('\n');
+                        bodyStarted = true;
+                    }
+                    continue;
+                }
+                defIndent = -1;
+            }
+            out.append(line).append('\n');
+            if (code.startsWith("def ") || code.startsWith("async def ")) {
+                signatureIndent = indent;
+            }
+            if (signatureIndent >= 0 && code.endsWith(":")) {
+                defIndent = signatureIndent;
+                signatureIndent = -1;
+                bodyStarted = false;
+            } else if (signatureIndent >= 0 && ONE_LINE_DEF.matcher(code).matches()) {
+                // def f(): return 1
+                signatureIndent = -1;
+            }
+        }
+        if (out.length() > 0) out.setLength(out.length() - 1);
+        return out.toString();
+    }
+
+    private static boolean isOneLineDocstring(String code) {
+        return code.length() >= 6 && (code.startsWith("\"\"\"") && code.endsWith("\"\"\"")
+                || code.startsWith("'''") && code.endsWith("'''"));
+    }
+
+    private static int indentOf(String line) {
+        int i = 0;
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) i++;
+        return i;
+    }
+
+    private static void appendNonBlank(StringBuilder out, CharSequence line) {
+        int end = line.length();
+        while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) end--;
+        if (end == 0) return;
+        if (out.length() > 0) out.append('\n');
+        out.append(line, 0, end);
+    }
+}
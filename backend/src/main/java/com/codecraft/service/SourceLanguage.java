@@ -0,0 +1,205 @@
+package com.codecraft.service;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 安全检查支持的源码语言及其词法规则。{@link #lexLine} 是一个逐行推进的轻量词法器：
+ * 只区分代码、字符串与注释，把代码段和字符串段回调给调用方，注释直接跳过。
+ * 跨行状态（块注释、多行字符串）编码为一个 int，逐行传递，可从任意行以已知状态重新开始。
+ */
+public enum SourceLanguage {
+
+    JAVA("java", new String[]{"//"}, true, "\"'", "\"", "", true, false,
+            Set.of("java"), Set.of("java")),
+    JAVASCRIPT("javascript", new String[]{"//"}, true, "\"'`", "", "`", true, false,
+            Set.of("js", "jsx", "mjs", "cjs", "ts", "tsx"),
+            Set.of("javascript", "typescript", "javascriptreact", "typescriptreact", "js", "ts")),
+    PYTHON("python", new String[]{"#"}, false, "\"'", "\"'", "", true, false,
+            Set.of("py"), Set.of("python", "py")),
+    SHELL("shell", new String[]{"#"}, false, "\"'", "", "\"'", true, true,
+            Set.of("sh", "bash", "zsh"), Set.of("shell", "shellscript", "sh", "bash", "zsh")),
+    SQL("sql", new String[]{"--"}, true, "'\"", "", "'\"", false, false,
+            Set.of("sql"), Set.of("sql", "mysql", "pgsql"));
+
+    public static final int CODE = 0;
+    public static final int STRING = 2;
+    private static final int BLOCK_COMMENT = 1;
+    private static final int KIND_MASK = 3;
+    private static final int TRIPLE = 4;
+
+    @FunctionalInterface
+    public interface SegmentSink {
+        /**
+         * kind 为 {@link #CODE} 或 {@link #STRING}，区间为 [start, end)。
+         */
+        void segment(int kind, int start, int end);
+    }
+
+    private final String id;
+    private final String[] lineComments;
+    private final boolean blockComments;
+    private final String quotes;
+    // 可三连作为多行字符串定界符的引号（Java 文本块、Python 三引号）
+    private final String tripleQuotes;
+    // 单个引号即可跨行的字符串（JS 模板字符串、SQL 与 Shell 字符串）
+    private final String multilineQuotes;
+    private final boolean escapes;
+    // Shell：单引号内反斜杠不转义，且 # 只在词首才开始注释
+    private final boolean shellRules;
+    private final Set<String> extensions;
+    private final Set<String> editorIds;
+    // 可能开始注释或字符串的 ASCII 字符
+    private final boolean[] tokenStarts = new boolean[128];
+
+    SourceLanguage(String id, String[] lineComments, boolean blockComments, String quotes, String tripleQuotes,
+                   String multilineQuotes, boolean escapes, boolean shellRules,
+                   Set<String> extensions, Set<String> editorIds) {
+        this.id = id;
+        this.lineComments = lineComments;
+        this.blockComments = blockComments;
+        this.quotes = quotes;
+        this.tripleQuotes = tripleQuotes;
+        this.multilineQuotes = multilineQuotes;
+        this.escapes = escapes;
+        this.shellRules = shellRules;
+        this.extensions = extensions;
+        this.editorIds = editorIds;
+        for (String marker : lineComments) tokenStarts[marker.charAt(0)] = true;
+        for (char quote : quotes.toCharArray()) tokenStarts[quote] = true;
+        if (blockComments) tokenStarts['/'] = true;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public static SourceLanguage fromId(String id) {
+        for (SourceLanguage language : values()) {
+            if (language.id.equalsIgnoreCase(id)) return language;
+        }
+        return null;
+    }
+
+    /**
+     * 优先按编辑器语言 id 判断，其次按文件扩展名；都无法识别时返回 null（按纯文本处理）。
+     */
+    public static SourceLanguage detect(String fileName, String editorLanguage) {
+        if (editorLanguage != null && !editorLanguage.isBlank()) {
+            String normalized = editorLanguage.trim().toLowerCase(Locale.ROOT);
+            for (SourceLanguage language : values()) {
+                if (language.editorIds.contains(normalized)) return language;
+            }
+        }
+        if (fileName != null) {
+            int dot = fileName.lastIndexOf('.');
+            if (dot >= 0 && dot < fileName.length() - 1) {
+                String extension = fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+                for (SourceLanguage language : values()) {
+                    if (language.extensions.contains(extension)) return language;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 词法分析 [from, to) 这一行，state 为上一行结束时的返回值（首行为 {@link #CODE}），返回本行结束时的状态。
+     */
+    public int lexLine(CharSequence text, int from, int to, int state, SegmentSink sink) {
+        int i = from;
+        int stringStart = from;
+        while (i < to) {
+            int kind = state & KIND_MASK;
+            if (kind == BLOCK_COMMENT) {
+                int close = indexOfBlockEnd(text, i, to);
+                if (close < 0) return state;
+                state = CODE;
+                i = close + 2;
+                continue;
+            }
+            if (kind == STRING) {
+                char delimiter = (char) (state >>> 8);
+                boolean triple = (state & TRIPLE) != 0;
+                boolean escapable = escapes && !(shellRules && delimiter == '\'');
+                while (i < to) {
+                    char c = text.charAt(i);
+                    if (c == '\\' && escapable) {
+                        i += 2;
+                    } else if (c == delimiter && (!triple || repeats(text, i, to, delimiter))) {
+                        i += triple ? 3 : 1;
+                        state = CODE;
+                        break;
+                    } else {
+                        i++;
+                    }
+                }
+                i = Math.min(i, to);
+                sink.segment(STRING, stringStart, i);
+                continue;
+            }
+            // 代码段内只在可能开始注释或字符串的字符上停下
+            int codeStart = i;
+            char c = 0;
+            while (i < to) {
+                c = text.charAt(i);
+                if (c < 128 && tokenStarts[c] && startsToken(text, i, to, from)) break;
+                i++;
+            }
+            if (i > codeStart) sink.segment(CODE, codeStart, i);
+            if (i == to) break;
+            if (quotes.indexOf(c) >= 0) {
+                boolean triple = tripleQuotes.indexOf(c) >= 0 && repeats(text, i, to, c);
+                stringStart = i;
+                state = STRING | (c << 8) | (triple ? TRIPLE : 0);
+                i += triple ? 3 : 1;
+            } else if (isBlockStart(text, i, to)) {
+                state = BLOCK_COMMENT;
+                i += 2;
+            } else {
+                // 行注释，跳过本行剩余部分
+                return state;
+            }
+        }
+        // 普通引号字符串不能跨行，行尾未闭合时视为结束
+        if ((state & KIND_MASK) == STRING && (state & TRIPLE) == 0
+                && multilineQuotes.indexOf((char) (state >>> 8)) < 0) {
+            state = CODE;
+        }
+        return state;
+    }
+
+    private boolean startsToken(CharSequence text, int i, int to, int lineStart) {
+        return quotes.indexOf(text.charAt(i)) >= 0 || isBlockStart(text, i, to) || startsLineComment(text, i, to, lineStart);
+    }
+
+    private boolean isBlockStart(CharSequence text, int i, int to) {
+        return blockComments && text.charAt(i) == '/' && i + 1 < to && text.charAt(i + 1) == '*';
+    }
+
+    private static int indexOfBlockEnd(CharSequence text, int from, int to) {
+        for (int k = from; k + 1 < to; k++) {
+            if (text.charAt(k) == '*' && text.charAt(k + 1) == '/') return k;
+        }
+        return -1;
+    }
+
+    private boolean startsLineComment(CharSequence text, int i, int to, int lineStart) {
+        for (String marker : lineComments) {
+            if (i + marker.length() > to) continue;
+            boolean matches = true;
+            for (int k = 0; k < marker.length() && matches; k++) {
+                matches = text.charAt(i + k) == marker.charAt(k);
+            }
+            if (!matches) continue;
+            // Shell 中 $# 或 a#b 不是注释
+            if (shellRules && i > lineStart && !Character.isWhitespace(text.charAt(i - 1))) continue;
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean repeats(CharSequence text, int i, int to, char quote) {
+        return i + 2 < to && text.charAt(i + 1) == quote && text.charAt(i + 2) == quote;
+    }
+}
@@ -0,0 +1,32 @@
+package com.codecraft.service;
+
+/**
+ * 本地 token 估算，不依赖具体模型的分词表：ASCII 单词/标识符约每 4 个字符 1 个 token，
+ * 标点各算 1 个，空白中只有换行计 1 个，CJK 等非 ASCII 字符每字 1 个。只用于预算判断与统计，结果偏保守。
+ */
+public final class TokenEstimator {
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null) return 0;
+        int tokens = 0;
+        int word = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 128 && (Character.isLetterOrDigit(c) || c == '_')) {
+                word++;
+                continue;
+            }
+            if (word > 0) {
+                tokens += (word + 3) / 4;
+                word = 0;
+            }
+            if (c != ' ' && c != '\t' && c != '\r') {
+                tokens++;
+            }
+        }
+        return tokens + (word + 3) / 4;
+    }
+}
@@ -0,0 +1,19 @@
+package com.codecraft.service;
+
+import lombok.Getter;
+
+/**
+ * 上游调度队列已满，调用方应在 retryAfterSeconds 秒后重试（对应 HTTP 429）。
+ */
+@Getter
+public class UpstreamBusyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public UpstreamBusyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
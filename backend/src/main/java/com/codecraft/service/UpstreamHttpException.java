@@ -0,0 +1,30 @@
+package com.codecraft.service;
+
+import lombok.Getter;
+
+/**
+ * 上游返回了错误状态码。retryAfterSeconds 来自响应头 Retry-After，没有时为 -1。
+ */
+@Getter
+public class UpstreamHttpException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String provider;
+    private final int statusCode;
+    private final long retryAfterSeconds;
+
+    public UpstreamHttpException(String provider, int statusCode, long retryAfterSeconds, String body) {
+        super(provider + " 调用失败: " + statusCode + " " + body);
+        this.provider = provider;
+        this.statusCode = statusCode;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * 429 与 5xx 视为暂时性错误，可以重试。
+     */
+    public boolean isTransient() {
+        return statusCode == 429 || statusCode >= 500;
+    }
+}
@@ -0,0 +1,136 @@
+package com.codecraft.service;
+
+import com.codecraft.config.ResilienceProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 上游调用的弹性策略：熔断保护、带抖动的指数退避重试（优先遵循 Retry-After）以及对冲请求的触发条件。
+ */
+@Component
+public class UpstreamResilience {
+
+    private final ResilienceProperties properties;
+
+    public UpstreamResilience(ResilienceProperties properties) {
+        this.properties = properties;
+    }
+
+    public CircuitBreaker newBreaker(String name) {
+        return new CircuitBreaker(name, properties.getBreaker());
+    }
+
+    /**
+     * 熔断器打开时直接以 {@link CircuitOpenException} 结束，否则执行 call 并把结果计入熔断器。
+     */
+    public <T> Mono<T> guard(CircuitBreaker breaker, String provider, Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            if (!breaker.tryAcquire()) {
+                return Mono.error(new CircuitOpenException(provider, breaker.retryAfterSeconds()));
+            }
+            AtomicBoolean recorded = new AtomicBoolean();
+            return call.get()
+                    .doOnSuccess(result -> {
+                        if (recorded.compareAndSet(false, true)) breaker.onSuccess();
+                    })
+                    .doOnError(ex -> {
+                        if (recorded.compareAndSet(false, true)) recordError(breaker, ex);
+                    })
+                    .doOnCancel(() -> {
+                        if (recorded.compareAndSet(false, true)) breaker.onIgnored();
+                    });
+        });
+    }
+
+    /**
+     * 流式版本：收到首个元素即视为成功，之后的错误不再计入熔断器。
+     */
+    public <T> Flux<T> guardMany(CircuitBreaker breaker, String provider, Supplier<Flux<T>> call) {
+        return Flux.defer(() -> {
+            if (!breaker.tryAcquire()) {
+                return Flux.error(new CircuitOpenException(provider, breaker.retryAfterSeconds()));
+            }
+            AtomicBoolean recorded = new AtomicBoolean();
+            return call.get()
+                    .doOnNext(item -> {
+                        if (recorded.compareAndSet(false, true)) breaker.onSuccess();
+                    })
+                    .doOnComplete(() -> {
+                        if (recorded.compareAndSet(false, true)) breaker.onSuccess();
+                    })
+                    .doOnError(ex -> {
+                        if (recorded.compareAndSet(false, true)) recordError(breaker, ex);
+                    })
+                    .doOnCancel(() -> {
+                        if (recorded.compareAndSet(false, true)) breaker.onIgnored();
+                    });
+        });
+    }
+
+    /**
+     * 只重试暂时性错误（429、5xx、连接失败），allowed 返回 false 时不再重试（如流式调用已输出内容）。
+     */
+    public Retry retrySpec(BooleanSupplier allowed) {
+        ResilienceProperties.Retry config = properties.getRetry();
+        return Retry.from(signals -> signals.concatMap(signal -> {
+            Throwable failure = signal.failure();
+            if (signal.totalRetries() >= config.getMaxRetries() || !allowed.getAsBoolean() || !isRetryable(failure)) {
+                return Mono.error(failure);
+            }
+            Duration delay = retryDelay(signal.totalRetries(), failure);
+            return delay == null ? Mono.error(failure) : Mono.delay(delay);
+        }));
+    }
+
+    public boolean shouldHedge(String type) {
+        ResilienceProperties.Hedge hedge = properties.getHedge();
+        return hedge.isEnabled() && type != null && hedge.getTypes().contains(type);
+    }
+
+    /**
+     * 对冲延迟取端点近期延迟的分位数，样本不足时取 minDelayMs。
+     */
+    Duration hedgeDelay(LatencyWindow latencies) {
+        ResilienceProperties.Hedge hedge = properties.getHedge();
+        long delay = hedge.getMinDelayMs();
+        if (latencies.size() >= hedge.getMinSamples()) {
+            delay = Math.max(delay, latencies.percentile(hedge.getPercentile()));
+        }
+        return Duration.ofMillis(delay);
+    }
+
+    static boolean isRetryable(Throwable ex) {
+        if (ex instanceof UpstreamHttpException http) return http.isTransient();
+        return ex instanceof WebClientRequestException;
+    }
+
+    // 返回 null 表示上游要求的等待时间过长，不值得在同一端点上等待
+    Duration retryDelay(long retriesSoFar, Throwable failure) {
+        ResilienceProperties.Retry config = properties.getRetry();
+        if (failure instanceof UpstreamHttpException http && http.getRetryAfterSeconds() >= 0) {
+            if (http.getRetryAfterSeconds() > config.getMaxRetryAfterSeconds()) return null;
+            return Duration.ofSeconds(http.getRetryAfterSeconds());
+        }
+        // 全抖动：在 [0, min(max, initial * 2^n)] 内随机取值，避免大量请求同时重试
+        long cap = Math.min(config.getMaxBackoffMs(), config.getInitialBackoffMs() << Math.min(retriesSoFar, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(cap + 1));
+    }
+
+    // 4xx（429 除外）是请求本身的问题，与端点健康无关
+    private static void recordError(CircuitBreaker breaker, Throwable ex) {
+        if (ex instanceof UpstreamHttpException http && !http.isTransient()) {
+            breaker.onIgnored();
+        } else {
+            breaker.onFailure();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.codecraft.service;
+
+/**
+ * 上游返回成功状态码但响应内容无法使用（无 choices、格式错误等），对应 HTTP 502。
+ */
+public class UpstreamResponseException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public UpstreamResponseException(String message) {
+        super(message);
+    }
+
+    public UpstreamResponseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,289 @@
+package com.codecraft.service;
+
+import com.codecraft.entity.UserRole;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 上游调用调度器：限制全局与单用户的在途请求数，超出的请求排队等待。
+ * 队列分两个优先级（ADMIN/MEMBER 高，USER 低），同一优先级内按用户轮转出队，避免单个用户占满队列头部；
+ * 高优先级连续出队 priority-weight 次后让低优先级出队一次，防止饿死。队列满时直接拒绝并给出 Retry-After。
+ */
+@Component
+@Slf4j
+public class UpstreamScheduler {
+
+    private final int maxInFlight;
+    private final int perUserMaxInFlight;
+    private final int maxQueueDepth;
+    private final int priorityWeight;
+
+    private final Object lock = new Object();
+    private final FairQueue high = new FairQueue();
+    private final FairQueue low = new FairQueue();
+    private final Map<String, Integer> userInFlight = new HashMap<>();
+    private int inFlight;
+    private int queued;
+    private int highStreak;
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalWaitMs = new LongAdder();
+    private final AtomicLong maxWaitMs = new AtomicLong();
+    // 上游调用耗时的指数滑动平均，用于估算 Retry-After
+    private volatile double avgCallMs = 1000;
+
+    public UpstreamScheduler(@Value("${ai.scheduler.max-in-flight:32}") int maxInFlight,
+                             @Value("${ai.scheduler.per-user-max-in-flight:4}") int perUserMaxInFlight,
+                             @Value("${ai.scheduler.max-queue-depth:200}") int maxQueueDepth,
+                             @Value("${ai.scheduler.priority-weight:4}") int priorityWeight) {
+        this.maxInFlight = maxInFlight;
+        this.perUserMaxInFlight = perUserMaxInFlight;
+        this.maxQueueDepth = maxQueueDepth;
+        this.priorityWeight = priorityWeight;
+    }
+
+    public <T> Mono<T> schedule(String username, UserRole role, Supplier<Mono<T>> call) {
+        return scheduleMany(username, role, () -> call.get().flux()).singleOrEmpty();
+    }
+
+    /**
+     * 获得执行槽位后才订阅 call 返回的上游；下游取消时若仍在排队则出队，若已执行则取消上游。
+     */
+    public <T> Flux<T> scheduleMany(String username, UserRole role, Supplier<Flux<T>> call) {
+        return Flux.create(sink -> {
+            Waiter<T> waiter = new Waiter<>(username, isHighPriority(role), call, sink);
+            sink.onCancel(() -> {
+                if (!dequeue(waiter)) {
+                    waiter.cancel();
+                }
+            });
+            List<Waiter<?>> toStart;
+            synchronized (lock) {
+                // 能立即执行的请求不受队列深度限制
+                if (queued >= maxQueueDepth && !canStart(username)) {
+                    toStart = null;
+                } else {
+                    (waiter.highPriority ? high : low).add(waiter);
+                    queued++;
+                    toStart = drain();
+                }
+            }
+            if (toStart == null) {
+                rejected.increment();
+                log.warn("上游调度队列已满，拒绝用户 {} 的请求", username);
+                sink.error(new UpstreamBusyException("当前请求过多，请稍后重试", estimateRetryAfterSeconds()));
+                return;
+            }
+            toStart.forEach(Waiter::start);
+        });
+    }
+
+    public SchedulerStats stats() {
+        SchedulerStats stats = new SchedulerStats();
+        synchronized (lock) {
+            stats.setInFlight(inFlight);
+            stats.setQueued(queued);
+        }
+        stats.setMaxInFlight(maxInFlight);
+        stats.setPerUserMaxInFlight(perUserMaxInFlight);
+        stats.setMaxQueueDepth(maxQueueDepth);
+        long startedCount = started.sum();
+        stats.setStarted(startedCount);
+        stats.setRejected(rejected.sum());
+        stats.setAvgQueueWaitMs(startedCount == 0 ? 0 : totalWaitMs.sum() / startedCount);
+        stats.setMaxQueueWaitMs(maxWaitMs.get());
+        return stats;
+    }
+
+    private static boolean isHighPriority(UserRole role) {
+        return role == UserRole.ADMIN || role == UserRole.MEMBER;
+    }
+
+    private boolean canStart(String username) {
+        return inFlight < maxInFlight && userHasCapacity(username);
+    }
+
+    private void acquire(String username) {
+        inFlight++;
+        userInFlight.merge(username, 1, Integer::sum);
+    }
+
+    private void release(String username, long callMs) {
+        avgCallMs = avgCallMs * 0.9 + callMs * 0.1;
+        List<Waiter<?>> toStart;
+        synchronized (lock) {
+            inFlight--;
+            userInFlight.computeIfPresent(username, (k, v) -> v > 1 ? v - 1 : null);
+            toStart = drain();
+        }
+        toStart.forEach(Waiter::start);
+    }
+
+    // 在容量允许范围内取出可执行的请求并占用槽位；调用方需持有 lock，且在锁外启动返回的请求
+    private List<Waiter<?>> drain() {
+        List<Waiter<?>> toStart = new ArrayList<>();
+        Waiter<?> next;
+        while (inFlight < maxInFlight && (next = pollNext()) != null) {
+            queued--;
+            acquire(next.username);
+            toStart.add(next);
+        }
+        return toStart;
+    }
+
+    // 调用方需持有 lock
+    private Waiter<?> pollNext() {
+        boolean preferLow = highStreak >= priorityWeight;
+        Waiter<?> next = preferLow ? low.poll(this::userHasCapacity) : null;
+        if (next != null) {
+            highStreak = 0;
+            return next;
+        }
+        next = high.poll(this::userHasCapacity);
+        if (next != null) {
+            highStreak++;
+            return next;
+        }
+        next = low.poll(this::userHasCapacity);
+        if (next != null) {
+            highStreak = 0;
+        }
+        return next;
+    }
+
+    private boolean userHasCapacity(String username) {
+        return userInFlight.getOrDefault(username, 0) < perUserMaxInFlight;
+    }
+
+    private boolean dequeue(Waiter<?> waiter) {
+        synchronized (lock) {
+            if ((waiter.highPriority ? high : low).remove(waiter)) {
+                queued--;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private long estimateRetryAfterSeconds() {
+        int depth;
+        synchronized (lock) {
+            depth = queued;
+        }
+        double seconds = avgCallMs * Math.max(1, depth) / Math.max(1, maxInFlight) / 1000;
+        return Math.max(1, Math.min(60, (long) Math.ceil(seconds)));
+    }
+
+    private void recordWait(long waitMs) {
+        started.increment();
+        totalWaitMs.add(waitMs);
+        maxWaitMs.accumulateAndGet(waitMs, Math::max);
+    }
+
+    /**
+     * 单一优先级内的排队结构：每个用户一个 FIFO，用户之间按轮转顺序出队。
+     */
+    private static final class FairQueue {
+        private final LinkedHashMap<String, ArrayDeque<Waiter<?>>> byUser = new LinkedHashMap<>();
+
+        void add(Waiter<?> waiter) {
+            byUser.computeIfAbsent(waiter.username, k -> new ArrayDeque<>()).addLast(waiter);
+        }
+
+        Waiter<?> poll(Predicate<String> eligible) {
+            Iterator<Map.Entry<String, ArrayDeque<Waiter<?>>>> it = byUser.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, ArrayDeque<Waiter<?>>> entry = it.next();
+                if (!eligible.test(entry.getKey())) continue;
+                ArrayDeque<Waiter<?>> waiters = entry.getValue();
+                Waiter<?> waiter = waiters.pollFirst();
+                it.remove();
+                // 被选中的用户移到轮转末尾
+                if (!waiters.isEmpty()) {
+                    byUser.put(entry.getKey(), waiters);
+                }
+                return waiter;
+            }
+            return null;
+        }
+
+        boolean remove(Waiter<?> waiter) {
+            ArrayDeque<Waiter<?>> waiters = byUser.get(waiter.username);
+            if (waiters == null || !waiters.remove(waiter)) return false;
+            if (waiters.isEmpty()) byUser.remove(waiter.username);
+            return true;
+        }
+    }
+
+    private final class Waiter<T> {
+        private final String username;
+        private final boolean highPriority;
+        private final Supplier<Flux<T>> call;
+        private final FluxSink<T> sink;
+        private final long enqueuedAt = System.nanoTime();
+        private volatile Disposable subscription;
+        private volatile boolean cancelled;
+
+        Waiter(String username, boolean highPriority, Supplier<Flux<T>> call, FluxSink<T> sink) {
+            this.username = username;
+            this.highPriority = highPriority;
+            this.call = call;
+            this.sink = sink;
+        }
+
+        void start() {
+            long startedAt = System.nanoTime();
+            recordWait((startedAt - enqueuedAt) / 1_000_000);
+            if (cancelled) {
+                release(username, 0);
+                return;
+            }
+            subscription = Flux.defer(call)
+                    .doFinally(signal -> release(username, (System.nanoTime() - startedAt) / 1_000_000))
+                    .subscribe(sink::next, sink::error, sink::complete);
+            if (cancelled) {
+                subscription.dispose();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            Disposable current = subscription;
+            if (current != null) {
+                current.dispose();
+            }
+        }
+    }
+
+    @Data
+    public static class SchedulerStats {
+        private int inFlight;
+        private int queued;
+        private int maxInFlight;
+        private int perUserMaxInFlight;
+        private int maxQueueDepth;
+        private long started;
+        private long rejected;
+        private long avgQueueWaitMs;
+        private long maxQueueWaitMs;
+    }
+}
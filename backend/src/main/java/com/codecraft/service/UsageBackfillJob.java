@@ -0,0 +1,69 @@
+package com.codecraft.service;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+
+/**
+ * 从 ai_request_logs 回填 ai_usage_daily。逐天重建，每天在日志写入器暂停期间完成，避免与增量累加重复计数。
+ * 启动时若汇总表为空且开启 backfill-on-startup，自动回填全部历史。
+ */
+@Component
+@Slf4j
+public class UsageBackfillJob {
+
+    private final RequestLogWriter logWriter;
+    private final UsageRollupService usageRollup;
+    private final boolean backfillOnStartup;
+
+    public UsageBackfillJob(RequestLogWriter logWriter,
+                            UsageRollupService usageRollup,
+                            @Value("${ai.usage.backfill-on-startup:true}") boolean backfillOnStartup) {
+        this.logWriter = logWriter;
+        this.usageRollup = usageRollup;
+        this.backfillOnStartup = backfillOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillIfEmpty() {
+        if (!backfillOnStartup || !usageRollup.isEmpty()) return;
+        BackfillResult result = backfill(null, null);
+        if (result.getDays() > 0) {
+            log.info("用量汇总表回填完成：{} 至 {}，共 {} 天 {} 行", result.getFrom(), result.getTo(), result.getDays(), result.getRows());
+        }
+    }
+
+    /**
+     * 重建 [from, to] 每一天的汇总；from 为空或早于最早一条日志时从最早一条日志开始，to 为空时到今天为止。
+     */
+    public BackfillResult backfill(LocalDate from, LocalDate to) {
+        BackfillResult result = new BackfillResult();
+        // 早于最早一条日志的天可能已被归档清理，重建会把汇总清零，因此不早于最早日志
+        LocalDate earliest = usageRollup.earliestLogDate().orElse(null);
+        LocalDate start = from == null || (earliest != null && from.isBefore(earliest)) ? earliest : from;
+        LocalDate end = to != null ? to : LocalDate.now();
+        if (start == null || start.isAfter(end)) return result;
+        result.setFrom(start);
+        result.setTo(end);
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+            LocalDate current = day;
+            int rows = logWriter.runExclusive(() -> usageRollup.rebuildDay(current));
+            result.setDays(result.getDays() + 1);
+            result.setRows(result.getRows() + rows);
+        }
+        return result;
+    }
+
+    @Data
+    public static class BackfillResult {
+        private LocalDate from;
+        private LocalDate to;
+        private int days;
+        private long rows;
+    }
+}
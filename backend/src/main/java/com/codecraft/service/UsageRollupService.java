@@ -0,0 +1,96 @@
+package com.codecraft.service;
+
+import com.codecraft.entity.RequestLog;
+import com.codecraft.repository.AiUsageDailyRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 维护 ai_usage_daily 汇总表：写日志时按批增量累加，另提供按天从原始日志重建的能力。
+ * 用量查询只读汇总表，耗时与原始日志的数据量无关。
+ */
+@Service
+public class UsageRollupService {
+
+    static final String UNKNOWN_TYPE = "unknown";
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO ai_usage_daily (username, usage_date, request_type, request_count) VALUES (?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE request_count = request_count + VALUES(request_count)";
+    private static final String DELETE_DAY_SQL = "DELETE FROM ai_usage_daily WHERE usage_date = ?";
+    private static final String REBUILD_DAY_SQL =
+            "INSERT INTO ai_usage_daily (username, usage_date, request_type, request_count) " +
+                    "SELECT username, ?, COALESCE(request_type, '" + UNKNOWN_TYPE + "'), SUM(units) FROM ai_request_logs " +
+                    "WHERE username IS NOT NULL AND created_at >= ? AND created_at < ? " +
+                    "GROUP BY username, COALESCE(request_type, '" + UNKNOWN_TYPE + "')";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final AiUsageDailyRepository usageDailyRepository;
+
+    public UsageRollupService(JdbcTemplate jdbcTemplate,
+                              TransactionTemplate transactionTemplate,
+                              AiUsageDailyRepository usageDailyRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.usageDailyRepository = usageDailyRepository;
+    }
+
+    /**
+     * 把一批刚写入的日志累加到汇总表。应与日志插入处于同一事务，保证两边一致；没有用户名的日志不计入。
+     */
+    public void applyBatch(List<RequestLog> batch) {
+        Map<RollupKey, Long> increments = new LinkedHashMap<>();
+        for (RequestLog item : batch) {
+            if (item.getUsername() == null) continue;
+            String type = item.getRequestType() == null ? UNKNOWN_TYPE : item.getRequestType();
+            increments.merge(new RollupKey(item.getUsername(), item.getCreatedAt().toLocalDate(), type), (long) item.getUnits(), Long::sum);
+        }
+        if (increments.isEmpty()) return;
+        List<Map.Entry<RollupKey, Long>> rows = new ArrayList<>(increments.entrySet());
+        jdbcTemplate.batchUpdate(UPSERT_SQL, rows, rows.size(), (ps, row) -> {
+            ps.setString(1, row.getKey().username());
+            ps.setDate(2, Date.valueOf(row.getKey().day()));
+            ps.setString(3, row.getKey().type());
+            ps.setLong(4, row.getValue());
+        });
+    }
+
+    /**
+     * 用原始日志重建某一天的汇总，返回写入的汇总行数。调用方需保证期间没有并发的增量写入。
+     */
+    public int rebuildDay(LocalDate day) {
+        Integer rows = transactionTemplate.execute(status -> {
+            jdbcTemplate.update(DELETE_DAY_SQL, Date.valueOf(day));
+            return jdbcTemplate.update(REBUILD_DAY_SQL, Date.valueOf(day),
+                    Timestamp.valueOf(day.atStartOfDay()), Timestamp.valueOf(day.plusDays(1).atStartOfDay()));
+        });
+        return rows == null ? 0 : rows;
+    }
+
+    public Optional<LocalDate> earliestLogDate() {
+        Timestamp earliest = jdbcTemplate.queryForObject("SELECT MIN(created_at) FROM ai_request_logs", Timestamp.class);
+        return Optional.ofNullable(earliest).map(ts -> ts.toLocalDateTime().toLocalDate());
+    }
+
+    public boolean isEmpty() {
+        return usageDailyRepository.count() == 0;
+    }
+
+    public long totalFor(String username) {
+        return usageDailyRepository.sumByUsername(username);
+    }
+
+    private record RollupKey(String username, LocalDate day, String type) {
+    }
+}
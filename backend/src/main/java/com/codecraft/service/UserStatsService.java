@@ -0,0 +1,95 @@
+package com.codecraft.service;
+
+import com.codecraft.entity.User;
+import com.codecraft.repository.AiUsageDailyRepository;
+import com.codecraft.repository.UserRepository;
+import lombok.Data;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.JpaSort;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 管理后台的用户用量统计：先按页取用户，再对 ai_usage_daily 汇总表做一次分组聚合，取这一页用户的总数、今日、近 7 天与按类型计数。
+ */
+@Service
+public class UserStatsService {
+
+    public static final int MAX_PAGE_SIZE = 500;
+    public static final String SORT_TOTAL_REQUESTS = "totalRequests";
+    private static final Set<String> USER_SORT_FIELDS = Set.of(
+            User.Fields.id, User.Fields.username, User.Fields.role, User.Fields.createdAt, User.Fields.updatedAt);
+
+    private final UserRepository userRepository;
+    private final AiUsageDailyRepository usageDailyRepository;
+
+    public UserStatsService(UserRepository userRepository, AiUsageDailyRepository usageDailyRepository) {
+        this.userRepository = userRepository;
+        this.usageDailyRepository = usageDailyRepository;
+    }
+
+    /**
+     * sort 可取 id、username、role、createdAt、updatedAt 或 totalRequests，非法值按 id 排序。
+     */
+    public Page<User> pageUsers(int page, int size, String sort, boolean ascending) {
+        Sort.Direction direction = ascending ? Sort.Direction.ASC : Sort.Direction.DESC;
+        int pageSize = Math.max(1, Math.min(MAX_PAGE_SIZE, size));
+        int pageIndex = Math.max(0, page);
+        if (SORT_TOTAL_REQUESTS.equals(sort)) {
+            // 次级按 id 排序，保证分页稳定
+            Sort byCount = JpaSort.unsafe(direction, "coalesce(sum(d.requestCount), 0)").and(Sort.by(Sort.Direction.ASC, User.Fields.id));
+            return userRepository.findAllWithRequestCount(PageRequest.of(pageIndex, pageSize, byCount));
+        }
+        String field = USER_SORT_FIELDS.contains(sort) ? sort : User.Fields.id;
+        Sort bySort = Sort.by(direction, field);
+        if (!User.Fields.id.equals(field)) {
+            bySort = bySort.and(Sort.by(Sort.Direction.ASC, User.Fields.id));
+        }
+        return userRepository.findAll(PageRequest.of(pageIndex, pageSize, bySort));
+    }
+
+    /**
+     * 返回每个用户名对应的统计；没有任何请求的用户也会有一条全 0 的记录。
+     */
+    public Map<String, UserStats> statsFor(Collection<String> usernames) {
+        Map<String, UserStats> result = new HashMap<>();
+        if (usernames.isEmpty()) return result;
+        for (String username : usernames) {
+            result.put(username, new UserStats());
+        }
+        LocalDate today = LocalDate.now();
+        List<Object[]> rows = usageDailyRepository.aggregateByUsernames(usernames, today, today.minusDays(6));
+        for (Object[] row : rows) {
+            UserStats stats = result.get((String) row[0]);
+            if (stats == null) continue;
+            String type = (String) row[1];
+            long total = toLong(row[2]);
+            stats.setTotalRequests(stats.getTotalRequests() + total);
+            stats.setTodayRequests(stats.getTodayRequests() + toLong(row[3]));
+            stats.setLast7DaysRequests(stats.getLast7DaysRequests() + toLong(row[4]));
+            stats.getRequestsByType().merge(type, total, Long::sum);
+        }
+        return result;
+    }
+
+    private static long toLong(Object value) {
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    @Data
+    public static class UserStats {
+        private long totalRequests;
+        private long todayRequests;
+        private long last7DaysRequests;
+        private Map<String, Long> requestsByType = new LinkedHashMap<>();
+    }
+}
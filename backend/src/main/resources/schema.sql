@@ -1,11 +1,18 @@
+-- ai.log.storage.partitioned 开启时由 RequestLogRetentionJob 转换为按 created_at 月份的 RANGE COLUMNS 分区表并维护分区；
+-- 分区列必须包含在主键中，因此主键为 (id, created_at)
 CREATE TABLE IF NOT EXISTS ai_request_logs (
-                                               id BIGINT NOT NULL AUTO_INCREMENT COMMENT '主键ID',
-                                               request_type VARCHAR(50) DEFAULT NULL COMMENT '请求类型: comment, explain, document',
+    id BIGINT NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+    request_type VARCHAR(50) DEFAULT NULL COMMENT '请求类型: comment, explain, document',
     file_name VARCHAR(255) DEFAULT NULL COMMENT '文件名',
     username VARCHAR(255) DEFAULT NULL COMMENT '用户名',
-    prompt_snippet TEXT COMMENT '发送给AI的代码片段(前500字符)',
-    created_at DATETIME(6) DEFAULT NULL COMMENT '创建时间',
-    PRIMARY KEY (id)
+    snippet_hash CHAR(64) DEFAULT NULL COMMENT '代码片段 SHA-256，内容见 ai_prompt_snippets',
+    prompt_tokens_raw INT DEFAULT NULL COMMENT '压缩前估算的 prompt token 数',
+    prompt_tokens INT DEFAULT NULL COMMENT '实际发送的 prompt token 数',
+    units INT NOT NULL DEFAULT 1 COMMENT '计入配额与用量的次数，分块文档任务为 chunk 数',
+    created_at DATETIME(6) NOT NULL COMMENT '创建时间',
+    PRIMARY KEY (id, created_at),
+    KEY idx_ai_request_logs_username_created (username, created_at),
+    KEY idx_ai_request_logs_created_username (created_at, username)
     ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='AI请求日志表';
 
 CREATE TABLE IF NOT EXISTS users (
@@ -17,3 +24,51 @@ CREATE TABLE IF NOT EXISTS users (
     updated_at DATETIME(6) DEFAULT NULL,
     PRIMARY KEY (id)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='系统用户';
+
+CREATE TABLE IF NOT EXISTS ai_response_cache (
+    cache_key CHAR(64) NOT NULL COMMENT '请求内容 SHA-256',
+    response LONGTEXT COMMENT 'AI 响应内容',
+    created_at DATETIME(6) DEFAULT NULL,
+    expires_at DATETIME(6) DEFAULT NULL,
+    PRIMARY KEY (cache_key),
+    KEY idx_ai_response_cache_expires (expires_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='AI 响应持久化缓存';
+
+CREATE TABLE IF NOT EXISTS ai_usage_daily (
+    username VARCHAR(100) NOT NULL,
+    usage_date DATE NOT NULL,
+    request_type VARCHAR(50) NOT NULL COMMENT '请求类型，缺失时为 unknown',
+    request_count BIGINT NOT NULL DEFAULT 0,
+    PRIMARY KEY (username, usage_date, request_type)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='按天汇总的调用次数';
+
+CREATE TABLE IF NOT EXISTS ai_jobs (
+    id VARCHAR(36) NOT NULL,
+    username VARCHAR(100) DEFAULT NULL,
+    request_type VARCHAR(50) DEFAULT NULL,
+    file_name VARCHAR(255) DEFAULT NULL,
+    status VARCHAR(20) DEFAULT NULL COMMENT 'QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED',
+    payload LONGTEXT COMMENT '调用参数 JSON',
+    result LONGTEXT,
+    error VARCHAR(1000) DEFAULT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    created_at DATETIME(6) DEFAULT NULL,
+    started_at DATETIME(6) DEFAULT NULL,
+    finished_at DATETIME(6) DEFAULT NULL,
+    lease_until DATETIME(6) DEFAULT NULL,
+    expires_at DATETIME(6) DEFAULT NULL,
+    PRIMARY KEY (id),
+    KEY idx_ai_jobs_status_created (status, created_at),
+    KEY idx_ai_jobs_username_status (username, status),
+    KEY idx_ai_jobs_expires (expires_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='异步 AI 任务';
+
+CREATE TABLE IF NOT EXISTS ai_prompt_snippets (
+    hash CHAR(64) NOT NULL COMMENT '片段内容 SHA-256',
+    content LONGBLOB COMMENT 'deflate 压缩后的片段内容',
+    char_count INT NOT NULL DEFAULT 0 COMMENT '解压后的字符数',
+    created_at DATETIME(6) DEFAULT NULL,
+    last_seen_at DATETIME(6) DEFAULT NULL COMMENT '最近一条引用它的日志时间',
+    PRIMARY KEY (hash),
+    KEY idx_ai_prompt_snippets_last_seen (last_seen_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='去重压缩的请求日志代码片段';
@@ -1,26 +1,78 @@
 package com.codecraft;
 
 import com.codecraft.entity.RequestLog;
+import com.codecraft.entity.User;
 import com.codecraft.repository.RequestLogRepository;
+import com.codecraft.repository.UserRepository;
+import com.codecraft.service.RequestLogWriter;
+import com.codecraft.service.UsageBackfillJob;
+import com.codecraft.service.UsageRollupService;
+import com.codecraft.service.UserStatsService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
+@AutoConfigureMockMvc
 @ActiveProfiles("test")
 class ApplicationTests {
 
     @Autowired
     private RequestLogRepository requestLogRepository;
 
+    @Autowired
+    private RequestLogWriter requestLogWriter;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserStatsService userStatsService;
+
+    @Autowired
+    private UsageRollupService usageRollupService;
+
+    @Autowired
+    private UsageBackfillJob usageBackfillJob;
+
+    @Autowired
+    private MockMvc mockMvc;
+
     @Test
     void contextLoads() {
         // SpringBootTest will fail if critical beans are missing
     }
 
+    @Test
+    void aiEndpointsRejectMissingTokenThroughReactivePipeline() throws Exception {
+        String body = "{\"type\":\"explain\",\"code\":\"int a;\"}";
+        MvcResult result = mockMvc.perform(post("/api/ai/process").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isUnauthorized())
+                .andExpect(content().string("未登录"));
+
+        MvcResult stream = mockMvc.perform(post("/api/ai/process/stream").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(stream))
+                .andExpect(status().isUnauthorized());
+    }
+
     @Test
     void savesRequestLogToTestDb() {
         RequestLog log = new RequestLog();
@@ -33,4 +85,79 @@ class ApplicationTests {
         assertThat(saved.getId()).isNotNull();
         assertThat(saved.getCreatedAt()).isNotNull();
     }
+
+    @Test
+    void requestLogWriterBatchesIntoTestDb() {
+        var start = java.time.LocalDateTime.now().minusMinutes(1);
+        for (int i = 0; i < 5; i++) {
+            RequestLog log = new RequestLog();
+            log.setRequestType("comment");
+            log.setFileName("Batch" + i + ".java");
+            log.setUsername("batch-writer");
+            requestLogWriter.submit(log);
+        }
+
+        requestLogWriter.flush();
+
+        long count = requestLogRepository.countByUsernameAndCreatedAtBetween("batch-writer", start, start.plusHours(1));
+        assertThat(count).isEqualTo(5);
+        assertThat(usageRollupService.totalFor("batch-writer")).isEqualTo(5);
+    }
+
+    @Test
+    void userStatsAggregatesPageOfUsersInOneQuery() {
+        for (String name : List.of("stats-a", "stats-b", "stats-c")) {
+            User user = new User();
+            user.setUsername(name);
+            user.setPassword("x");
+            userRepository.save(user);
+        }
+        submitLog("stats-a", "comment");
+        submitLog("stats-a", "comment");
+        submitLog("stats-a", "explain");
+        submitLog("stats-b", "test");
+        requestLogWriter.flush();
+
+        Map<String, UserStatsService.UserStats> stats = userStatsService.statsFor(List.of("stats-a", "stats-b", "stats-c"));
+
+        assertThat(stats.get("stats-a").getTotalRequests()).isEqualTo(3);
+        assertThat(stats.get("stats-a").getTodayRequests()).isEqualTo(3);
+        assertThat(stats.get("stats-a").getLast7DaysRequests()).isEqualTo(3);
+        assertThat(stats.get("stats-a").getRequestsByType()).containsEntry("comment", 2L).containsEntry("explain", 1L);
+        assertThat(stats.get("stats-b").getTotalRequests()).isEqualTo(1);
+        assertThat(stats.get("stats-c").getTotalRequests()).isZero();
+
+        var page = userStatsService.pageUsers(0, 2, UserStatsService.SORT_TOTAL_REQUESTS, false);
+        assertThat(page.getContent()).extracting(User::getUsername).containsExactly("stats-a", "stats-b");
+        assertThat(page.getTotalElements()).isGreaterThanOrEqualTo(3);
+    }
+
+    @Test
+    void usageBackfillRebuildsRollupFromRawLogs() {
+        // 直接落库的日志不经过增量累加，需要回填
+        for (int i = 0; i < 3; i++) {
+            RequestLog log = new RequestLog();
+            log.setRequestType(i == 0 ? null : "document");
+            log.setUsername("backfill-user");
+            requestLogRepository.save(log);
+        }
+        assertThat(usageRollupService.totalFor("backfill-user")).isZero();
+
+        UsageBackfillJob.BackfillResult result = usageBackfillJob.backfill(LocalDate.now(), LocalDate.now());
+        assertThat(result.getDays()).isEqualTo(1);
+        assertThat(usageRollupService.totalFor("backfill-user")).isEqualTo(3);
+        assertThat(userStatsService.statsFor(List.of("backfill-user")).get("backfill-user").getRequestsByType())
+                .containsEntry("document", 2L).containsEntry("unknown", 1L);
+
+        // 重建是幂等的
+        usageBackfillJob.backfill(LocalDate.now(), LocalDate.now());
+        assertThat(usageRollupService.totalFor("backfill-user")).isEqualTo(3);
+    }
+
+    private void submitLog(String username, String type) {
+        RequestLog log = new RequestLog();
+        log.setRequestType(type);
+        log.setUsername(username);
+        requestLogWriter.submit(log);
+    }
 }
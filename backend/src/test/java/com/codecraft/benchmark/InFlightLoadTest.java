@@ -0,0 +1,169 @@
+package com.codecraft.benchmark;
+
+import com.codecraft.Application;
+import com.codecraft.entity.User;
+import com.codecraft.entity.UserRole;
+import com.codecraft.repository.UserRepository;
+import com.codecraft.security.JwtUtil;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单实例在途 AI 请求压测：启动一个固定延迟的 OpenAI 兼容桩服务，在同一 JVM 内以指定执行模式启动应用，
+ * 同时发出 N 个 /api/ai/process 请求，统计桩服务观察到的最大并发在途数、平台线程峰值与响应状态。
+ * 参数格式 MODE[:并发数[:上游延迟毫秒]]，例如：
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=com.codecraft.benchmark.InFlightLoadTest -Dbenchmark=REACTIVE:2000:20000
+ * VIRTUAL 模式需要用 JDK 21 运行（JAVA_HOME 指向 21，且 PATH 中的 java 为 21）。
+ */
+public final class InFlightLoadTest {
+
+    private static final String STUB_RESPONSE = "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"ok\"}}]}";
+
+    private InFlightLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] parts = (args.length > 0 && !args[0].equals(".*") ? args[0] : "SERVLET").split(":");
+        String mode = parts[0].toUpperCase();
+        int concurrency = parts.length > 1 ? Integer.parseInt(parts[1]) : 2000;
+        long delayMs = parts.length > 2 ? Long.parseLong(parts[2]) : 20_000;
+
+        AtomicInteger upstreamInFlight = new AtomicInteger();
+        AtomicInteger upstreamPeak = new AtomicInteger();
+        DisposableServer stub = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .handle((req, res) -> req.receive().then()
+                        .then(Mono.defer(() -> {
+                            upstreamPeak.accumulateAndGet(upstreamInFlight.incrementAndGet(), Math::max);
+                            return Mono.delay(Duration.ofMillis(delayMs))
+                                    .doFinally(signal -> upstreamInFlight.decrementAndGet());
+                        }))
+                        .then(res.header("Content-Type", "application/json").sendString(Mono.just(STUB_RESPONSE)).then()))
+                .bindNow();
+
+        // 以命令行参数传入，优先级高于测试 classpath 上的 application.yml
+        String[] appArgs = appProperties(mode, concurrency, delayMs, stub.port()).entrySet().stream()
+                .map(e -> "--" + e.getKey() + "=" + e.getValue())
+                .toArray(String[]::new);
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class).run(appArgs);
+        try {
+            int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            String token = adminToken(context);
+            // 客户端使用固定的小线程池，避免默认的缓存线程池抬高平台线程峰值
+            ExecutorService clientExecutor = Executors.newFixedThreadPool(4);
+            HttpClient client = HttpClient.newBuilder()
+                    .executor(clientExecutor)
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(30))
+                    .build();
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            threads.resetPeakThreadCount();
+            Map<String, AtomicInteger> outcomes = new ConcurrentHashMap<>();
+            List<Long> latenciesMs = Collections.synchronizedList(new ArrayList<>());
+            List<CompletableFuture<Void>> futures = new ArrayList<>(concurrency);
+            long startedAt = System.nanoTime();
+            for (int i = 0; i < concurrency; i++) {
+                // 每个请求的代码不同，避免被响应缓存或请求合并吸收
+                String body = "{\"type\":\"explain\",\"fileName\":\"Load.java\",\"code\":\"int value = " + i + ";\"}";
+                HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/api/ai/process"))
+                        .timeout(Duration.ofMillis(delayMs + 120_000))
+                        .header("Content-Type", "application/json")
+                        .header("Authorization", "Bearer " + token)
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build();
+                long sentAt = System.nanoTime();
+                futures.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                        .handle((response, ex) -> {
+                            String outcome = ex != null ? ex.getClass().getSimpleName() : String.valueOf(response.statusCode());
+                            outcomes.computeIfAbsent(outcome, k -> new AtomicInteger()).incrementAndGet();
+                            latenciesMs.add((System.nanoTime() - sentAt) / 1_000_000);
+                            return null;
+                        }));
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+            long wallMs = (System.nanoTime() - startedAt) / 1_000_000;
+            clientExecutor.shutdown();
+
+            List<Long> sorted = new ArrayList<>(latenciesMs);
+            Collections.sort(sorted);
+            System.out.println();
+            System.out.println("mode                     : " + mode + " (JDK " + Runtime.version().feature() + ")");
+            System.out.println("requests / upstream delay: " + concurrency + " / " + delayMs + " ms");
+            System.out.println("peak upstream in-flight  : " + upstreamPeak.get());
+            System.out.println("peak platform threads    : " + threads.getPeakThreadCount());
+            System.out.println("outcomes                 : " + new TreeMap<>(outcomes));
+            System.out.println("latency p50 / p99 / max  : " + percentile(sorted, 0.5) + " / " + percentile(sorted, 0.99)
+                    + " / " + sorted.get(sorted.size() - 1) + " ms");
+            System.out.println("wall time                : " + wallMs + " ms");
+        } finally {
+            context.close();
+            stub.disposeNow();
+        }
+    }
+
+    private static Map<String, Object> appProperties(String mode, int concurrency, long delayMs, int stubPort) {
+        Map<String, Object> props = new TreeMap<>();
+        props.put("server.port", 0);
+        props.put("server.tomcat.max-connections", concurrency + 1_000);
+        props.put("server.tomcat.accept-count", concurrency);
+        props.put("spring.mvc.async.request-timeout", delayMs + 120_000);
+        props.put("logging.level.root", "WARN");
+        props.put("ai.execution.mode", mode);
+        props.put("deepseek.api.key", "load-test");
+        props.put("deepseek.api.url", "http://127.0.0.1:" + stubPort + "/v1/chat/completions");
+        // 只观察执行模式本身的容量，放开调度器、连接池、缓存与重试等其它限制
+        props.put("ai.scheduler.max-in-flight", Integer.MAX_VALUE);
+        props.put("ai.scheduler.per-user-max-in-flight", Integer.MAX_VALUE);
+        props.put("ai.scheduler.max-queue-depth", Integer.MAX_VALUE);
+        props.put("ai.upstream.max-connections", concurrency * 2);
+        props.put("ai.upstream.pending-acquire-max-count", -1);
+        props.put("ai.upstream.http2", false);
+        props.put("ai.upstream.warmup", false);
+        props.put("ai.upstream.first-byte-timeout-ms", delayMs + 60_000);
+        props.put("ai.upstream.total-timeout-ms", delayMs + 60_000);
+        props.put("ai.cache.enabled", false);
+        props.put("ai.resilience.retry.max-retries", 0);
+        props.put("ai.usage.backfill-on-startup", false);
+        return props;
+    }
+
+    private static String adminToken(ConfigurableApplicationContext context) {
+        UserRepository users = context.getBean(UserRepository.class);
+        User user = users.findByUsername("load-test").orElseGet(() -> {
+            User created = new User();
+            created.setUsername("load-test");
+            created.setPassword("load-test");
+            // ADMIN 不受配额限制
+            created.setRole(UserRole.ADMIN);
+            return users.save(created);
+        });
+        return context.getBean(JwtUtil.class).generateToken(user.getUsername(), Map.of("role", user.getRole().name()));
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        return sorted.get(Math.max(0, (int) Math.ceil(p * sorted.size()) - 1));
+    }
+}
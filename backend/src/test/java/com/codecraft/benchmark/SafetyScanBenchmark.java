@@ -0,0 +1,136 @@
+package com.codecraft.benchmark;
+
+import com.codecraft.config.SafetyProperties;
+import com.codecraft.service.SafetyDocument;
+import com.codecraft.service.SafetyScanner;
+import com.codecraft.service.SourceLanguage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 安全检查耗时对比：旧实现（8 个正则各自全文扫描）与 Aho-Corasick 单遍扫描（字符串 / Reader 流式），
+ * 以及按 Java 词法跳过注释、字符串并只启用 Java 适用规则的扫描，和增量会话中单次按键的重扫开销。
+ * 运行：mvn -Pbenchmark test-compile exec:exec -Dbenchmark=SafetyScanBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SafetyScanBenchmark {
+
+    // 改造前 SafetyService 的规则与扫描方式
+    private static final Map<String, Pattern> LEGACY_PATTERNS = Map.of(
+            "潜在命令注入：Runtime.exec/ProcessBuilder", Pattern.compile("Runtime\\.getRuntime\\(\\)\\.exec|ProcessBuilder"),
+            "Java 反射或类加载风险", Pattern.compile("Class\\.forName|setAccessible\\("),
+            "JS 代码执行：eval/new Function", Pattern.compile("\\beval\\s*\\(|new Function"),
+            "Node.js 子进程执行", Pattern.compile("child_process\\.(exec|spawn)"),
+            "Node.js 删除目录/文件", Pattern.compile("fs\\.(rm|rmdir|unlink)"),
+            "Shell 执行/管道", Pattern.compile("bash -c|/bin/sh"),
+            "Python 系统调用", Pattern.compile("os\\.system|subprocess\\.Popen"),
+            "危险 SQL 语句", Pattern.compile("(?i)(drop table|truncate table|delete from)")
+    );
+
+    private static final String[] LINES = {
+            "    public List<String> loadUsers(String tenant, int limit) {",
+            "        // evaluate the configured limit before querying",
+            "        if (limit <= 0) return Collections.emptyList();",
+            "        String sql = \"select id, name from users where tenant = ?\";",
+            "        return jdbcTemplate.query(sql, (rs, i) -> rs.getString(\"name\"), tenant);",
+            "    }",
+            "",
+            "    private static final Logger log = LoggerFactory.getLogger(UserDao.class);",
+    };
+
+    @Param({"10240", "1048576", "10485760"})
+    private int size;
+
+    private String content;
+    private SafetyScanner scanner;
+    private SafetyScanner javaScanner;
+    private SafetyDocument document;
+    private int editLine;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder(size + 128);
+        int i = 0;
+        while (sb.length() < size) {
+            sb.append(LINES[i % LINES.length]).append('\n');
+            i++;
+        }
+        // 末尾放一处真实命中，避免各实现提前结束
+        sb.append("Runtime.getRuntime().exec(cmd);\n");
+        content = sb.toString();
+        SafetyProperties properties = new SafetyProperties();
+        List<SafetyProperties.Rule> rules = loadDefaultRules(properties);
+        scanner = new SafetyScanner(rules, properties.getMaxHits());
+        javaScanner = new SafetyScanner(rules.stream()
+                .filter(rule -> rule.getLanguages().isEmpty() || rule.getLanguages().contains(SourceLanguage.JAVA.id()))
+                .toList(), SourceLanguage.JAVA, properties.getMaxHits());
+        document = new SafetyDocument(javaScanner, content, Integer.MAX_VALUE);
+        editLine = document.lineCount() / 2;
+    }
+
+    @Benchmark
+    public List<String> legacyRegex() {
+        List<String> warnings = new ArrayList<>();
+        LEGACY_PATTERNS.forEach((message, pattern) -> {
+            if (pattern.matcher(content).find()) {
+                warnings.add(message);
+            }
+        });
+        return warnings;
+    }
+
+    @Benchmark
+    public SafetyScanner.ScanResult scannerString() {
+        return scanner.scan(content);
+    }
+
+    @Benchmark
+    public SafetyScanner.ScanResult scannerReader() throws IOException {
+        return scanner.scan(new StringReader(content));
+    }
+
+    @Benchmark
+    public SafetyScanner.ScanResult scannerJava() {
+        return javaScanner.scan(content);
+    }
+
+    // 在文档中部输入一个字符再删除，模拟一次按键
+    @Benchmark
+    public List<SafetyDocument.Change> incrementalKeystroke() {
+        return document.apply(List.of(
+                new SafetyDocument.Edit(editLine, 1, editLine, 1, "x"),
+                new SafetyDocument.Edit(editLine, 1, editLine, 2, "")));
+    }
+
+    private static List<SafetyProperties.Rule> loadDefaultRules(SafetyProperties properties) {
+        try (var in = new DefaultResourceLoader().getResource(properties.getRulesLocation()).getInputStream()) {
+            return List.of(new ObjectMapper().readValue(in, SafetyProperties.Rule[].class));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
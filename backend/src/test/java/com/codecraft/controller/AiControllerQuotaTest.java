@@ -0,0 +1,86 @@
+package com.codecraft.controller;
+
+import com.codecraft.config.BatchProperties;
+import com.codecraft.config.ExecutionProperties;
+import com.codecraft.config.QuotaProperties;
+import com.codecraft.entity.UserRole;
+import com.codecraft.repository.RequestLogRepository;
+import com.codecraft.security.AuthPrincipal;
+import com.codecraft.security.AuthService;
+import com.codecraft.service.AiJobService;
+import com.codecraft.service.AiMetrics;
+import com.codecraft.service.BlockingCalls;
+import com.codecraft.service.DeepSeekService;
+import com.codecraft.service.DocumentJobService;
+import com.codecraft.service.QuotaService;
+import com.codecraft.service.SafetyService;
+import com.codecraft.service.SafetySessionService;
+import com.codecraft.service.UsageRollupService;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AiControllerQuotaTest {
+
+    private static final String HEADER = "Bearer token";
+
+    private final AuthService authService = Mockito.mock(AuthService.class);
+    private final DocumentJobService documentJobs = Mockito.mock(DocumentJobService.class);
+    private final QuotaService quotaService;
+    private final AiController controller;
+
+    AiControllerQuotaTest() {
+        QuotaProperties properties = new QuotaProperties();
+        QuotaProperties.Limits limits = new QuotaProperties.Limits();
+        limits.setDaily(100);
+        limits.setBurst(10);
+        properties.getLimits().put(UserRole.USER, limits);
+        quotaService = new QuotaService(Mockito.mock(RequestLogRepository.class), properties, AiMetrics.noop(), 100);
+        controller = new AiController(Mockito.mock(DeepSeekService.class), authService,
+                Mockito.mock(UsageRollupService.class),
+                Mockito.mock(SafetyService.class),
+                quotaService,
+                new BlockingCalls(new ExecutionProperties()),
+                Mockito.mock(SafetySessionService.class),
+                documentJobs,
+                new BatchProperties(),
+                Mockito.mock(AiJobService.class),
+                AiMetrics.noop());
+        when(authService.authenticate(HEADER)).thenReturn(new AuthPrincipal(1L, "alice", UserRole.USER));
+        when(documentJobs.canStart(anyString())).thenReturn(true);
+    }
+
+    @Test
+    void documentJobWithMoreChunksThanBurstIsRejectedWithoutRetryAfter() {
+        DocumentJobService.Plan plan = Mockito.mock(DocumentJobService.Plan.class);
+        when(plan.chunkCount()).thenReturn(25);
+        when(documentJobs.plan(any())).thenReturn(plan);
+
+        ResponseEntity<?> response = controller.submitDocumentJob(request(), HEADER);
+
+        // 窗口为空也无法放行，返回 400 说明上限，而不是让客户端无休止地重试
+        assertThat(response.getStatusCode().value()).isEqualTo(400);
+        assertThat(response.getHeaders().containsKey(HttpHeaders.RETRY_AFTER)).isFalse();
+        assertThat(((Map<?, ?>) response.getBody()).get("message").toString()).contains("25").contains("10");
+        assertThat(quotaService.usedToday("alice")).isZero();
+        verify(documentJobs, never()).start(any(), any(), any(), any(), any());
+    }
+
+    private static AiController.DocumentJobRequest request() {
+        AiController.DocumentJobRequest request = new AiController.DocumentJobRequest();
+        request.setFiles(List.of());
+        request.setLanguage("zh");
+        return request;
+    }
+}
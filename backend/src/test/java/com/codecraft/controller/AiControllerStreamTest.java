@@ -0,0 +1,161 @@
+package com.codecraft.controller;
+
+import com.codecraft.config.AiProviderProperties;
+import com.codecraft.config.BatchProperties;
+import com.codecraft.config.ExecutionProperties;
+import com.codecraft.config.UpstreamHttpProperties;
+import com.codecraft.entity.UserRole;
+import com.codecraft.security.AuthPrincipal;
+import com.codecraft.security.AuthService;
+import com.codecraft.service.AiJobService;
+import com.codecraft.service.AiMetrics;
+import com.codecraft.service.BlockingCalls;
+import com.codecraft.service.DeepSeekService;
+import com.codecraft.service.DocumentJobService;
+import com.codecraft.service.OpenAiCompatibleProvider;
+import com.codecraft.service.QuotaService;
+import com.codecraft.service.SafetyService;
+import com.codecraft.service.SafetySessionService;
+import com.codecraft.service.UsageRollupService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+class AiControllerStreamTest {
+
+    private static final String HEADER = "Bearer token";
+
+    private final AuthService authService = Mockito.mock(AuthService.class);
+    private final QuotaService quotaService = Mockito.mock(QuotaService.class);
+
+    @Test
+    void upstreamDeltasAreForwardedAndFollowedByDone() {
+        AiController controller = controller(upstream(HttpStatus.OK, Flux.just(
+                chunk("{\"choices\":[{\"delta\":{\"content\":\"// 返回\"}}]}"),
+                chunk("{\"choices\":[{\"delta\":{\"content\":\"两数之和\"}}]}"),
+                chunk("[DONE]"))));
+
+        ResponseEntity<Flux<ServerSentEvent<String>>> response = stream(controller);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(response.getBody().collectList().block(Duration.ofSeconds(5)))
+                .extracting(ServerSentEvent::event, ServerSentEvent::data)
+                .containsExactly(tuple("delta", "// 返回"), tuple("delta", "两数之和"), tuple("done", ""));
+    }
+
+    @Test
+    void upstreamFailureEndsStreamWithErrorEvent() {
+        AiController controller = controller(upstream(HttpStatus.INTERNAL_SERVER_ERROR, Flux.just("{\"error\":\"boom\"}")));
+
+        List<ServerSentEvent<String>> events = stream(controller).getBody().collectList().block(Duration.ofSeconds(5));
+
+        assertThat(events).extracting(ServerSentEvent::event, ServerSentEvent::data)
+                .containsExactly(tuple("error", "大模型服务 stub 请求失败，状态码 500。"));
+    }
+
+    @Test
+    void connectionLostMidStreamSendsErrorInsteadOfDone() {
+        AiController controller = controller(upstream(HttpStatus.OK, Flux.concat(
+                Flux.just(chunk("{\"choices\":[{\"delta\":{\"content\":\"partial\"}}]}")),
+                Flux.error(new IllegalStateException("connection reset")))));
+
+        List<ServerSentEvent<String>> events = stream(controller).getBody().collectList().block(Duration.ofSeconds(5));
+
+        // 已下发的增量不会重发，流以 error 事件结束，不补发 done
+        assertThat(events).extracting(ServerSentEvent::event).containsExactly("delta", "error");
+        assertThat(events.get(0).data()).isEqualTo("partial");
+    }
+
+    @Test
+    void unauthenticatedRequestGetsSingleErrorEvent() {
+        AiController controller = controller(upstream(HttpStatus.OK, Flux.empty()));
+
+        ResponseEntity<Flux<ServerSentEvent<String>>> response = controller
+                .processCodeStream(request(), null, null).block(Duration.ofSeconds(5));
+
+        assertThat(response.getStatusCode().value()).isEqualTo(401);
+        assertThat(response.getBody().collectList().block(Duration.ofSeconds(5)))
+                .extracting(ServerSentEvent::event, ServerSentEvent::data)
+                .containsExactly(tuple("error", "未登录"));
+    }
+
+    private ResponseEntity<Flux<ServerSentEvent<String>>> stream(AiController controller) {
+        return controller.processCodeStream(request(), HEADER, null).block(Duration.ofSeconds(5));
+    }
+
+    private AiController controller(WebClient upstream) {
+        when(authService.authenticate(HEADER)).thenReturn(new AuthPrincipal(1L, "alice", UserRole.USER));
+        when(quotaService.tryAcquire(anyString(), eq(UserRole.USER), anyInt()))
+                .thenReturn(new QuotaService.QuotaDecision(true, null, 0));
+
+        AiProviderProperties.Endpoint endpoint = new AiProviderProperties.Endpoint();
+        endpoint.setName("stub");
+        endpoint.setUrl("http://upstream.test/v1/chat/completions");
+        endpoint.setModel("m");
+        OpenAiCompatibleProvider provider = new OpenAiCompatibleProvider(endpoint, upstream, new ObjectMapper(),
+                new UpstreamHttpProperties());
+        // 增量直接取自解析上游 SSE 的端点，错误文案沿用真实实现
+        DeepSeekService deepSeekService = Mockito.mock(DeepSeekService.class);
+        when(deepSeekService.streamAi(any())).thenAnswer(invocation -> provider.stream("s", "u"));
+        when(deepSeekService.describeError(any())).thenCallRealMethod();
+
+        return new AiController(deepSeekService, authService,
+                Mockito.mock(UsageRollupService.class),
+                Mockito.mock(SafetyService.class),
+                quotaService,
+                new BlockingCalls(new ExecutionProperties()),
+                Mockito.mock(SafetySessionService.class),
+                Mockito.mock(DocumentJobService.class),
+                new BatchProperties(),
+                Mockito.mock(AiJobService.class),
+                AiMetrics.noop());
+    }
+
+    // 以固定的 SSE 响应体代替真实上游
+    private static WebClient upstream(HttpStatus status, Flux<String> body) {
+        Flux<DataBuffer> buffers = body.map(text -> DefaultDataBufferFactory.sharedInstance.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        return WebClient.builder()
+                .exchangeFunction(request -> Mono.just(ClientResponse.create(status)
+                        .header(HttpHeaders.CONTENT_TYPE, status.isError()
+                                ? MediaType.APPLICATION_JSON_VALUE : MediaType.TEXT_EVENT_STREAM_VALUE)
+                        .body(buffers)
+                        .build()))
+                .build();
+    }
+
+    private static AiController.AiRequest request() {
+        AiController.AiRequest request = new AiController.AiRequest();
+        request.setType("comment");
+        request.setCode("int add(int a, int b) { return a + b; }");
+        request.setFileName("Calc.java");
+        request.setLanguage("zh");
+        return request;
+    }
+
+    private static String chunk(String data) {
+        return "data: " + data + "\n\n";
+    }
+}
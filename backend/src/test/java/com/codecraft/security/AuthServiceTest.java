@@ -0,0 +1,119 @@
+package com.codecraft.security;
+
+import com.codecraft.entity.User;
+import com.codecraft.entity.UserRole;
+import com.codecraft.repository.UserRepository;
+import com.codecraft.service.AiMetrics;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AuthServiceTest {
+
+    private static final String SECRET = "change-me-please-change-me-please-change-me";
+
+    private final UserRepository userRepository = Mockito.mock(UserRepository.class);
+
+    private AuthService newService(JwtUtil jwtUtil) {
+        return new AuthService(userRepository, jwtUtil, AiMetrics.noop(), 60, 100);
+    }
+
+    @Test
+    void cachedPrincipalSkipsUserLookup() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 100);
+        AuthService auth = newService(jwtUtil);
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(user("alice", UserRole.USER)));
+        String header = bearer(jwtUtil, "alice", UserRole.USER);
+
+        assertEquals("alice", auth.authenticate(header).username());
+        assertEquals(UserRole.USER, auth.authenticate(header).role());
+
+        verify(userRepository, times(1)).findByUsername("alice");
+        assertNull(auth.authenticate(null));
+        assertNull(auth.authenticate("Bearer not-a-token"));
+    }
+
+    @Test
+    void cacheEntryNeverOutlivesToken() throws InterruptedException {
+        // JWT 过期时间精确到秒
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 2_000, 100);
+        AuthService auth = newService(jwtUtil);
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(user("alice", UserRole.USER)));
+        String header = bearer(jwtUtil, "alice", UserRole.USER);
+
+        assertEquals("alice", auth.authenticate(header).username());
+        Thread.sleep(2_100);
+
+        // 缓存 ttl 为 60 秒，但 token 已过期
+        assertNull(auth.authenticate(header));
+    }
+
+    @Test
+    void invalidateDropsDemotedOrDeletedUser() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 100);
+        AuthService auth = newService(jwtUtil);
+        when(userRepository.findByUsername("bob")).thenReturn(Optional.of(user("bob", UserRole.ADMIN)));
+        String header = bearer(jwtUtil, "bob", UserRole.ADMIN);
+        assertEquals("bob", auth.authenticate(header, UserRole.ADMIN).username());
+
+        // 降级：token 内的 role 声明仍是 ADMIN，以数据库角色为准
+        when(userRepository.findByUsername("bob")).thenReturn(Optional.of(user("bob", UserRole.USER)));
+        auth.invalidate("bob");
+        assertNull(auth.authenticate(header, UserRole.ADMIN));
+        assertEquals(UserRole.USER, auth.authenticate(header).role());
+
+        when(userRepository.findByUsername("bob")).thenReturn(Optional.empty());
+        auth.invalidate("bob");
+        assertNull(auth.authenticate(header));
+    }
+
+    @Test
+    void invalidationDuringLoadIsNotCached() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 100);
+        AuthService auth = newService(jwtUtil);
+        String header = bearer(jwtUtil, "carol", UserRole.USER);
+        // 第一次加载读到旧数据时，管理员恰好删除了该用户
+        when(userRepository.findByUsername("carol")).thenAnswer(invocation -> {
+            auth.invalidate("carol");
+            return Optional.of(user("carol", UserRole.USER));
+        }).thenReturn(Optional.empty());
+
+        assertEquals("carol", auth.authenticate(header).username());
+        assertNull(auth.authenticate(header));
+        verify(userRepository, times(2)).findByUsername("carol");
+    }
+
+    @Test
+    void promotionTakesEffectBeforeTokenIsReissued() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 100);
+        AuthService auth = newService(jwtUtil);
+        when(userRepository.findByUsername("dave")).thenReturn(Optional.of(user("dave", UserRole.USER)));
+        String header = bearer(jwtUtil, "dave", UserRole.USER);
+        assertNull(auth.authenticate(header, UserRole.ADMIN));
+
+        // 升级：token 内的 role 声明仍是 USER，以数据库角色为准
+        when(userRepository.findByUsername("dave")).thenReturn(Optional.of(user("dave", UserRole.ADMIN)));
+        auth.invalidate("dave");
+        assertEquals("dave", auth.authenticate(header, UserRole.ADMIN).username());
+    }
+
+    private static String bearer(JwtUtil jwtUtil, String username, UserRole role) {
+        return "Bearer " + jwtUtil.generateToken(username, Map.of("role", role.name()));
+    }
+
+    private static User user(String username, UserRole role) {
+        User user = new User();
+        user.setId(1L);
+        user.setUsername(username);
+        user.setRole(role);
+        return user;
+    }
+}
@@ -0,0 +1,49 @@
+package com.codecraft.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JwtUtilTest {
+
+    private static final String SECRET = "change-me-please-change-me-please-change-me";
+
+    @Test
+    void repeatedTokenIsServedFromVerifiedCache() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 100);
+        String token = jwtUtil.generateToken("alice", Map.of("role", "USER"));
+
+        Claims first = jwtUtil.parseToken(token);
+        assertEquals("alice", first.getSubject());
+        assertEquals("USER", first.get("role"));
+        assertSame(first, jwtUtil.parseToken(token));
+        assertEquals("alice", jwtUtil.parseUsername(token));
+    }
+
+    @Test
+    void rejectsTokenSignedWithAnotherKey() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 100);
+        JwtUtil other = new JwtUtil("another-secret-another-secret-another-secret", 60_000, 100);
+        String forged = other.generateToken("alice", Map.of("role", "ADMIN"));
+
+        assertThrows(JwtException.class, () -> jwtUtil.parseToken(forged));
+    }
+
+    @Test
+    void cachedTokenStillExpires() throws InterruptedException {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 2_000, 100);
+        String token = jwtUtil.generateToken("alice", Map.of());
+        jwtUtil.parseToken(token);
+
+        Thread.sleep(2_100);
+        assertThrows(ExpiredJwtException.class, () -> jwtUtil.parseToken(token));
+        assertThrows(ExpiredJwtException.class, () -> jwtUtil.parseToken(token));
+    }
+}
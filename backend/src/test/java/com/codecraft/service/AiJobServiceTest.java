@@ -0,0 +1,218 @@
+package com.codecraft.service;
+
+import com.codecraft.config.AiJobProperties;
+import com.codecraft.config.AiProviderProperties;
+import com.codecraft.config.PromptProperties;
+import com.codecraft.config.ResilienceProperties;
+import com.codecraft.entity.AiJob;
+import com.codecraft.entity.UserRole;
+import com.codecraft.repository.AiJobRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class AiJobServiceTest {
+
+    @Autowired
+    private AiJobRepository repository;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AiJobProperties properties = new AiJobProperties();
+    private final MutableClock clock = new MutableClock();
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private AiJobService jobs;
+
+    @BeforeEach
+    void setUp() {
+        DeepSeekService deepSeek = new DeepSeekService(
+                new AiProviderRouter(new AiProviderProperties(), new UpstreamResilience(new ResilienceProperties()),
+                        List.of(new FakeProvider(upstreamCalls))),
+                Mockito.mock(RequestLogWriter.class),
+                new AiResponseCache(false, 0, 0, new StaticListableBeanFactory().getBeanProvider(AiResponseCacheStore.class)),
+                new SingleFlight(),
+                new UpstreamScheduler(32, 4, 200, 4),
+                new PromptBuilder(new PromptProperties()),
+                AiMetrics.noop());
+        jobs = new AiJobService(repository, deepSeek, objectMapper, properties, clock);
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void submittedJobRunsAndLongPollReturnsResult() {
+        AiJob job = jobs.submit(request("alice"));
+
+        AiJob done = jobs.await("alice", job.getId(), 5).block(Duration.ofSeconds(10));
+
+        assertThat(done.getStatus()).isEqualTo(AiJob.Status.SUCCEEDED);
+        assertThat(done.getResult()).isEqualTo("ok");
+        assertThat(done.getAttempts()).isEqualTo(1);
+        assertThat(jobs.get("bob", job.getId())).isNull();
+        assertThat(upstreamCalls).hasValue(1);
+    }
+
+    @Test
+    void expiredLeaseIsRequeuedUntilAttemptsRunOut() throws Exception {
+        // 模拟执行中的实例退出：任务停在 RUNNING，租约已过期
+        AiJob orphan = running("orphan", 1);
+        AiJob exhausted = running("exhausted", properties.getMaxAttempts());
+
+        jobs.maintain();
+
+        AiJob rerun = jobs.await("alice", orphan.getId(), 5).block(Duration.ofSeconds(10));
+        assertThat(rerun.getStatus()).isEqualTo(AiJob.Status.SUCCEEDED);
+        assertThat(rerun.getAttempts()).isEqualTo(2);
+        assertThat(jobs.get("alice", exhausted.getId()).getStatus()).isEqualTo(AiJob.Status.FAILED);
+    }
+
+    @Test
+    void cancelledJobIsNeverExecuted() {
+        properties.setConcurrency(0);
+        AiJob job = jobs.submit(request("alice"));
+
+        assertThat(jobs.cancel("alice", job.getId())).isTrue();
+        properties.setConcurrency(4);
+        jobs.dispatch();
+
+        assertThat(jobs.await("alice", job.getId(), 1).block(Duration.ofSeconds(5)).getStatus())
+                .isEqualTo(AiJob.Status.CANCELLED);
+        assertThat(upstreamCalls).hasValue(0);
+    }
+
+    @Test
+    void finishedResultsExpireAfterTtl() {
+        properties.setMaxPendingPerUser(1);
+        AiJob job = jobs.submit(request("alice"));
+        jobs.await("alice", job.getId(), 5).block(Duration.ofSeconds(10));
+        assertThat(jobs.submit(request("alice"))).isNotNull();
+
+        clock.advance(Duration.ofMillis(properties.getResultTtlMs() + 1));
+        jobs.maintain();
+
+        assertThat(jobs.get("alice", job.getId())).isNull();
+    }
+
+    @Test
+    void pendingLimitIsCheckedAndOverlongFileNameIsTruncated() {
+        properties.setConcurrency(0);
+        properties.setMaxPendingPerUser(1);
+        AiCallRequest request = request("alice");
+        request.setFileName("src/" + "a".repeat(300) + ".java");
+
+        AiJob job = jobs.submit(request);
+
+        assertThat(repository.findById(job.getId()).orElseThrow().getFileName()).hasSize(255);
+        assertThat(jobs.canSubmit("alice")).isFalse();
+        assertThat(jobs.submit(request("alice"))).isNull();
+        assertThat(jobs.canSubmit("bob")).isTrue();
+    }
+
+    private AiJob running(String fileName, int attempts) throws Exception {
+        AiCallRequest request = request("alice");
+        request.setFileName(fileName);
+        AiJob job = new AiJob();
+        job.setId(fileName);
+        job.setUsername("alice");
+        job.setRequestType(request.getType());
+        job.setFileName(fileName);
+        job.setStatus(AiJob.Status.RUNNING);
+        job.setPayload(objectMapper.writeValueAsString(request));
+        job.setAttempts(attempts);
+        job.setCreatedAt(LocalDateTime.now(clock));
+        job.setLeaseUntil(LocalDateTime.now(clock).minusSeconds(1));
+        return repository.save(job);
+    }
+
+    private static AiCallRequest request(String username) {
+        AiCallRequest request = new AiCallRequest();
+        request.setType("document");
+        request.setCode("class A {}");
+        request.setFileName("A.java");
+        request.setLanguage("zh");
+        request.setUsername(username);
+        request.setRole(UserRole.USER);
+        return request;
+    }
+
+    private static final class FakeProvider implements AiProvider {
+        private final AtomicInteger calls;
+
+        FakeProvider(AtomicInteger calls) {
+            this.calls = calls;
+        }
+
+        @Override
+        public String name() {
+            return "fake";
+        }
+
+        @Override
+        public String model() {
+            return "m";
+        }
+
+        @Override
+        public Mono<String> complete(String systemPrompt, String userPrompt) {
+            return Mono.fromCallable(() -> {
+                calls.incrementAndGet();
+                return "ok";
+            }).delayElement(Duration.ofMillis(20));
+        }
+
+        @Override
+        public Flux<String> stream(String systemPrompt, String userPrompt) {
+            return Flux.empty();
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.codecraft.service;
+
+import com.codecraft.config.AiProviderProperties;
+import com.codecraft.config.ResilienceProperties;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AiProviderRouterTest {
+
+    @Test
+    void failsOverToNextProviderOnError() {
+        FakeProvider broken = new FakeProvider("broken", Mono.error(new RuntimeException("503")));
+        FakeProvider healthy = new FakeProvider("healthy", Mono.just("ok"));
+        AiProviderRouter router = new AiProviderRouter(priority(), resilience(), List.of(broken, healthy));
+
+        assertThat(router.complete("explain", "s", "u").block()).isEqualTo("ok");
+        assertThat(broken.calls).hasValue(1);
+        assertThat(healthy.calls).hasValue(1);
+    }
+
+    @Test
+    void lastErrorIsPropagatedWhenAllProvidersFail() {
+        AiProviderRouter router = new AiProviderRouter(priority(), resilience(), List.of(
+                new FakeProvider("a", Mono.error(new RuntimeException("a down"))),
+                new FakeProvider("b", Mono.error(new RuntimeException("b down")))));
+
+        assertThatThrownBy(() -> router.complete("explain", "s", "u").block()).hasMessage("b down");
+    }
+
+    @Test
+    void fastestStrategyPrefersLowerLatency() {
+        FakeProvider slow = new FakeProvider("slow", Mono.just("slow").delayElement(Duration.ofMillis(80)));
+        FakeProvider fast = new FakeProvider("fast", Mono.just("fast"));
+        AiProviderRouter router = new AiProviderRouter(new AiProviderProperties(), resilience(), List.of(slow, fast));
+
+        // 未尝试过的端点优先，两个端点各产生一次延迟样本后最快的排在前面
+        router.complete("explain", "s", "u").block();
+        assertThat(router.candidates("explain").get(0).name()).isEqualTo("fast");
+        router.complete("explain", "s", "u").block();
+        assertThat(router.candidates("explain")).extracting(AiProvider::name).containsExactly("fast", "slow");
+    }
+
+    @Test
+    void unhealthyProviderIsMovedToTheEnd() {
+        FakeProvider flaky = new FakeProvider("flaky", Mono.error(new RuntimeException("boom")));
+        FakeProvider backup = new FakeProvider("backup", Mono.just("ok"));
+        AiProviderProperties props = priority();
+        props.setMinSamples(2);
+        AiProviderRouter router = new AiProviderRouter(props, resilience(), List.of(flaky, backup));
+
+        for (int i = 0; i < 4; i++) {
+            router.complete("explain", "s", "u").block();
+        }
+
+        assertThat(router.candidates("explain")).extracting(AiProvider::name).containsExactly("backup", "flaky");
+        int flakyCalls = flaky.calls.get();
+        router.complete("explain", "s", "u").block();
+        assertThat(flaky.calls).hasValue(flakyCalls);
+    }
+
+    @Test
+    void policyRestrictsProvidersPerRequestType() {
+        FakeProvider local = new FakeProvider("local", Mono.just("local"));
+        FakeProvider strong = new FakeProvider("strong", Mono.just("strong"));
+        AiProviderProperties props = new AiProviderProperties();
+        AiProviderProperties.Policy document = new AiProviderProperties.Policy();
+        document.setStrategy(AiProviderProperties.Strategy.PRIORITY);
+        document.setProviders(List.of("strong"));
+        props.getPolicies().put("document", document);
+        AiProviderRouter router = new AiProviderRouter(props, resilience(), List.of(local, strong));
+
+        assertThat(router.complete("document", "s", "u").block()).isEqualTo("strong");
+        assertThat(router.routeKey("document")).isEqualTo("strong/m");
+        assertThat(router.routeKey("explain")).isEqualTo("local/m,strong/m");
+    }
+
+    @Test
+    void streamFailsOverOnlyBeforeFirstDelta() {
+        FakeProvider failsFirst = new FakeProvider("a", Mono.empty());
+        failsFirst.stream = Flux.error(new RuntimeException("connect refused"));
+        FakeProvider works = new FakeProvider("b", Mono.empty());
+        works.stream = Flux.just("he", "llo");
+        AiProviderRouter router = new AiProviderRouter(priority(), resilience(), List.of(failsFirst, works));
+        assertThat(router.stream("explain", "s", "u").collectList().block()).containsExactly("he", "llo");
+
+        FakeProvider failsMidway = new FakeProvider("c", Mono.empty());
+        failsMidway.stream = Flux.concat(Flux.just("partial"), Flux.error(new RuntimeException("reset")));
+        AiProviderRouter midway = new AiProviderRouter(priority(), resilience(), List.of(failsMidway, works));
+        assertThatThrownBy(() -> midway.stream("explain", "s", "u").collectList().block()).hasMessage("reset");
+    }
+
+    @Test
+    void retriesTransientStatusOnSameProvider() {
+        AtomicInteger attempts = new AtomicInteger();
+        FakeProvider flaky = new FakeProvider("flaky", Mono.defer(() -> attempts.getAndIncrement() == 0
+                ? Mono.error(new UpstreamHttpException("flaky", 503, 0, "overloaded"))
+                : Mono.just("ok")));
+        FakeProvider backup = new FakeProvider("backup", Mono.just("backup"));
+        AiProviderRouter router = new AiProviderRouter(priority(), resilience(), List.of(flaky, backup));
+
+        assertThat(router.complete("explain", "s", "u").block()).isEqualTo("ok");
+        assertThat(flaky.calls).hasValue(2);
+        assertThat(backup.calls).hasValue(0);
+    }
+
+    @Test
+    void clientErrorsAndLongRetryAfterFailOverWithoutRetry() {
+        FakeProvider badRequest = new FakeProvider("bad", Mono.error(new UpstreamHttpException("bad", 400, -1, "invalid")));
+        FakeProvider throttled = new FakeProvider("throttled", Mono.error(new UpstreamHttpException("throttled", 429, 60, "slow down")));
+        FakeProvider backup = new FakeProvider("backup", Mono.just("ok"));
+        AiProviderRouter router = new AiProviderRouter(priority(), resilience(), List.of(badRequest, throttled, backup));
+
+        assertThat(router.complete("explain", "s", "u").block()).isEqualTo("ok");
+        assertThat(badRequest.calls).hasValue(1);
+        assertThat(throttled.calls).hasValue(1);
+    }
+
+    @Test
+    void openBreakerRejectsWithoutCallingProvider() {
+        ResilienceProperties resilience = new ResilienceProperties();
+        resilience.getRetry().setMaxRetries(0);
+        resilience.getBreaker().setSlidingWindow(2);
+        resilience.getBreaker().setMinimumCalls(2);
+        FakeProvider down = new FakeProvider("down", Mono.error(new UpstreamHttpException("down", 502, -1, "")));
+        AiProviderRouter router = new AiProviderRouter(priority(), new UpstreamResilience(resilience), List.of(down));
+
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> router.complete("explain", "s", "u").block()).isInstanceOf(UpstreamHttpException.class);
+        }
+        assertThatThrownBy(() -> router.complete("explain", "s", "u").block()).isInstanceOf(CircuitOpenException.class);
+        assertThat(down.calls).hasValue(2);
+        assertThat(router.stats().get(0).getBreakerState()).isEqualTo("OPEN");
+    }
+
+    @Test
+    void hedgedRequestWinsWhenPrimaryIsSlow() {
+        ResilienceProperties resilience = new ResilienceProperties();
+        resilience.getHedge().setEnabled(true);
+        resilience.getHedge().setMinDelayMs(50);
+        FakeProvider slow = new FakeProvider("slow", Mono.just("slow").delayElement(Duration.ofSeconds(5)));
+        FakeProvider fast = new FakeProvider("fast", Mono.just("fast"));
+        AiProviderRouter router = new AiProviderRouter(priority(), new UpstreamResilience(resilience), List.of(slow, fast));
+
+        assertThat(router.complete("explain", "s", "u").block(Duration.ofSeconds(2))).isEqualTo("fast");
+        assertThat(router.hedgedRequests()).isEqualTo(1);
+        // 不在对冲类型里的请求不发对冲
+        assertThat(router.complete("document", "s", "u").block(Duration.ofSeconds(10))).isEqualTo("slow");
+        assertThat(router.hedgedRequests()).isEqualTo(1);
+    }
+
+    @Test
+    void fastPrimaryFailureFailsOverWithoutHedging() {
+        ResilienceProperties resilience = new ResilienceProperties();
+        resilience.getHedge().setEnabled(true);
+        resilience.getHedge().setMinDelayMs(200);
+        FakeProvider a = new FakeProvider("a", Mono.error(new RuntimeException("a down")));
+        FakeProvider b = new FakeProvider("b", Mono.error(new RuntimeException("b down")));
+        AiProviderRouter router = new AiProviderRouter(priority(), new UpstreamResilience(resilience), List.of(a, b));
+
+        // 主请求在对冲延迟之前失败，不再发对冲，直接切换到下一个候选
+        assertThatThrownBy(() -> router.complete("explain", "s", "u").block(Duration.ofSeconds(2))).hasMessage("b down");
+        assertThat(router.hedgedRequests()).isZero();
+        assertThat(a.calls).hasValue(1);
+        assertThat(b.calls).hasValue(1);
+    }
+
+    @Test
+    void nonRetryablePrimaryErrorDoesNotWaitForHedge() {
+        ResilienceProperties resilience = new ResilienceProperties();
+        resilience.getHedge().setEnabled(true);
+        resilience.getHedge().setMinDelayMs(50);
+        FakeProvider bad = new FakeProvider("bad", Mono.<String>error(new UpstreamHttpException("bad", 400, -1, "invalid"))
+                .delaySubscription(Duration.ofMillis(200)));
+        FakeProvider slow = new FakeProvider("slow", Mono.just("slow").delayElement(Duration.ofSeconds(5)));
+        AiProviderRouter router = new AiProviderRouter(priority(), new UpstreamResilience(resilience), List.of(bad, slow));
+
+        // 对冲已发往 slow，主请求的 400 仍立即返回，不等待对冲结果
+        assertThatThrownBy(() -> router.complete("explain", "s", "u").block(Duration.ofSeconds(2)))
+                .isInstanceOf(UpstreamHttpException.class);
+        assertThat(router.hedgedRequests()).isEqualTo(1);
+        assertThat(slow.calls).hasValue(1);
+    }
+
+    private static UpstreamResilience resilience() {
+        return new UpstreamResilience(new ResilienceProperties());
+    }
+
+    private static AiProviderProperties priority() {
+        AiProviderProperties props = new AiProviderProperties();
+        props.setDefaultStrategy(AiProviderProperties.Strategy.PRIORITY);
+        return props;
+    }
+
+    private static final class FakeProvider implements AiProvider {
+        private final String name;
+        private final Mono<String> result;
+        private final AtomicInteger calls = new AtomicInteger();
+        private Flux<String> stream = Flux.empty();
+
+        FakeProvider(String name, Mono<String> result) {
+            this.name = name;
+            this.result = result;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String model() {
+            return "m";
+        }
+
+        @Override
+        public Mono<String> complete(String systemPrompt, String userPrompt) {
+            calls.incrementAndGet();
+            return result;
+        }
+
+        @Override
+        public Flux<String> stream(String systemPrompt, String userPrompt) {
+            calls.incrementAndGet();
+            return stream;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.codecraft.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AiResponseCacheTest {
+
+    private AiResponseCache newCache(int maxEntries, long ttlSeconds) {
+        return new AiResponseCache(true, maxEntries, ttlSeconds,
+                new StaticListableBeanFactory().getBeanProvider(AiResponseCacheStore.class));
+    }
+
+    @Test
+    void keyDependsOnEveryField() {
+        AiResponseCache cache = newCache(10, 60);
+        String base = cache.key("explain", "zh", "sys", "user", "deepseek-chat");
+
+        assertThat(cache.key("explain", "zh", "sys", "user", "deepseek-chat")).isEqualTo(base);
+        assertThat(cache.key("comment", "zh", "sys", "user", "deepseek-chat")).isNotEqualTo(base);
+        assertThat(cache.key("explain", "en", "sys", "user", "deepseek-chat")).isNotEqualTo(base);
+        assertThat(cache.key("explain", "zh", "sys", "user", "deepseek-reasoner")).isNotEqualTo(base);
+        // 字段边界不同但拼接结果相同的输入不应冲突
+        assertThat(cache.key("explain", "zh", "sysu", "ser", "deepseek-chat")).isNotEqualTo(base);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntry() {
+        AiResponseCache cache = newCache(2, 60);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        assertThat(cache.get("a").block()).isEqualTo("A");
+        cache.put("c", "C");
+
+        assertThat(cache.get("b").block()).isNull();
+        assertThat(cache.get("a").block()).isEqualTo("A");
+        assertThat(cache.get("c").block()).isEqualTo("C");
+        assertThat(cache.stats().getEvictions()).isEqualTo(1);
+        assertThat(cache.stats().getMemoryHits()).isEqualTo(3);
+        assertThat(cache.stats().getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    void expiredEntriesAreNotReturned() {
+        AiResponseCache cache = newCache(10, 0);
+        cache.put("a", "A");
+
+        assertThat(cache.get("a").block()).isNull();
+    }
+}
@@ -0,0 +1,29 @@
+package com.codecraft.service;
+
+import com.codecraft.config.ExecutionProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlockingCallsTest {
+
+    @Test
+    void servletModeRunsOnCallerThread() {
+        BlockingCalls calls = new BlockingCalls(new ExecutionProperties());
+
+        assertThat(calls.call(() -> Thread.currentThread().getName()).block()).isEqualTo(Thread.currentThread().getName());
+    }
+
+    @Test
+    void reactiveModeOffloadsToDedicatedScheduler() {
+        ExecutionProperties props = new ExecutionProperties();
+        props.setMode(ExecutionProperties.Mode.REACTIVE);
+        BlockingCalls calls = new BlockingCalls(props);
+        try {
+            assertThat(calls.call(() -> Thread.currentThread().getName()).block()).startsWith("ai-blocking");
+            assertThat(calls.call(() -> null).blockOptional()).isEmpty();
+        } finally {
+            calls.shutdown();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.codecraft.service;
+
+import com.codecraft.config.AiProviderProperties;
+import com.codecraft.config.PromptProperties;
+import com.codecraft.config.ResilienceProperties;
+import com.codecraft.entity.UserRole;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+class DeepSeekServiceTest {
+
+    private final FakeProvider provider = new FakeProvider();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final DeepSeekService service = new DeepSeekService(
+            new AiProviderRouter(new AiProviderProperties(), new UpstreamResilience(noRetry()), List.of(provider)),
+            Mockito.mock(RequestLogWriter.class),
+            new AiResponseCache(true, 100, 3600, new StaticListableBeanFactory().getBeanProvider(AiResponseCacheStore.class)),
+            new SingleFlight(),
+            new UpstreamScheduler(32, 4, 200, 4),
+            new PromptBuilder(new PromptProperties()),
+            new AiMetrics(registry));
+
+    @Test
+    void batchTagsEveryResultAndIsolatesFailures() {
+        List<DeepSeekService.BatchItem> items = List.of(
+                new DeepSeekService.BatchItem("a", request("int a;")),
+                new DeepSeekService.BatchItem("b", request("FAIL")),
+                new DeepSeekService.BatchItem("c", request("int c;")));
+
+        List<DeepSeekService.BatchResult> results = service.callBatch(items, 2).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(results).extracting(DeepSeekService.BatchResult::id, r -> r.result() != null, r -> r.error() != null)
+                .containsExactlyInAnyOrder(tuple("a", true, false), tuple("b", false, true), tuple("c", true, false));
+    }
+
+    @Test
+    void identicalItemsInOneBatchCallUpstreamOnce() {
+        List<DeepSeekService.BatchItem> items = List.of(
+                new DeepSeekService.BatchItem("1", request("int x;")),
+                new DeepSeekService.BatchItem("2", request("int x;")),
+                new DeepSeekService.BatchItem("3", request("int x;")));
+
+        List<DeepSeekService.BatchResult> results = service.callBatch(items, 3).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(results).hasSize(3).allSatisfy(r -> assertThat(r.result()).isEqualTo("ok"));
+        assertThat(provider.calls).hasValue(1);
+    }
+
+    @Test
+    void requestsAreTimedAndFailuresCountedByClass() {
+        List<DeepSeekService.BatchItem> items = List.of(
+                new DeepSeekService.BatchItem("a", request("int a;")),
+                new DeepSeekService.BatchItem("b", request("int a;")),
+                new DeepSeekService.BatchItem("c", request("FAIL")));
+
+        service.callBatch(items, 3).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(registry.get("ai.request.latency").tag("type", "comment").tag("outcome", "success").timer().count())
+                .isEqualTo(2);
+        assertThat(registry.get("ai.request.latency").tag("outcome", "error").timer().count()).isEqualTo(1);
+        // 相同请求合并为一次上游调用
+        assertThat(registry.get("ai.upstream.latency").tag("outcome", "success").timer().count()).isEqualTo(1);
+        assertThat(registry.get("ai.upstream.errors").tag("class", "http_4xx").counter().count()).isEqualTo(1);
+        assertThat(registry.get("ai.prompt.build").timer().count()).isEqualTo(3);
+        assertThat(registry.get("ai.response.size").summary().totalAmount()).isEqualTo(4);
+        assertThat(registry.get("ai.requests.in.flight").gauge().value()).isZero();
+    }
+
+    @Test
+    void missingProviderFailsInsteadOfReturningText() {
+        DeepSeekService unconfigured = new DeepSeekService(
+                new AiProviderRouter(new AiProviderProperties(), new UpstreamResilience(noRetry()), List.of()),
+                Mockito.mock(RequestLogWriter.class),
+                new AiResponseCache(true, 100, 3600, new StaticListableBeanFactory().getBeanProvider(AiResponseCacheStore.class)),
+                new SingleFlight(),
+                new UpstreamScheduler(32, 4, 200, 4),
+                new PromptBuilder(new PromptProperties()),
+                new AiMetrics(registry));
+
+        assertThatThrownBy(() -> unconfigured.callAi(request("int a;")).block(Duration.ofSeconds(5)))
+                .isInstanceOf(NoProviderException.class);
+        assertThatThrownBy(() -> unconfigured.streamAi(request("int a;")).blockLast(Duration.ofSeconds(5)))
+                .isInstanceOf(NoProviderException.class);
+    }
+
+    @Test
+    void errorMessagesDoNotAssumeDeepSeek() {
+        // 请求可能已路由到其他端点，兜底文案不指明具体服务商
+        assertThat(service.describeError(new RuntimeException("boom"))).isEqualTo("调用大模型失败: boom");
+        assertThat(service.describeError(new NoProviderException())).doesNotContain("DeepSeek").contains("ai.providers.endpoints");
+        assertThat(service.describeError(new UpstreamHttpException("local", 401, -1, ""))).startsWith("大模型服务 local 请求失败");
+    }
+
+    private static AiCallRequest request(String code) {
+        AiCallRequest request = new AiCallRequest();
+        request.setType("comment");
+        request.setCode(code);
+        request.setFileName("A.java");
+        request.setLanguage("zh");
+        request.setUsername("alice");
+        request.setRole(UserRole.USER);
+        return request;
+    }
+
+    private static ResilienceProperties noRetry() {
+        ResilienceProperties resilience = new ResilienceProperties();
+        resilience.getRetry().setMaxRetries(0);
+        return resilience;
+    }
+
+    private static final class FakeProvider implements AiProvider {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String name() {
+            return "fake";
+        }
+
+        @Override
+        public String model() {
+            return "m";
+        }
+
+        @Override
+        public Mono<String> complete(String systemPrompt, String userPrompt) {
+            calls.incrementAndGet();
+            if (userPrompt.contains("FAIL")) {
+                return Mono.error(new UpstreamHttpException("fake", 400, -1, "bad request"));
+            }
+            return Mono.just("ok").delayElement(Duration.ofMillis(50));
+        }
+
+        @Override
+        public Flux<String> stream(String systemPrompt, String userPrompt) {
+            return Flux.empty();
+        }
+    }
+}
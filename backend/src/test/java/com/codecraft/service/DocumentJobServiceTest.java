@@ -0,0 +1,145 @@
+package com.codecraft.service;
+
+import com.codecraft.config.AiProviderProperties;
+import com.codecraft.config.DocumentJobProperties;
+import com.codecraft.config.PromptProperties;
+import com.codecraft.config.ResilienceProperties;
+import com.codecraft.entity.UserRole;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DocumentJobServiceTest {
+
+    private final DocumentJobProperties properties = new DocumentJobProperties();
+    private final FakeProvider provider = new FakeProvider();
+    private final DocumentJobService jobs = new DocumentJobService(properties,
+            new PromptBuilder(new PromptProperties()),
+            new AiProviderRouter(new AiProviderProperties(), new UpstreamResilience(new ResilienceProperties()), List.of(provider)),
+            new AiResponseCache(true, 1000, 3600, new StaticListableBeanFactory().getBeanProvider(AiResponseCacheStore.class)),
+            new UpstreamScheduler(32, 4, 200, 4),
+            Mockito.mock(RequestLogWriter.class),
+            AiMetrics.noop());
+
+    @Test
+    void javaIsSplitAtMemberBoundariesKeepingJavadocWithDeclaration() {
+        List<DocumentChunker.Chunk> chunks = DocumentChunker.split("A.java", service(30, -1), SourceLanguage.JAVA, 120);
+
+        assertThat(chunks).hasSizeGreaterThan(1);
+        // 每块从顶层声明或 Javadoc 开始，不会把注释与方法、方法体与签名拆开
+        assertThat(chunks).allSatisfy(chunk -> assertThat(chunk.text()).matches("(?s)(    /\\*\\*|\\S).*"));
+        assertThat(chunks).allSatisfy(chunk -> assertThat(TokenEstimator.estimate(chunk.text())).isLessThanOrEqualTo(120));
+        assertThat(chunks.get(chunks.size() - 1).text()).endsWith("}");
+    }
+
+    @Test
+    void editInOneMethodLeavesOtherChunksUnchanged() {
+        Set<String> before = texts(DocumentChunker.split("A.java", service(60, -1), SourceLanguage.JAVA, 300));
+        Set<String> after = texts(DocumentChunker.split("A.java", service(60, 7), SourceLanguage.JAVA, 300));
+
+        Set<String> changed = new HashSet<>(after);
+        changed.removeAll(before);
+        assertThat(before).hasSizeGreaterThan(5);
+        assertThat(changed).hasSizeLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void rerunOnlyRegeneratesChangedChunks() {
+        properties.setChunkTokens(300);
+        DocumentJobService.Progress first = run(List.of(new DocumentJobService.SourceFile("A.java", service(60, -1), null)));
+
+        assertThat(first.status()).isEqualTo(DocumentJobService.Status.SUCCEEDED);
+        assertThat(first.completedChunks()).isEqualTo(first.totalChunks());
+        assertThat(first.cachedChunks()).isZero();
+        assertThat(first.result()).startsWith("merged");
+        int mapCalls = provider.chunkCalls.get();
+        assertThat(mapCalls).isEqualTo(first.totalChunks());
+
+        DocumentJobService.Progress second = run(List.of(new DocumentJobService.SourceFile("A.java", service(60, 7), null)));
+
+        int regenerated = provider.chunkCalls.get() - mapCalls;
+        assertThat(regenerated).isBetween(1, 2);
+        assertThat(second.cachedChunks()).isEqualTo(second.totalChunks() - regenerated);
+    }
+
+    @Test
+    void manyPartialsAreMergedLayerByLayer() {
+        properties.setChunkTokens(200);
+        properties.setReduceTokens(60);
+        List<DocumentJobService.SourceFile> files = List.of(
+                new DocumentJobService.SourceFile("a/A.java", service(20, -1), null),
+                new DocumentJobService.SourceFile("b/B.py", "def f():\n    return 1\n", null));
+
+        DocumentJobService.Progress progress = run(files);
+
+        assertThat(progress.status()).isEqualTo(DocumentJobService.Status.SUCCEEDED);
+        assertThat(progress.reduceCalls()).isGreaterThan(1);
+        assertThat(provider.finalProjectCalls).hasValue(1);
+        assertThatThrownBy(() -> jobs.plan(List.of())).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private DocumentJobService.Progress run(List<DocumentJobService.SourceFile> files) {
+        DocumentJobService.Job job = jobs.start("alice", UserRole.USER, jobs.plan(files), "zh", null);
+        return job.events().blockLast(Duration.ofSeconds(10));
+    }
+
+    private static Set<String> texts(List<DocumentChunker.Chunk> chunks) {
+        Set<String> texts = new HashSet<>();
+        chunks.forEach(chunk -> texts.add(chunk.text()));
+        return texts;
+    }
+
+    // 一个有 methods 个方法的类，edited 指定的方法体多出一行
+    private static String service(int methods, int edited) {
+        StringBuilder source = new StringBuilder("package demo;\n\nimport java.util.Map;\n\npublic class Service {\n");
+        for (int i = 0; i < methods; i++) {
+            source.append("\n    /**\n     * 处理第 ").append(i).append(" 类请求。\n     */\n")
+                    .append("    public int handle").append(i).append("(Map<String, Integer> input) {\n")
+                    .append("        int value = input.getOrDefault(\"k").append(i).append("\", 0);\n");
+            if (i == edited) source.append("        value += 1;\n");
+            source.append("        return value * ").append(i).append(";\n    }\n");
+        }
+        return source.append("}\n").toString();
+    }
+
+    private static final class FakeProvider implements AiProvider {
+        private final AtomicInteger chunkCalls = new AtomicInteger();
+        private final AtomicInteger finalProjectCalls = new AtomicInteger();
+
+        @Override
+        public String name() {
+            return "fake";
+        }
+
+        @Override
+        public String model() {
+            return "m";
+        }
+
+        @Override
+        public Mono<String> complete(String systemPrompt, String userPrompt) {
+            if (userPrompt.startsWith("Partial Documents:")) {
+                if (systemPrompt.contains("项目级")) finalProjectCalls.incrementAndGet();
+                return Mono.just("merged " + userPrompt.length());
+            }
+            chunkCalls.incrementAndGet();
+            return Mono.just("partial " + userPrompt.length()).delayElement(Duration.ofMillis(1));
+        }
+
+        @Override
+        public Flux<String> stream(String systemPrompt, String userPrompt) {
+            return Flux.empty();
+        }
+    }
+}
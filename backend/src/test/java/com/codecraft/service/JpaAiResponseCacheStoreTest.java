@@ -0,0 +1,45 @@
+package com.codecraft.service;
+
+import com.codecraft.entity.AiResponseCacheEntry;
+import com.codecraft.repository.AiResponseCacheRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class JpaAiResponseCacheStoreTest {
+
+    @Autowired
+    private AiResponseCacheRepository repository;
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void purgeDeletesOnlyExpiredEntries() {
+        JpaAiResponseCacheStore store = new JpaAiResponseCacheStore(repository);
+        store.save("expired", "old", LocalDateTime.now().minusMinutes(1));
+        store.save("live", "new", LocalDateTime.now().plusHours(1));
+        store.save("forever", "kept", null);
+
+        assertThat(store.load("expired")).isEmpty();
+        store.purgeExpired();
+
+        assertThat(repository.findAll()).extracting(AiResponseCacheEntry::getCacheKey).containsExactlyInAnyOrder("live", "forever");
+        assertThat(store.load("live")).contains("new");
+    }
+}
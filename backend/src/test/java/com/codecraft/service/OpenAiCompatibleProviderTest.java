@@ -0,0 +1,123 @@
+package com.codecraft.service;
+
+import com.codecraft.config.AiProviderProperties;
+import com.codecraft.config.UpstreamHttpProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.netty.handler.timeout.ReadTimeoutException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OpenAiCompatibleProviderTest {
+
+    private final AtomicReference<ClientRequest> lastRequest = new AtomicReference<>();
+
+    @Test
+    void streamEmitsDeltasUntilDoneMarker() {
+        OpenAiCompatibleProvider provider = provider(HttpStatus.OK, MediaType.TEXT_EVENT_STREAM_VALUE, String.join("",
+                chunk("{\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}"),
+                chunk("{\"choices\":[{\"delta\":{\"content\":\"/** 计算\"}}]}"),
+                ": keep-alive\n\n",
+                chunk("not json"),
+                chunk("{\"choices\":[{\"delta\":{\"content\":\"总和 */\"}}]}"),
+                chunk("[DONE]"),
+                // [DONE] 之后的内容不再下发
+                chunk("{\"choices\":[{\"delta\":{\"content\":\"ignored\"}}]}")));
+
+        List<String> deltas = provider.stream("s", "u").collectList().block(Duration.ofSeconds(5));
+
+        // 只有角色、无法解析的块与注释行不产生增量
+        assertThat(deltas).containsExactly("/** 计算", "总和 */");
+        assertThat(lastRequest.get().headers().getAccept()).contains(MediaType.TEXT_EVENT_STREAM);
+        assertThat(lastRequest.get().headers().getFirst(HttpHeaders.AUTHORIZATION)).isEqualTo("Bearer sk-test");
+    }
+
+    @Test
+    void streamErrorStatusBecomesUpstreamHttpException() {
+        OpenAiCompatibleProvider provider = provider(HttpStatus.UNAUTHORIZED, MediaType.APPLICATION_JSON_VALUE,
+                "{\"error\":\"invalid key\"}");
+
+        assertThatThrownBy(() -> provider.stream("s", "u").blockLast(Duration.ofSeconds(5)))
+                .isInstanceOfSatisfying(UpstreamHttpException.class, ex -> {
+                    assertThat(ex.getStatusCode()).isEqualTo(401);
+                    assertThat(ex.getProvider()).isEqualTo("stub");
+                });
+    }
+
+    @Test
+    void firstByteTimeoutOnlyLimitsStreamingCalls() throws Exception {
+        // 真实连接：上游 500 ms 后才返回首字节
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"choices\":[{\"message\":{\"content\":\"ok\"}}]}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        try {
+            UpstreamHttpProperties http = new UpstreamHttpProperties();
+            http.setFirstByteTimeoutMs(200);
+            http.setTotalTimeoutMs(5_000);
+            AiProviderProperties.Endpoint endpoint = new AiProviderProperties.Endpoint();
+            endpoint.setName("local");
+            endpoint.setUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions");
+            endpoint.setModel("m");
+            OpenAiCompatibleProvider provider = new OpenAiCompatibleProvider(endpoint,
+                    WebClient.builder().clientConnector(new ReactorClientHttpConnector()).build(), new ObjectMapper(), http);
+
+            // 非流式调用只受整体超时限制
+            assertThat(provider.complete("s", "u").block(Duration.ofSeconds(5))).isEqualTo("ok");
+            assertThatThrownBy(() -> provider.stream("s", "u").blockLast(Duration.ofSeconds(5)))
+                    .hasRootCauseInstanceOf(ReadTimeoutException.class);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private OpenAiCompatibleProvider provider(HttpStatus status, String contentType, String body) {
+        WebClient webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    lastRequest.set(request);
+                    return Mono.just(ClientResponse.create(status)
+                            .header(HttpHeaders.CONTENT_TYPE, contentType)
+                            .body(body)
+                            .build());
+                })
+                .build();
+        AiProviderProperties.Endpoint endpoint = new AiProviderProperties.Endpoint();
+        endpoint.setName("stub");
+        endpoint.setUrl("http://upstream.test/v1/chat/completions");
+        endpoint.setApiKey("sk-test");
+        endpoint.setModel("m");
+        return new OpenAiCompatibleProvider(endpoint, webClient, new ObjectMapper(), new UpstreamHttpProperties());
+    }
+
+    private static String chunk(String data) {
+        return "data: " + data + "\n\n";
+    }
+}
@@ -0,0 +1,104 @@
+package com.codecraft.service;
+
+import com.codecraft.config.PromptProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PromptBuilderTest {
+
+    private static final String SERVICE = String.join("\n",
+            "package demo;",
+            "",
+            "/**",
+            " * 订单服务。",
+            " */",
+            "public class OrderService {",
+            "    // 缓存",
+            "    private final Map<String, Order> cache = new HashMap<>();",
+            "",
+            "    public Order find(String id) throws IOException {",
+            "        if (id == null) { throw new IllegalArgumentException(\"id }\"); }",
+            "        return cache.get(id);",
+            "    }",
+            "",
+            "    public void clear()",
+            "    {",
+            "        cache.clear();",
+            "    }",
+            "}");
+
+    private final PromptProperties properties = new PromptProperties();
+    private final PromptBuilder builder = new PromptBuilder(properties);
+
+    @Test
+    void contextIdenticalToCodeIsDropped() {
+        AiCallRequest request = request("document", SERVICE, SERVICE);
+
+        PromptBuilder.Prompt prompt = builder.build(request);
+
+        assertThat(prompt.user()).doesNotContain("Project Context");
+        assertThat(prompt.reductions()).containsExactly("dedupe");
+        assertThat(prompt.tokensAfter()).isLessThan(prompt.tokensBefore());
+    }
+
+    @Test
+    void overBudgetContextIsStrippedThenOutlined() {
+        properties.getBudgets().put("test", 250);
+        AiCallRequest request = request("test", "cache.clear();", SERVICE);
+
+        PromptBuilder.Prompt prompt = builder.build(request);
+
+        assertThat(prompt.reductions()).containsSubsequence("context-comments", "context-outline").doesNotContain("context-truncate");
+        assertThat(prompt.user())
+                .doesNotContain("订单服务", "// 缓存")
+                .contains("public Order find(String id) throws IOException { ... }")
+                .contains("public void clear()\n    { ... }")
+                .doesNotContain("return cache.get(id);");
+        assertThat(prompt.tokensAfter()).isLessThanOrEqualTo(250);
+    }
+
+    @Test
+    void codeIsNeverReducedForCommentRequests() {
+        properties.getBudgets().put("comment", 10);
+        AiCallRequest request = request("comment", SERVICE, null);
+
+        PromptBuilder.Prompt prompt = builder.build(request);
+
+        assertThat(prompt.user()).contains(SERVICE);
+        assertThat(prompt.reductions()).isEmpty();
+        assertThat(prompt.tokensAfter()).isEqualTo(prompt.tokensBefore());
+    }
+
+    @Test
+    void pythonOutlineKeepsSignaturesAndDocstrings() {
+        String source = String.join("\n",
+                "class Repo:",
+                "    def load(self, key):",
+                "        \"\"\"读取一条记录\"\"\"",
+                "        row = self.db.get(key)",
+                "        return row",
+                "",
+                "    def size(self): return len(self.db)",
+                "x = 1");
+
+        assertThat(SourceCompressor.outline(source, SourceLanguage.PYTHON)).isEqualTo(String.join("\n",
+                "class Repo:",
+                "    def load(self, key):",
+                "        \"\"\"读取一条记录\"\"\"",
+                "        ...",
+                "    def size(self): return len(self.db)",
+                "x = 1"));
+        assertThat(SourceCompressor.truncate("a\nb\nc\nd", 4)).isEqualTo("a\nb\n... (2 lines omitted)");
+    }
+
+    private static AiCallRequest request(String type, String code, String context) {
+        AiCallRequest request = new AiCallRequest();
+        request.setType(type);
+        request.setCode(code);
+        request.setContext(context);
+        request.setFileName("OrderService.java");
+        request.setLanguage("zh");
+        return request;
+    }
+}
@@ -0,0 +1,108 @@
+package com.codecraft.service;
+
+import com.codecraft.entity.RequestLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PromptSnippetStoreTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 6, 1, 12, 0);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private PromptSnippetStore store;
+
+    @BeforeEach
+    void setUp() {
+        // 内存库在各测试类之间共享，先清掉其它测试留下的片段
+        clear();
+        store = new PromptSnippetStore(jdbcTemplate, transactionTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        clear();
+    }
+
+    private void clear() {
+        jdbcTemplate.update("DELETE FROM ai_request_logs");
+        jdbcTemplate.update("DELETE FROM ai_prompt_snippets");
+    }
+
+    @Test
+    void identicalSnippetsAreStoredOnceCompressed() {
+        String code = "public int handle(Map<String, Integer> input) {\n    return input.size();\n}\n".repeat(40) + "注释";
+        RequestLog a = log(code, NOW);
+        RequestLog b = log(code, NOW.plusMinutes(1));
+        RequestLog c = log("int x;", NOW);
+        RequestLog none = log(null, NOW);
+
+        store.storeBatch(List.of(a, b, c, none));
+        store.storeBatch(List.of(log(code, NOW.minusDays(1))));
+
+        assertThat(a.getSnippetHash()).isEqualTo(b.getSnippetHash()).hasSize(64);
+        assertThat(none.getSnippetHash()).isNull();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ai_prompt_snippets", Long.class)).isEqualTo(2);
+        Integer stored = jdbcTemplate.queryForObject("SELECT LENGTH(content) FROM ai_prompt_snippets WHERE hash = ?",
+                Integer.class, a.getSnippetHash());
+        assertThat(stored).isLessThan(code.length() / 10);
+        assertThat(store.load(List.of(a.getSnippetHash(), c.getSnippetHash(), "missing")))
+                .containsEntry(a.getSnippetHash(), code)
+                .containsEntry(c.getSnippetHash(), "int x;")
+                .hasSize(2);
+        // 较早的日志（如回放的落盘文件）不会把最近引用时间往回改
+        assertThat(store.deleteUnusedBefore(NOW.plusSeconds(30))).isEqualTo(1);
+        assertThat(store.load(List.of(a.getSnippetHash()))).containsKey(a.getSnippetHash());
+    }
+
+    @Test
+    void legacyInlineSnippetsAreMigrated() {
+        jdbcTemplate.execute("ALTER TABLE ai_request_logs ADD COLUMN prompt_snippet TEXT");
+        try {
+            for (String code : List.of("class A {}", "class A {}", "class B {}")) {
+                jdbcTemplate.update("INSERT INTO ai_request_logs (username, prompt_snippet, created_at) VALUES ('alice', ?, ?)",
+                        code, Timestamp.valueOf(NOW));
+            }
+
+            store.migrateLegacySnippets();
+
+            assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ai_request_logs WHERE prompt_snippet IS NOT NULL",
+                    Long.class)).isZero();
+            List<String> hashes = jdbcTemplate.queryForList("SELECT snippet_hash FROM ai_request_logs ORDER BY id", String.class);
+            assertThat(store.load(hashes)).containsValues("class A {}", "class B {}").hasSize(2);
+            assertThat(hashes.get(0)).isEqualTo(hashes.get(1));
+        } finally {
+            jdbcTemplate.execute("ALTER TABLE ai_request_logs DROP COLUMN prompt_snippet");
+        }
+    }
+
+    private static RequestLog log(String snippet, LocalDateTime createdAt) {
+        RequestLog log = new RequestLog();
+        log.setPromptSnippet(snippet);
+        log.setCreatedAt(createdAt);
+        return log;
+    }
+}
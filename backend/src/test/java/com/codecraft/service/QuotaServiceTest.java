@@ -0,0 +1,113 @@
+package com.codecraft.service;
+
+import com.codecraft.config.QuotaProperties;
+import com.codecraft.entity.UserRole;
+import com.codecraft.repository.RequestLogRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QuotaServiceTest {
+
+    private final Clock clock = Clock.fixed(Instant.parse("2026-01-01T10:15:00Z"), ZoneId.of("UTC"));
+
+    private QuotaService newService(QuotaProperties properties, long dailyLimit) {
+        return new QuotaService(Mockito.mock(RequestLogRepository.class), properties, AiMetrics.noop(), dailyLimit, clock);
+    }
+
+    @Test
+    void concurrentRequestsCannotOvershootDailyLimit() throws Exception {
+        QuotaService quota = newService(new QuotaProperties(), 50);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            results.add(pool.submit(() -> quota.tryAcquire("alice", UserRole.USER, 1).allowed()));
+        }
+        long allowed = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get()) allowed++;
+        }
+        pool.shutdown();
+
+        assertThat(allowed).isEqualTo(50);
+        assertThat(quota.usedToday("alice")).isEqualTo(50);
+    }
+
+    @Test
+    void burstRejectionRollsBackDailyCounter() {
+        QuotaProperties properties = new QuotaProperties();
+        QuotaProperties.Limits limits = new QuotaProperties.Limits();
+        limits.setDaily(100);
+        limits.setBurst(2);
+        properties.getLimits().put(UserRole.USER, limits);
+        QuotaService quota = newService(properties, 100);
+
+        assertThat(quota.tryAcquire("bob", UserRole.USER, 1).allowed()).isTrue();
+        assertThat(quota.tryAcquire("bob", UserRole.USER, 1).allowed()).isTrue();
+        QuotaService.QuotaDecision rejected = quota.tryAcquire("bob", UserRole.USER, 1);
+
+        assertThat(rejected.allowed()).isFalse();
+        assertThat(rejected.retryAfterSeconds()).isEqualTo(60);
+        assertThat(quota.usedToday("bob")).isEqualTo(2);
+    }
+
+    @Test
+    void unlimitedRolesAreStillCounted() {
+        QuotaService quota = newService(new QuotaProperties(), 1);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(quota.tryAcquire("admin", UserRole.ADMIN, 1).allowed()).isTrue();
+        }
+        assertThat(quota.usedToday("admin")).isEqualTo(5);
+        assertThat(quota.dailyLimit(UserRole.ADMIN)).isEqualTo(-1);
+    }
+
+    @Test
+    void releasedUnitsCanBeAcquiredAgain() {
+        QuotaProperties properties = new QuotaProperties();
+        QuotaProperties.Limits limits = new QuotaProperties.Limits();
+        limits.setDaily(3);
+        limits.setBurst(3);
+        properties.getLimits().put(UserRole.USER, limits);
+        QuotaService quota = newService(properties, 3);
+
+        assertThat(quota.tryAcquire("carol", UserRole.USER, 3).allowed()).isTrue();
+        quota.release("carol", 2);
+        quota.release("carol", 5);
+
+        assertThat(quota.usedToday("carol")).isZero();
+        assertThat(quota.tryAcquire("carol", UserRole.USER, 3).allowed()).isTrue();
+        assertThat(quota.tryAcquire("carol", UserRole.USER, 1).allowed()).isFalse();
+    }
+
+    @Test
+    void requestLargerThanBurstIsRejectedAsNonRetryable() {
+        QuotaProperties properties = new QuotaProperties();
+        QuotaProperties.Limits limits = new QuotaProperties.Limits();
+        limits.setDaily(100);
+        limits.setBurst(10);
+        properties.getLimits().put(UserRole.USER, limits);
+        QuotaService quota = newService(properties, 100);
+
+        // 窗口为空时也不可能放行，重试无效
+        QuotaService.QuotaDecision rejected = quota.tryAcquire("dave", UserRole.USER, 11);
+
+        assertThat(rejected.allowed()).isFalse();
+        assertThat(rejected.retryable()).isFalse();
+        assertThat(rejected.message()).contains("11").contains("10");
+        assertThat(quota.usedToday("dave")).isZero();
+        assertThat(quota.tryAcquire("dave", UserRole.USER, 10).allowed()).isTrue();
+        // 窗口已满的普通拒绝仍可重试
+        assertThat(quota.tryAcquire("dave", UserRole.USER, 1).retryable()).isTrue();
+    }
+}
@@ -0,0 +1,133 @@
+package com.codecraft.service;
+
+import com.codecraft.config.LogStorageProperties;
+import com.codecraft.entity.RequestLog;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RequestLogRetentionJobTest {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @TempDir
+    Path archiveDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Clock clock = Clock.fixed(Instant.parse("2024-06-15T00:00:00Z"), ZoneId.of("UTC"));
+    private PromptSnippetStore snippetStore;
+
+    @BeforeEach
+    void setUp() {
+        snippetStore = new PromptSnippetStore(jdbcTemplate, transactionTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM ai_request_logs");
+        jdbcTemplate.update("DELETE FROM ai_prompt_snippets");
+    }
+
+    @Test
+    void expiredMonthsAreArchivedThenDeletedInBatches() throws Exception {
+        for (int i = 0; i < 5; i++) insert("alice", LocalDateTime.of(2024, 1, 10, 8, i), "class Old {}");
+        insert("bob", LocalDateTime.of(2024, 3, 31, 23, 59), "class A {}");
+        insert("alice", LocalDateTime.of(2024, 4, 1, 0, 0), "class A {}");
+        insert("alice", LocalDateTime.of(2024, 6, 14, 12, 0), "class A {}");
+
+        RequestLogRetentionJob job = job(3, 2);
+        RequestLogRetentionJob.RetentionResult result = job.archiveExpired();
+
+        // 保留 4、5、6 三个月
+        assertThat(result.getMonths()).isEqualTo(2);
+        assertThat(result.getRows()).isEqualTo(6);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ai_request_logs", Long.class)).isEqualTo(2);
+        List<JsonNode> january = read(archiveDir.resolve("ai_request_logs-2024-01.ndjson.gz"));
+        assertThat(january).hasSize(5).allSatisfy(row -> assertThat(row.get("username").asText()).isEqualTo("alice"));
+        assertThat(january.get(0).get("created_at").asText()).isEqualTo("2024-01-10T08:00");
+        assertThat(january.get(0).get("prompt_snippet").asText()).isEqualTo("class Old {}");
+        // 仍被保留日志引用的片段不删除
+        assertThat(result.getSnippets()).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ai_prompt_snippets", Long.class)).isEqualTo(1);
+        assertThat(read(archiveDir.resolve("ai_request_logs-2024-03.ndjson.gz"))).hasSize(1);
+        assertThat(Files.list(archiveDir)).hasSize(2);
+    }
+
+    @Test
+    void rerunDoesNotOverwriteEarlierArchive() throws Exception {
+        RequestLogRetentionJob job = job(12, 100);
+        insert("alice", LocalDateTime.of(2023, 1, 5, 0, 0), "class A {}");
+        job.archiveBefore(YearMonth.of(2023, 2));
+        insert("bob", LocalDateTime.of(2023, 1, 6, 0, 0), "class A {}");
+        job.archiveBefore(YearMonth.of(2023, 2));
+
+        assertThat(read(archiveDir.resolve("ai_request_logs-2023-01.ndjson.gz"))).hasSize(1);
+        assertThat(read(archiveDir.resolve("ai_request_logs-2023-01.1.ndjson.gz")).get(0).get("username").asText())
+                .isEqualTo("bob");
+        assertThat(job(0, 100).archiveExpired().getMonths()).isZero();
+    }
+
+    private RequestLogRetentionJob job(int retentionMonths, int batchSize) {
+        LogStorageProperties properties = new LogStorageProperties();
+        properties.setRetentionMonths(retentionMonths);
+        properties.setBatchSize(batchSize);
+        properties.setArchiveDir(archiveDir.toString());
+        return new RequestLogRetentionJob(jdbcTemplate, objectMapper, snippetStore, properties, clock);
+    }
+
+    private void insert(String username, LocalDateTime createdAt, String snippet) {
+        RequestLog log = new RequestLog();
+        log.setPromptSnippet(snippet);
+        log.setCreatedAt(createdAt);
+        snippetStore.storeBatch(List.of(log));
+        jdbcTemplate.update("INSERT INTO ai_request_logs (request_type, file_name, username, snippet_hash, created_at) "
+                + "VALUES ('comment', 'A.java', ?, ?, ?)", username, log.getSnippetHash(), Timestamp.valueOf(createdAt));
+    }
+
+    private List<JsonNode> read(Path file) throws Exception {
+        List<JsonNode> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                rows.add(objectMapper.readTree(line));
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,177 @@
+package com.codecraft.service;
+
+import com.codecraft.entity.RequestLog;
+import com.codecraft.repository.AiUsageDailyRepository;
+import com.codecraft.repository.RequestLogRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RequestLogWriterTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 6, 1, 12, 0);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private AiUsageDailyRepository usageDailyRepository;
+
+    @Autowired
+    private RequestLogRepository requestLogRepository;
+
+    @TempDir
+    Path dir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private RequestLogWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        writer = writer(200);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM ai_request_logs");
+        jdbcTemplate.update("DELETE FROM ai_prompt_snippets");
+        jdbcTemplate.update("DELETE FROM ai_usage_daily");
+    }
+
+    @Test
+    void overlongClientValuesAreTruncatedBeforeInsert() {
+        writer.submit(log("alice", "x".repeat(80), "f".repeat(300)));
+        writer.submit(log("bob", "explain", "A.java"));
+        writer.flush();
+
+        assertThat(writer.writtenCount()).isEqualTo(2);
+        assertThat(jdbcTemplate.queryForObject("SELECT LENGTH(file_name) FROM ai_request_logs WHERE username = 'alice'",
+                Integer.class)).isEqualTo(RequestLogWriter.MAX_FILE_NAME_LENGTH);
+        assertThat(jdbcTemplate.queryForObject("SELECT SUM(request_count) FROM ai_usage_daily", Long.class)).isEqualTo(2);
+    }
+
+    @Test
+    void multiUnitLogCountsEveryUnitInRollupAndQuotaRebuild() {
+        RequestLog job = log("alice", "document", "3 files");
+        job.setUnits(5);
+        writer.submit(job);
+        writer.submit(log("alice", "explain", "A.java"));
+        writer.flush();
+
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ai_request_logs", Long.class)).isEqualTo(2);
+        assertThat(usageDailyRepository.sumByUsername("alice")).isEqualTo(6);
+        List<Object[]> used = requestLogRepository.sumUnitsByUsernameSince(NOW.toLocalDate().atStartOfDay());
+        assertThat(((Number) used.get(0)[1]).longValue()).isEqualTo(6);
+        // 从原始日志重建的汇总与增量累加一致
+        new UsageRollupService(jdbcTemplate, transactionTemplate, usageDailyRepository).rebuildDay(NOW.toLocalDate());
+        assertThat(usageDailyRepository.sumByUsername("alice")).isEqualTo(6);
+    }
+
+    @Test
+    void badRowInReplayedBatchGoesToDeadLetterWithoutBlockingOthers() throws Exception {
+        // 截断之前落盘的超长日志：整批插入失败后逐条写入，只有这一条进入死信文件
+        List<String> lines = new ArrayList<>();
+        lines.add(objectMapper.writeValueAsString(log("alice", "explain", "A.java")));
+        lines.add(objectMapper.writeValueAsString(log("mallory", "t".repeat(60), "B.java")));
+        lines.add(objectMapper.writeValueAsString(log("bob", "comment", "C.java")));
+        Files.write(dir.resolve("spill.jsonl"), lines, StandardCharsets.UTF_8);
+
+        writer.replaySpill();
+
+        assertThat(jdbcTemplate.queryForList("SELECT username FROM ai_request_logs ORDER BY username", String.class))
+                .containsExactly("alice", "bob");
+        assertThat(jdbcTemplate.queryForObject("SELECT SUM(request_count) FROM ai_usage_daily", Long.class)).isEqualTo(2);
+        assertThat(writer.deadLetteredCount()).isEqualTo(1);
+        List<String> dead = Files.readAllLines(dir.resolve("dead.jsonl"), StandardCharsets.UTF_8);
+        assertThat(dead).hasSize(1);
+        assertThat(objectMapper.readValue(dead.get(0), RequestLog.class).getUsername()).isEqualTo("mallory");
+        // 落盘文件回放完即删除，坏数据不会被反复回放
+        assertThat(dir.resolve("spill.jsonl")).doesNotExist();
+        assertThat(dir.resolve("spill.jsonl.replaying")).doesNotExist();
+    }
+
+    @Test
+    void truncatedLastLineIsDeadLetteredAndRowsAreWrittenOnce() throws Exception {
+        // 进程崩溃时最后一行只写了一半
+        List<String> lines = new ArrayList<>();
+        lines.add(objectMapper.writeValueAsString(log("alice", "explain", "A.java")));
+        lines.add(objectMapper.writeValueAsString(log("bob", "comment", "B.java")));
+        lines.add(objectMapper.writeValueAsString(log("carol", "comment", "C.java")));
+        String truncated = objectMapper.writeValueAsString(log("dave", "comment", "D.java")).substring(0, 20);
+        lines.add(truncated);
+        Files.write(dir.resolve("spill.jsonl"), lines, StandardCharsets.UTF_8);
+        RequestLogWriter small = writer(2);
+
+        small.replaySpill();
+        small.replaySpill();
+
+        assertThat(jdbcTemplate.queryForList("SELECT username FROM ai_request_logs ORDER BY username", String.class))
+                .containsExactly("alice", "bob", "carol");
+        assertThat(jdbcTemplate.queryForObject("SELECT SUM(request_count) FROM ai_usage_daily", Long.class)).isEqualTo(3);
+        assertThat(Files.readAllLines(dir.resolve("dead.jsonl"), StandardCharsets.UTF_8)).containsExactly(truncated);
+        assertThat(dir.resolve("spill.jsonl.replaying")).doesNotExist();
+        assertThat(dir.resolve("spill.jsonl.replaying.pos")).doesNotExist();
+    }
+
+    @Test
+    void interruptedReplayResumesAfterCommittedBatches() throws Exception {
+        // 上次回放写完前两行后崩溃，留下回放中的文件与进度
+        List<String> lines = new ArrayList<>();
+        for (String user : List.of("alice", "bob", "carol", "dave")) {
+            lines.add(objectMapper.writeValueAsString(log(user, "explain", "A.java")));
+        }
+        Files.write(dir.resolve("spill.jsonl.replaying"), lines, StandardCharsets.UTF_8);
+        Files.writeString(dir.resolve("spill.jsonl.replaying.pos"), "2");
+
+        writer(2).replaySpill();
+
+        assertThat(jdbcTemplate.queryForList("SELECT username FROM ai_request_logs ORDER BY username", String.class))
+                .containsExactly("carol", "dave");
+        assertThat(dir.resolve("spill.jsonl.replaying")).doesNotExist();
+    }
+
+    private RequestLogWriter writer(int batchSize) {
+        return new RequestLogWriter(jdbcTemplate, transactionTemplate,
+                new UsageRollupService(jdbcTemplate, transactionTemplate, usageDailyRepository),
+                new PromptSnippetStore(jdbcTemplate, transactionTemplate), AiMetrics.noop(), objectMapper,
+                100, batchSize, 1000, RequestLogWriter.OverflowPolicy.SPILL,
+                dir.resolve("spill.jsonl").toString(), dir.resolve("dead.jsonl").toString(), 3, 60_000, 500, false);
+    }
+
+    private static RequestLog log(String username, String type, String fileName) {
+        RequestLog log = new RequestLog();
+        log.setUsername(username);
+        log.setRequestType(type);
+        log.setFileName(fileName);
+        log.setPromptSnippet("class A {}");
+        log.setCreatedAt(NOW);
+        return log;
+    }
+}
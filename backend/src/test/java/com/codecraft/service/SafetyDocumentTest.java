@@ -0,0 +1,92 @@
+package com.codecraft.service;
+
+import com.codecraft.config.SafetyProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+class SafetyDocumentTest {
+
+    private final SafetyService safety = new SafetyService(new SafetyProperties(), new DefaultResourceLoader(), new ObjectMapper());
+
+    @Test
+    void editReportsOnlyChangedHits() {
+        SafetyDocument document = open("a.java", "int a;\nClass.forName(x);\nint b;");
+
+        SafetyDocument.Change change = document.apply(List.of(
+                new SafetyDocument.Edit(1, 1, 1, 1, "new ProcessBuilder(cmd);\n"))).get(0);
+
+        assertThat(change.added()).extracting(SafetyScanner.Hit::ruleId, SafetyScanner.Hit::line, SafetyScanner.Hit::column)
+                .containsExactly(tuple("java-command-exec", 1, 5));
+        assertThat(change.removed()).isEmpty();
+        assertThat(document.version()).isEqualTo(1);
+        assertThat(document.snapshot().hits()).extracting(SafetyScanner.Hit::line).containsExactly(1, 3);
+    }
+
+    @Test
+    void openingBlockCommentRescansFollowingLinesUntilStateSettles() {
+        SafetyDocument document = open("a.java", "int a;\nClass.forName(x);\nRuntime.getRuntime().exec(c);\nint b; */\nint c;");
+
+        SafetyDocument.Change opened = document.apply(List.of(new SafetyDocument.Edit(1, 7, 1, 7, " /*"))).get(0);
+        assertThat(opened.removed()).extracting(SafetyScanner.Hit::line).containsExactly(2, 3);
+        assertThat(opened.added()).isEmpty();
+        assertThat(document.warnings()).isEmpty();
+
+        SafetyDocument.Change closed = document.apply(List.of(new SafetyDocument.Edit(1, 7, 1, 10, ""))).get(0);
+        assertThat(closed.added()).extracting(SafetyScanner.Hit::line).containsExactly(2, 3);
+    }
+
+    @Test
+    void incrementalEditsMatchFullRescan() {
+        String[] fragments = {"Class.forName(", "\"bash -c\"", "/*", "*/", "//", "\n", "x", "\"", "DELETE FROM t", "\"\"\"\n"};
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder("class A {\n  void run() {\n    ProcessBuilder pb;\n  }\n}\n");
+        SafetyDocument document = open("A.java", text.toString());
+        for (int step = 0; step < 500; step++) {
+            int start = random.nextInt(text.length() + 1);
+            int end = Math.min(text.length(), start + random.nextInt(4));
+            String insert = random.nextInt(3) == 0 ? "" : fragments[random.nextInt(fragments.length)];
+            int[] from = position(text, start);
+            int[] to = position(text, end);
+            document.apply(List.of(new SafetyDocument.Edit(from[0], from[1], to[0], to[1], insert)));
+            text.replace(start, end, insert);
+
+            assertThat(document.snapshot()).isEqualTo(safety.scan(text.toString(), "A.java", null));
+        }
+        assertThat(document.length()).isEqualTo(text.length());
+    }
+
+    @Test
+    void rejectsOutOfRangeEditsAndOversizedDocuments() {
+        SafetyDocument document = new SafetyDocument(safety.scannerFor("a.py", null), "abc", 10);
+
+        assertThatThrownBy(() -> document.apply(List.of(new SafetyDocument.Edit(2, 1, 2, 1, "x"))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> document.apply(List.of(new SafetyDocument.Edit(1, 1, 1, 1, "x".repeat(100)))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private SafetyDocument open(String fileName, String content) {
+        return new SafetyDocument(safety.scannerFor(fileName, null), content, 64 * 1024);
+    }
+
+    // 偏移量转换为从 1 开始的行列
+    private static int[] position(CharSequence text, int offset) {
+        int line = 1;
+        int lineStart = 0;
+        for (int i = 0; i < offset; i++) {
+            if (text.charAt(i) == '\n') {
+                line++;
+                lineStart = i + 1;
+            }
+        }
+        return new int[]{line, offset - lineStart + 1};
+    }
+}
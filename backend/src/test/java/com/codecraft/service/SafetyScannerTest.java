@@ -0,0 +1,141 @@
+package com.codecraft.service;
+
+import com.codecraft.config.SafetyProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.StringReader;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+class SafetyScannerTest {
+
+    private final SafetyService defaults = new SafetyService(new SafetyProperties(), new DefaultResourceLoader(), new ObjectMapper());
+
+    @Test
+    void reportsLineAndColumnOfEachHit() {
+        String content = "class A {\n  void run() {\n    Runtime.getRuntime().exec(cmd);\n    Class.forName(name);\n  }\n}";
+
+        SafetyScanner.ScanResult result = defaults.scan(content);
+
+        assertThat(result.hits()).extracting(SafetyScanner.Hit::ruleId, SafetyScanner.Hit::line, SafetyScanner.Hit::column)
+                .containsExactly(
+                        tuple("java-command-exec", 3, 5),
+                        tuple("java-reflection", 4, 5));
+        assertThat(result.warnings()).containsExactly("潜在命令注入：Runtime.exec/ProcessBuilder", "Java 反射或类加载风险");
+    }
+
+    @Test
+    void confirmRegexFiltersCandidates() {
+        assertThat(defaults.checkDangerousPatterns("const value = evaluate(x);")).isEmpty();
+        assertThat(defaults.checkDangerousPatterns("const value = myeval(x);")).isEmpty();
+        assertThat(defaults.checkDangerousPatterns("const value = eval  (x);")).containsExactly("JS 代码执行：eval/new Function");
+    }
+
+    @Test
+    void ignoreCaseOnlyAppliesToItsRule() {
+        assertThat(defaults.checkDangerousPatterns("DROP TABLE users;")).containsExactly("危险 SQL 语句");
+        assertThat(defaults.checkDangerousPatterns("processbuilder")).isEmpty();
+    }
+
+    @Test
+    void streamingScanMatchesStringScan() throws Exception {
+        String content = "import os\r\nos.system('ls')\r\n\r\nsubprocess.Popen(['bash -c', 'x'])";
+
+        SafetyScanner.ScanResult fromString = defaults.scan(content);
+        SafetyScanner.ScanResult fromReader = defaults.scan(new StringReader(content));
+
+        assertThat(fromReader).isEqualTo(fromString);
+        assertThat(fromString.hits()).extracting(SafetyScanner.Hit::line).containsExactly(2, 4, 4);
+    }
+
+    @Test
+    void overlappingTriggersOfOneRuleReportOnce() {
+        SafetyProperties.Rule rule = rule("fs", "fs.rm", "fs.rmdir");
+        SafetyScanner scanner = new SafetyScanner(List.of(rule), 10);
+
+        assertThat(scanner.scan("fs.rmdir(p); fs.rm(q)").hits()).extracting(SafetyScanner.Hit::column).containsExactly(1, 14);
+    }
+
+    @Test
+    void hitsAreCappedButWarningsStayComplete() {
+        SafetyScanner scanner = new SafetyScanner(List.of(rule("a", "x"), rule("b", "y")), 2);
+
+        SafetyScanner.ScanResult result = scanner.scan("xxx y");
+
+        assertThat(result.hits()).hasSize(2);
+        assertThat(result.truncated()).isTrue();
+        assertThat(result.warnings()).containsExactly("a", "b");
+    }
+
+    @Test
+    void triggersMustNotSpanLines() {
+        assertThatThrownBy(() -> new SafetyScanner(List.of(rule("bad", "a\nb")), 10))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void javaSkipsCommentsAndStringsButKeepsStringRules() {
+        String content = String.join("\n",
+                "// Runtime.getRuntime().exec(cmd) 只是注释",
+                "/* Class.forName(name);",
+                "   ProcessBuilder pb; */ String s = \"ProcessBuilder\";",
+                "String sql = \"\"\"",
+                "    DELETE FROM users",
+                "    \"\"\";",
+                "new ProcessBuilder(\"bash -c\", cmd);");
+
+        SafetyScanner.ScanResult result = defaults.scan(content, "Job.java", null);
+
+        assertThat(result.hits()).extracting(SafetyScanner.Hit::ruleId, SafetyScanner.Hit::line, SafetyScanner.Hit::column)
+                .containsExactly(
+                        tuple("sql-destructive", 5, 5),
+                        tuple("java-command-exec", 7, 5),
+                        tuple("shell-exec", 7, 21));
+        assertThat(defaults.scan(content).hits()).hasSizeGreaterThan(result.hits().size());
+    }
+
+    @Test
+    void rulesOnlyApplyToTheirLanguages() {
+        String content = "eval(input); os.system(cmd)";
+
+        assertThat(defaults.scan(content, "app.ts", null).warnings()).containsExactly("JS 代码执行：eval/new Function");
+        assertThat(defaults.scan(content, "app.py", null).warnings()).containsExactly("Python 系统调用");
+        // 编辑器语言优先于扩展名，无法识别时按纯文本检查全部规则
+        assertThat(defaults.scan(content, "app.py", "javascript").warnings()).containsExactly("JS 代码执行：eval/new Function");
+        assertThat(defaults.scan(content, "notes.txt", null).warnings()).hasSize(2);
+    }
+
+    @Test
+    void pythonDocstringsAndShellCommentsAreSkipped() {
+        String python = "\"\"\"\nos.system('x')\n\"\"\"\nos.system(cmd)  # os.system";
+        String shell = "echo $# # bash -c\nbash -c \"$1\"";
+
+        assertThat(defaults.scan(python, "run.py", null).hits()).extracting(SafetyScanner.Hit::line).containsExactly(4);
+        assertThat(defaults.scan(shell, "run.sh", null).hits()).extracting(SafetyScanner.Hit::line).containsExactly(2);
+    }
+
+    @Test
+    void lexStateCarriesAcrossLinesWhenStreaming() throws Exception {
+        String content = "const a = `\n${x} eval(y)\n`; /* fs.rm(p)\n*/ fs.rm(q)";
+
+        SafetyScanner.ScanResult fromString = defaults.scan(content, "a.js", null);
+        SafetyScanner.ScanResult fromReader = defaults.scan(new StringReader(content), "a.js", null);
+
+        assertThat(fromReader).isEqualTo(fromString);
+        assertThat(fromString.hits()).extracting(SafetyScanner.Hit::ruleId, SafetyScanner.Hit::line)
+                .containsExactly(tuple("node-fs-delete", 4));
+    }
+
+    private static SafetyProperties.Rule rule(String id, String... triggers) {
+        SafetyProperties.Rule rule = new SafetyProperties.Rule();
+        rule.setId(id);
+        rule.setMessage(id);
+        rule.setTriggers(List.of(triggers));
+        return rule;
+    }
+}
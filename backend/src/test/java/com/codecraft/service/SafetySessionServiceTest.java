@@ -0,0 +1,119 @@
+package com.codecraft.service;
+
+import com.codecraft.config.SafetyProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SafetySessionServiceTest {
+
+    private final SafetyProperties properties = new SafetyProperties();
+    private final SafetyService safety = new SafetyService(properties, new DefaultResourceLoader(), new ObjectMapper());
+    private final MutableClock clock = new MutableClock();
+    private final SafetySessionService sessions = new SafetySessionService(safety, properties, clock);
+
+    @Test
+    void sessionsBelongToTheirOwner() {
+        SafetySessionService.Session session = sessions.open("alice", "os.system(cmd)", "run.py", null);
+
+        assertThat(sessions.get("bob", session.id())).isNull();
+        assertThat(sessions.close("bob", session.id())).isFalse();
+        assertThat(sessions.get("alice", session.id())).isSameAs(session);
+    }
+
+    @Test
+    void staleVersionIsRejectedAndWarningsAreDiffed() {
+        SafetySessionService.Session session = sessions.open("alice", "print(1)", "run.py", null);
+        List<SafetyDocument.Edit> edit = List.of(new SafetyDocument.Edit(1, 1, 1, 9, "os.system(cmd)"));
+
+        SafetySessionService.Update update = sessions.apply(session, 0, edit);
+
+        assertThat(update.version()).isEqualTo(1);
+        assertThat(update.warningsAdded()).containsExactly("Python 系统调用");
+        assertThat(sessions.apply(session, 0, edit)).isNull();
+    }
+
+    @Test
+    void invalidEditClosesTheSession() {
+        SafetySessionService.Session session = sessions.open("alice", "x", "run.py", null);
+
+        assertThatThrownBy(() -> sessions.apply(session, null, List.of(new SafetyDocument.Edit(3, 1, 3, 1, "y"))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(sessions.get("alice", session.id())).isNull();
+    }
+
+    @Test
+    void expiredAndOverLimitSessionsAreEvicted() {
+        properties.getSessions().setMaxPerUser(2);
+        SafetySessionService.Session oldest = sessions.open("alice", "a", null, null);
+        clock.advance(Duration.ofSeconds(1));
+        SafetySessionService.Session middle = sessions.open("alice", "b", null, null);
+        clock.advance(Duration.ofSeconds(1));
+        SafetySessionService.Session newest = sessions.open("alice", "c", null, null);
+
+        assertThat(sessions.get("alice", oldest.id())).isNull();
+        assertThat(sessions.get("alice", newest.id())).isNotNull();
+
+        clock.advance(Duration.ofMillis(properties.getSessions().getTtlMs() + 1));
+        sessions.evictExpired();
+        assertThat(sessions.activeSessions()).isZero();
+        assertThat(sessions.get("alice", middle.id())).isNull();
+    }
+
+    @Test
+    void globalCapsEvictOldestSessionsAcrossUsers() {
+        properties.getSessions().setMaxSessions(3);
+        properties.getSessions().setMaxTotalChars(30);
+        SafetySessionService.Session alice = sessions.open("alice", "a".repeat(10), null, null);
+        clock.advance(Duration.ofSeconds(1));
+        SafetySessionService.Session bob = sessions.open("bob", "b".repeat(10), null, null);
+        clock.advance(Duration.ofSeconds(1));
+        SafetySessionService.Session carol = sessions.open("carol", "c".repeat(5), null, null);
+        clock.advance(Duration.ofSeconds(1));
+        // 访问后不再是最久未访问的
+        sessions.get("alice", alice.id());
+
+        SafetySessionService.Session dave = sessions.open("dave", "d", null, null);
+        assertThat(sessions.activeSessions()).isEqualTo(3);
+        assertThat(sessions.get("bob", bob.id())).isNull();
+
+        // 编辑使总字符数超限时同样淘汰其它会话，正在编辑的会话保留
+        clock.advance(Duration.ofSeconds(1));
+        sessions.apply(dave, null, List.of(new SafetyDocument.Edit(1, 1, 1, 2, "d".repeat(20))));
+        assertThat(sessions.get("carol", carol.id())).isNull();
+        assertThat(sessions.get("alice", alice.id())).isNotNull();
+        assertThat(sessions.get("dave", dave.id())).isNotNull();
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.codecraft.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    @Test
+    void concurrentCallersShareOneUpstreamSubscription() {
+        SingleFlight singleFlight = new SingleFlight();
+        AtomicInteger subscriptions = new AtomicInteger();
+        Sinks.One<String> upstream = Sinks.one();
+
+        Mono<String> first = singleFlight.execute("k", () -> upstream.asMono().doOnSubscribe(s -> subscriptions.incrementAndGet()));
+        Mono<String> second = singleFlight.execute("k", () -> upstream.asMono().doOnSubscribe(s -> subscriptions.incrementAndGet()));
+
+        String[] results = new String[2];
+        first.subscribe(v -> results[0] = v);
+        second.subscribe(v -> results[1] = v);
+        assertThat(singleFlight.inFlightCount()).isEqualTo(1);
+
+        upstream.tryEmitValue("done");
+
+        assertThat(results).containsExactly("done", "done");
+        assertThat(subscriptions).hasValue(1);
+        assertThat(singleFlight.coalescedCount()).isEqualTo(1);
+        assertThat(singleFlight.inFlightCount()).isZero();
+    }
+
+    @Test
+    void failedCallIsRemovedSoNextCallRetries() {
+        SingleFlight singleFlight = new SingleFlight();
+        AtomicInteger calls = new AtomicInteger();
+
+        Mono<String> failing = singleFlight.execute("k", () -> {
+            calls.incrementAndGet();
+            return Mono.error(new IllegalStateException("boom"));
+        });
+        assertThatThrownBy(failing::block).hasMessageContaining("boom");
+
+        String value = singleFlight.execute("k", () -> {
+            calls.incrementAndGet();
+            return Mono.just("ok");
+        }).block();
+
+        assertThat(value).isEqualTo("ok");
+        assertThat(calls).hasValue(2);
+    }
+}
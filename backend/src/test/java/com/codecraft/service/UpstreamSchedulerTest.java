@@ -0,0 +1,86 @@
+package com.codecraft.service;
+
+import com.codecraft.entity.UserRole;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UpstreamSchedulerTest {
+
+    @Test
+    void perUserCapLetsOtherUsersThrough() {
+        UpstreamScheduler scheduler = new UpstreamScheduler(4, 1, 10, 4);
+        List<String> startedBy = new ArrayList<>();
+        Sinks.One<String> first = Sinks.one();
+
+        scheduler.schedule("power", UserRole.USER, () -> {
+            startedBy.add("power");
+            return first.asMono();
+        }).subscribe();
+        scheduler.schedule("power", UserRole.USER, () -> {
+            startedBy.add("power");
+            return Mono.just("second");
+        }).subscribe();
+        scheduler.schedule("other", UserRole.USER, () -> {
+            startedBy.add("other");
+            return Mono.never();
+        }).subscribe();
+
+        assertThat(startedBy).containsExactly("power", "other");
+        assertThat(scheduler.stats().getQueued()).isEqualTo(1);
+
+        first.tryEmitValue("done");
+        assertThat(startedBy).containsExactly("power", "other", "power");
+    }
+
+    @Test
+    void highPriorityRolesAreDispatchedFirst() {
+        UpstreamScheduler scheduler = new UpstreamScheduler(1, 1, 10, 4);
+        List<String> startedBy = new ArrayList<>();
+        Sinks.One<String> blocker = Sinks.one();
+        scheduler.schedule("holder", UserRole.USER, blocker::asMono).subscribe();
+
+        scheduler.schedule("student", UserRole.USER, () -> {
+            startedBy.add("student");
+            return Mono.just("s");
+        }).subscribe();
+        scheduler.schedule("teacher", UserRole.MEMBER, () -> {
+            startedBy.add("teacher");
+            return Mono.just("t");
+        }).subscribe();
+
+        blocker.tryEmitValue("done");
+        assertThat(startedBy).containsExactly("teacher", "student");
+    }
+
+    @Test
+    void rejectsWithRetryAfterWhenQueueIsFull() {
+        UpstreamScheduler scheduler = new UpstreamScheduler(1, 1, 1, 4);
+        scheduler.schedule("a", UserRole.USER, Mono::never).subscribe();
+        scheduler.schedule("b", UserRole.USER, Mono::never).subscribe();
+
+        Throwable[] error = new Throwable[1];
+        scheduler.schedule("c", UserRole.USER, () -> Mono.just("x")).subscribe(v -> {}, e -> error[0] = e);
+
+        assertThat(error[0]).isInstanceOf(UpstreamBusyException.class);
+        assertThat(((UpstreamBusyException) error[0]).getRetryAfterSeconds()).isPositive();
+        assertThat(scheduler.stats().getRejected()).isEqualTo(1);
+    }
+
+    @Test
+    void cancelledWaiterLeavesQueue() {
+        UpstreamScheduler scheduler = new UpstreamScheduler(1, 1, 10, 4);
+        scheduler.schedule("a", UserRole.USER, Mono::never).subscribe();
+        var waiting = scheduler.schedule("b", UserRole.USER, () -> Mono.just("x")).subscribe();
+        assertThat(scheduler.stats().getQueued()).isEqualTo(1);
+
+        waiting.dispose();
+
+        assertThat(scheduler.stats().getQueued()).isZero();
+    }
+}
@@ -1,10 +1,11 @@
 import React, { useEffect, useState } from 'react';
-import { Box, Button, Stack, TextField, MenuItem, Typography, Divider, Grid, Paper, IconButton, CircularProgress, Alert } from '@mui/material';
+import { Box, Button, Stack, TextField, MenuItem, Typography, Divider, Grid, Paper, IconButton, CircularProgress, Alert, Pagination } from '@mui/material';
 import { Edit, Delete, PersonAdd } from '@mui/icons-material';
 import axios from 'axios';
 import { API_BASE_URL } from '../config';
 
 const roles = ['USER', 'MEMBER', 'ADMIN'];
+const PAGE_SIZE = 50;
 
 export default function AdminPanel({ token, currentUser, strings }) {
     const [users, setUsers] = useState([]);
@@ -12,15 +13,21 @@ export default function AdminPanel({ token, currentUser, strings }) {
     const [editingId, setEditingId] = useState(null);
     const [loading, setLoading] = useState(false);
     const [error, setError] = useState(null);
+    const [page, setPage] = useState(1);
+    const [total, setTotal] = useState(0);
 
     const authHeader = { headers: { Authorization: `Bearer ${token}` } };
 
-    const loadUsers = async () => {
+    const loadUsers = async (targetPage = page) => {
         setLoading(true);
         setError(null);
         try {
-            const res = await axios.get(`${API_BASE_URL}/api/admin/users`, authHeader);
+            const res = await axios.get(`${API_BASE_URL}/api/admin/users`, {
+                ...authHeader,
+                params: { page: targetPage - 1, size: PAGE_SIZE },
+            });
             setUsers(res.data);
+            setTotal(Number(res.headers['x-total-count'] ?? res.data.length));
         } catch (e) {
             console.error(e);
             setError(e.response?.data?.message || e.message || '加载用户失败');
@@ -30,8 +37,8 @@ export default function AdminPanel({ token, currentUser, strings }) {
     };
 
     useEffect(() => {
-        if (token) loadUsers();
-    }, [token]);
+        if (token) loadUsers(page);
+    }, [token, page]);
 
     const submit = async () => {
         if (!form.username || (!editingId && !form.password)) {
@@ -190,6 +197,16 @@ export default function AdminPanel({ token, currentUser, strings }) {
                     </React.Fragment>
                 ))}
             </Grid>
+            {total > PAGE_SIZE && (
+                <Stack direction="row" justifyContent="flex-end" sx={{ mt: 2 }}>
+                    <Pagination
+                        count={Math.ceil(total / PAGE_SIZE)}
+                        page={page}
+                        onChange={(e, value) => setPage(value)}
+                        size="small"
+                    />
+                </Stack>
+            )}
         </Box>
     );
 }
\ No newline at end of file